@@ -0,0 +1,219 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CharStream} that reads one character per byte straight from a buffer, without decoding the file into a
+ * separate code point array.
+ * <p>
+ * Large files are memory-mapped and smaller ones read into a single heap array, as mapping costs more than reading a
+ * few pages. Files made of ASCII bytes only, which is nearly every Java source, and files that are not valid UTF-8 are
+ * read as ISO-8859-1. Valid UTF-8 with multibyte characters is decoded as usual, see {@link #decoded()}.
+ * <p>
+ * Closing the stream unmaps the file right away instead of waiting for the garbage collector. Tokens read their text
+ * from the stream, so it must stay open until everything needed has been extracted from them.
+ */
+public class ByteCharStream implements CharStream, AutoCloseable {
+    // Below this size a file is read rather than mapped. Above it, a heap copy would be a humongous allocation for G1
+    // with small regions, while mapping and unmapping cost a few system calls whatever the size.
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available on this JVM, mappings are then released when their buffer is collected.
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private ByteBuffer buffer;
+    // The backing array of a heap buffer, read directly as it is faster than going through the buffer.
+    private byte[] array;
+    private final int size;
+    private final String sourceName;
+    // The content decoded as UTF-8 when it has multibyte characters, null when it is read one byte per character.
+    private final String decodedText;
+    private int position;
+
+    private ByteCharStream(ByteBuffer buffer, String sourceName) {
+        this.buffer = buffer;
+        this.array = buffer.hasArray() ? buffer.array() : null;
+        this.size = buffer.limit();
+        this.sourceName = sourceName;
+        this.decodedText = isAscii(buffer) ? null : decodeUtf8(buffer);
+    }
+
+    public static ByteCharStream open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File too large to parse: " + path);
+            }
+            ByteBuffer buffer = fileSize >= MAP_THRESHOLD
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+                    : ByteBuffer.wrap(Files.readAllBytes(path));
+            return new ByteCharStream(buffer, path.toString());
+        }
+    }
+
+    public static ByteCharStream wrap(byte[] content, String sourceName) {
+        return new ByteCharStream(ByteBuffer.wrap(content), sourceName);
+    }
+
+    /**
+     * @return this stream if the content is read one byte per character, otherwise a stream over the decoded UTF-8
+     */
+    public CharStream decoded() {
+        return decodedText == null ? this : CharStreams.fromString(decodedText, sourceName);
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        int length = buffer.limit();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if ((buffer.getLong(i) & HIGH_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the content decoded as UTF-8, or null if it is not valid UTF-8 and is read as ISO-8859-1 instead
+     */
+    private static String decodeUtf8(ByteBuffer buffer) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(buffer.duplicate())
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int index = i > 0 ? position + i - 1 : position + i;
+        if (index < 0 || index >= size) {
+            return IntStream.EOF;
+        }
+        return (array != null ? array[index] : buffer.get(index)) & 0xFF;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName != null ? sourceName : IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(interval.a, 0);
+        int stop = Math.min(interval.b, size - 1);
+        if (stop < start) {
+            return "";
+        }
+        if (array != null) {
+            return new String(array, start, stop - start + 1, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[stop - start + 1];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer released = buffer;
+        // Reading after close fails here rather than touching unmapped memory.
+        buffer = null;
+        array = null;
+        if (released instanceof MappedByteBuffer) {
+            unmap((MappedByteBuffer) released);
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // Left to the garbage collector.
+        }
+    }
+}
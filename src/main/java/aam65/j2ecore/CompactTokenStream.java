@@ -0,0 +1,335 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.WritableToken;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.Arrays;
+
+/**
+ * A token stream that keeps the tokens of a file in parallel {@code int} arrays instead of one {@link Token} object
+ * each, and only creates a token when the parser or the extractor asks for it.
+ * <p>
+ * The parser predicts with token types alone, so only the tokens it matches, which end up in the tree, are ever
+ * created. This needs a {@link FastJavaLexer}, which scans a file without creating its tokens; the tokens of any other
+ * source are created by the source and kept as they are.
+ * <p>
+ * Like a {@link org.antlr.v4.runtime.CommonTokenStream}, the stream shows the parser the tokens of the default channel
+ * only. It can also drop the other tokens, whitespace and comments, as they are read, since nothing in the model needs
+ * them; the text of syntax error messages then leaves out the whitespace between tokens.
+ * <p>
+ * The whole file is read from the token source when it is set. The arrays are reused from one file to the next, and
+ * keep the room a large file needed until a long run of smaller files shows it is no longer worth holding.
+ * <p>
+ * The tokens created are kept until the next file, as the tree refers to them anyway. When nothing holds on to them,
+ * as with a {@link StreamingExtractor}, the stream can instead keep only the last one, which the parser asks for over
+ * and over.
+ */
+public class CompactTokenStream implements TokenStream {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Arrays grown beyond this many tokens are shrunk back to it once this many files in a row have fit in it.
+    private static final int RETAINED_CAPACITY = 1 << 16;
+    private static final int SMALL_FILES_BEFORE_SHRINK = 256;
+
+    private final boolean dropHidden;
+    private final boolean keepTokens;
+    private TokenSource tokenSource;
+    private Pair<TokenSource, CharStream> source;
+    private int[] types;
+    private int[] channels;
+    private int[] starts;
+    private int[] stops;
+    private int[] lines;
+    private int[] columns;
+    // The tokens created so far, or given by the source, allocated on first use.
+    private Token[] tokens;
+    private int size;
+    private int position;
+    private int lastIndex = -1;
+    private Token lastToken;
+    private int smallFiles;
+
+    /**
+     * @param dropHidden when true, tokens that are not on the default channel are dropped as they are read
+     */
+    public CompactTokenStream(boolean dropHidden) {
+        this(dropHidden, true);
+    }
+
+    /**
+     * @param keepTokens when false, only the last token created is kept, see {@link CompactTokenStream}
+     */
+    public CompactTokenStream(boolean dropHidden, boolean keepTokens) {
+        this.dropHidden = dropHidden;
+        this.keepTokens = keepTokens;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reads all the tokens of a source, up to and including its end of file.
+     */
+    public void setTokenSource(TokenSource tokenSource) {
+        clear();
+        this.tokenSource = tokenSource;
+        if (tokenSource instanceof FastJavaLexer) {
+            source = ((FastJavaLexer) tokenSource).getTokenSourcePair();
+            ((FastJavaLexer) tokenSource).fill(this);
+        } else {
+            Token token;
+            do {
+                token = tokenSource.nextToken();
+                add(token);
+            } while (token.getType() != Token.EOF);
+        }
+        position = nextOnChannel(0);
+    }
+
+    /**
+     * Drops the tokens of the current file, so they can be collected.
+     */
+    public void clear() {
+        if (tokens != null) {
+            Arrays.fill(tokens, 0, size, null);
+        }
+        // Every file has at least its end of file token, so an empty stream has already been counted.
+        if (size > 0 && types.length > RETAINED_CAPACITY) {
+            smallFiles = size > RETAINED_CAPACITY ? 0 : smallFiles + 1;
+            if (smallFiles == SMALL_FILES_BEFORE_SHRINK) {
+                allocate(RETAINED_CAPACITY);
+                smallFiles = 0;
+            }
+        }
+        tokenSource = null;
+        source = null;
+        size = 0;
+        position = 0;
+        lastIndex = -1;
+        lastToken = null;
+    }
+
+    /**
+     * Adds a token that has already been created, which is kept as it is.
+     */
+    public void add(Token token) {
+        if (dropHidden && token.getChannel() != Token.DEFAULT_CHANNEL) {
+            return;
+        }
+        int index = size;
+        add(token.getType(), token.getChannel(), token.getStartIndex(), token.getStopIndex(), token.getLine(),
+                token.getCharPositionInLine());
+        if (token instanceof WritableToken) {
+            ((WritableToken) token).setTokenIndex(index);
+        }
+        tokens()[index] = token;
+    }
+
+    /**
+     * Adds a token without creating it, as if created by the token factory of the source.
+     */
+    public void add(int type, int channel, int start, int stop, int line, int column) {
+        if (dropHidden && channel != Token.DEFAULT_CHANNEL) {
+            return;
+        }
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = type;
+        channels[size] = channel;
+        starts[size] = start;
+        stops[size] = stop;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+
+    /**
+     * @return the type of a token, without creating it
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    @Override
+    public Token get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("token index " + index + " out of range 0.." + (size - 1));
+        }
+        Token token = tokens != null ? tokens[index] : null;
+        if (token == null) {
+            if (index == lastIndex) {
+                return lastToken;
+            }
+            token = tokenSource.getTokenFactory().create(source, types[index], null, channels[index], starts[index],
+                    stops[index], lines[index], columns[index]);
+            if (token instanceof WritableToken) {
+                ((WritableToken) token).setTokenIndex(index);
+            }
+            if (keepTokens) {
+                tokens()[index] = token;
+            } else {
+                lastIndex = index;
+                lastToken = token;
+            }
+        }
+        return token;
+    }
+
+    @Override
+    public Token LT(int k) {
+        int index = indexOf(k);
+        return index >= 0 ? get(index) : null;
+    }
+
+    @Override
+    public int LA(int i) {
+        int index = indexOf(i);
+        return index >= 0 ? types[index] : Token.INVALID_TYPE;
+    }
+
+    /**
+     * @return the index of the k-th token of the default channel ahead of the current one, or behind it when k is
+     * negative, or -1 if there is none
+     */
+    private int indexOf(int k) {
+        if (k == 0) {
+            return -1;
+        }
+        int index = position;
+        if (k < 0) {
+            for (int n = 0; n < -k; n++) {
+                index = previousOnChannel(index - 1);
+                if (index < 0) {
+                    return -1;
+                }
+            }
+            return index;
+        }
+        for (int n = 1; n < k; n++) {
+            index = nextOnChannel(index + 1);
+        }
+        return index;
+    }
+
+    private int nextOnChannel(int index) {
+        if (index >= size) {
+            return size - 1;
+        }
+        while (index < size - 1 && channels[index] != Token.DEFAULT_CHANNEL) {
+            index++;
+        }
+        return index;
+    }
+
+    private int previousOnChannel(int index) {
+        while (index >= 0 && channels[index] != Token.DEFAULT_CHANNEL) {
+            index--;
+        }
+        return index;
+    }
+
+    @Override
+    public void consume() {
+        if (types[position] == Token.EOF) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position = nextOnChannel(position + 1);
+    }
+
+    @Override
+    public int mark() {
+        return 0;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = nextOnChannel(Math.max(index, 0));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return tokenSource.getSourceName();
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return tokenSource;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(interval.a, 0);
+        int stop = Math.min(interval.b, size - 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i <= stop && types[i] != Token.EOF; i++) {
+            text.append(get(i).getText());
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String getText() {
+        return getText(Interval.of(0, size - 1));
+    }
+
+    @Override
+    public String getText(RuleContext context) {
+        return getText(context.getSourceInterval());
+    }
+
+    @Override
+    public String getText(Token start, Token stop) {
+        if (start == null || stop == null) {
+            return "";
+        }
+        return getText(Interval.of(start.getTokenIndex(), stop.getTokenIndex()));
+    }
+
+    private void allocate(int capacity) {
+        types = new int[capacity];
+        channels = new int[capacity];
+        starts = new int[capacity];
+        stops = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+        tokens = null;
+    }
+
+    private Token[] tokens() {
+        if (tokens == null) {
+            tokens = new Token[types.length];
+        }
+        return tokens;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        channels = Arrays.copyOf(channels, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        stops = Arrays.copyOf(stops, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        columns = Arrays.copyOf(columns, capacity);
+        if (tokens != null) {
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package aam65.j2ecore;
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * On-disk cache of the declarations extracted from each file, so unchanged files are neither lexed nor parsed again.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the tool version and the file content, which lets several checkouts and CI
+ * agents share one cache directory. Hashing still means reading every file, so a per-host index remembers the hash of
+ * each path together with its size and modification time: when both are unchanged the entry is loaded without
+ * opening the source file. Entries are touched whenever they are used, and {@link #close()} removes the least
+ * recently used ones once the cache grows past its size limit. Every cache file ends with a CRC-32 of its content and
+ * every count read from it is checked, so a truncated or damaged file is detected instead of being read as wrong
+ * declarations. Cache failures are logged and never fail a run; the file is parsed as if there were no cache, and a
+ * damaged entry is deleted so the new result replaces it.
+ */
+public class DeclarationCache implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(DeclarationCache.class.getName());
+
+    /**
+     * Part of every key. Change it whenever extraction or the entry format changes, so old entries stop matching.
+     */
+    static final String TOOL_VERSION = "j2ecore-0.1.0/declarations-2";
+    private static final int ENTRY_MAGIC = 0x4A324543;
+    private static final int INDEX_MAGIC = 0x4A324549;
+    private static final String ENTRY_SUFFIX = ".decl";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Path indexFile;
+    private final Map<String, IndexEntry> previousIndex;
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final AtomicInteger fastHits = new AtomicInteger();
+    private final AtomicInteger hashHits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private static class IndexEntry {
+        final long size;
+        final long modifiedMicros;
+        final String hash;
+
+        IndexEntry(long size, long modifiedMicros, String hash) {
+            this.size = size;
+            this.modifiedMicros = modifiedMicros;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A file looked up in the cache: either its cached declarations, or its content, to be parsed.
+     */
+    public static final class Lookup {
+        private final Path filePath;
+        private final ParsedFile cached;
+        private final byte[] content;
+        private final String hash;
+
+        private Lookup(Path filePath, ParsedFile cached, byte[] content, String hash) {
+            this.filePath = filePath;
+            this.cached = cached;
+            this.content = content;
+            this.hash = hash;
+        }
+
+        /**
+         * @return the cached declarations, or null if the file has to be parsed
+         */
+        public ParsedFile getCached() {
+            return cached;
+        }
+
+        /**
+         * @return the content of a file that has to be parsed, or null if it was not read
+         */
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    public DeclarationCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        this.indexFile = directory.resolve("index-" + hostName() + ".idx");
+        this.previousIndex = readIndex(indexFile);
+    }
+
+    /**
+     * Returns the declarations of the file from the cache, or parses it with the given parser and stores the result.
+     */
+    public ParsedFile parse(Path filePath, JavaFileParser parser) throws IOException {
+        Lookup lookup = lookup(filePath);
+        return lookup.getCached() != null ? lookup.getCached() : parse(lookup, parser);
+    }
+
+    /**
+     * Looks a file up without parsing it, which only reads the file when its size or modification time changed. This
+     * is the part of {@link #parse(Path, JavaFileParser)} that waits on the disk.
+     */
+    public Lookup lookup(Path filePath) throws IOException {
+        String key = filePath.toAbsolutePath().normalize().toString();
+        BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modifiedMicros = attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS);
+
+        IndexEntry known = previousIndex.get(key);
+        if (known != null && known.size == size && known.modifiedMicros == modifiedMicros) {
+            ParsedFile cached = load(filePath, known.hash);
+            if (cached != null) {
+                index.put(key, known);
+                fastHits.incrementAndGet();
+                return new Lookup(filePath, cached, null, known.hash);
+            }
+        }
+
+        byte[] content = Files.readAllBytes(filePath);
+        String hash = hash(content);
+        index.put(key, new IndexEntry(size, modifiedMicros, hash));
+
+        ParsedFile cached = load(filePath, hash);
+        if (cached != null) {
+            hashHits.incrementAndGet();
+            return new Lookup(filePath, cached, null, hash);
+        }
+        return new Lookup(filePath, null, content, hash);
+    }
+
+    /**
+     * Parses a file that was not found by {@link #lookup(Path)} and stores the result.
+     */
+    public ParsedFile parse(Lookup lookup, JavaFileParser parser) {
+        if (lookup.cached != null) {
+            throw new IllegalArgumentException("Already cached: " + lookup.filePath);
+        }
+        misses.incrementAndGet();
+        ParsedFile parsedFile = parser.parse(lookup.filePath, lookup.content);
+        store(lookup.hash, parsedFile);
+        return parsedFile;
+    }
+
+    public int getFastHitCount() {
+        return fastHits.get();
+    }
+
+    public int getHashHitCount() {
+        return hashHits.get();
+    }
+
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Saves the path index of this run and evicts the least recently used entries beyond the size limit.
+     */
+    @Override
+    public void close() {
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save the cache index " + indexFile, e);
+        }
+        try {
+            evict();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not evict entries from the cache " + directory, e);
+        }
+    }
+
+    Path entryPath(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash + ENTRY_SUFFIX);
+    }
+
+    private ParsedFile load(Path filePath, String hash) {
+        Path entry = entryPath(hash);
+        try {
+            ParsedFile parsedFile = readEntry(readChecked(entry), filePath);
+            touch(entry);
+            return parsedFile;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable cache entry " + entry, e);
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException deleteFailure) {
+                // Overwritten when the file is stored again
+            }
+            return null;
+        }
+    }
+
+    private void store(String hash, ParsedFile parsedFile) {
+        Path entry = entryPath(hash);
+        try {
+            Files.createDirectories(entry.getParent());
+            writeAtomically(entry, out -> writeEntry(out, parsedFile));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write cache entry " + entry, e);
+        }
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    private void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            entries = files.filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                    .collect(Collectors.toList());
+        }
+
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        long total = 0;
+        for (Path entry : entries) {
+            try {
+                BasicFileAttributes entryAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                attributes.put(entry, entryAttributes);
+                total += entryAttributes.size();
+            } catch (NoSuchFileException e) {
+                // Removed by another process sharing the cache
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        List<Path> oldestFirst = new ArrayList<>(attributes.keySet());
+        oldestFirst.sort(Comparator.comparing((Path entry) -> attributes.get(entry).lastModifiedTime())
+                .thenComparing(Comparator.naturalOrder()));
+        for (Path entry : oldestFirst) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(entry);
+            total -= attributes.get(entry).size();
+        }
+    }
+
+    static String hash(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(TOOL_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update(content);
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName().replaceAll("[^A-Za-z0-9._-]", "_");
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes to a temporary file first, so processes sharing the cache never see a partially written file, and appends
+     * the checksum {@link #readChecked(Path)} verifies.
+     */
+    private static void writeAtomically(Path target, Writer writer) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+                 DataOutputStream out = new DataOutputStream(checked)) {
+                writer.write(out);
+                out.writeInt((int) checked.getChecksum().getValue());
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a whole cache file and checks its checksum. Reading from memory lets every count be checked against the
+     * bytes left.
+     */
+    private static DataInputStream readChecked(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length - 4;
+        CRC32 crc = new CRC32();
+        if (end >= 0) {
+            crc.update(bytes, 0, end);
+        }
+        if (end < 0 || (int) crc.getValue() != ByteBuffer.wrap(bytes, end, 4).getInt()) {
+            throw new IOException("Truncated or damaged cache file");
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes, 0, end));
+    }
+
+    private static Map<String, IndexEntry> readIndex(Path indexFile) {
+        Map<String, IndexEntry> entries = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+        try {
+            DataInputStream in = readChecked(indexFile);
+            if (in.readInt() != INDEX_MAGIC || !TOOL_VERSION.equals(readString(in))) {
+                return entries;
+            }
+            int count = readCount(in);
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                entries.put(path, new IndexEntry(in.readLong(), in.readLong(), readString(in)));
+            }
+            checkEnd(in);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable cache index " + indexFile, e);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /**
+     * Only the paths seen in this run are kept, so the index does not grow with files that no longer exist.
+     */
+    private void writeIndex() throws IOException {
+        Map<String, IndexEntry> snapshot = new HashMap<>(index);
+        writeAtomically(indexFile, out -> {
+            out.writeInt(INDEX_MAGIC);
+            writeString(out, TOOL_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, IndexEntry> entry : snapshot.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().modifiedMicros);
+                writeString(out, entry.getValue().hash);
+            }
+        });
+    }
+
+    private static void writeEntry(DataOutputStream out, ParsedFile parsedFile) throws IOException {
+        out.writeInt(ENTRY_MAGIC);
+        writeString(out, parsedFile.getPackageName());
+        writeStrings(out, parsedFile.getImports());
+        out.writeInt(parsedFile.getTypeDeclarations().size());
+        for (TypeDeclaration type : parsedFile.getTypeDeclarations()) {
+            out.writeByte(type.kind().ordinal());
+            writeString(out, type.name());
+            writeString(out, type.qualifiedName());
+            writeStrings(out, type.superTypes());
+
+            out.writeInt(type.annotations().size());
+            for (TypeDeclaration.Annotation annotation : type.annotations()) {
+                writeString(out, annotation.name());
+                out.writeInt(annotation.elements().size());
+                for (Map.Entry<String, String> element : annotation.elements().entrySet()) {
+                    writeString(out, element.getKey());
+                    writeString(out, element.getValue());
+                }
+            }
+
+            out.writeInt(type.fields().size());
+            for (TypeDeclaration.Field field : type.fields()) {
+                writeString(out, field.name());
+                writeString(out, field.typeName());
+            }
+
+            out.writeInt(type.operations().size());
+            for (TypeDeclaration.Operation operation : type.operations()) {
+                writeString(out, operation.name());
+                out.writeInt(operation.parameters().size());
+                for (TypeDeclaration.Parameter parameter : operation.parameters()) {
+                    writeString(out, parameter.name());
+                    writeString(out, parameter.typeName());
+                }
+                out.writeBoolean(operation.returnTypeName() != null);
+                if (operation.returnTypeName() != null) {
+                    writeString(out, operation.returnTypeName());
+                }
+            }
+
+            writeStrings(out, type.enumConstants());
+        }
+    }
+
+    private static ParsedFile readEntry(DataInputStream in, Path filePath) throws IOException {
+        if (in.readInt() != ENTRY_MAGIC) {
+            throw new IOException("Not a declaration cache entry");
+        }
+        String packageName = readName(in);
+        List<String> imports = readStrings(in);
+        int typeCount = readCount(in);
+        List<TypeDeclaration> types = new ArrayList<>(typeCount);
+        for (int t = 0; t < typeCount; t++) {
+            int ordinal = in.readByte();
+            if (ordinal < 0 || ordinal >= TypeDeclaration.Kind.values().length) {
+                throw malformed();
+            }
+            TypeDeclaration.Kind kind = TypeDeclaration.Kind.values()[ordinal];
+            String name = readName(in);
+            String qualifiedName = readName(in);
+            List<String> superTypes = readStrings(in);
+
+            int annotationCount = readCount(in);
+            List<TypeDeclaration.Annotation> annotations = new ArrayList<>(annotationCount);
+            for (int a = 0; a < annotationCount; a++) {
+                String annotationName = readName(in);
+                int elementCount = readCount(in);
+                Map<String, String> elements = new HashMap<>();
+                for (int e = 0; e < elementCount; e++) {
+                    elements.put(readName(in), readName(in));
+                }
+                annotations.add(new TypeDeclaration.Annotation(annotationName, Collections.unmodifiableMap(elements)));
+            }
+
+            int fieldCount = readCount(in);
+            List<TypeDeclaration.Field> fields = new ArrayList<>(fieldCount);
+            for (int f = 0; f < fieldCount; f++) {
+                fields.add(new TypeDeclaration.Field(readName(in), readName(in)));
+            }
+
+            int operationCount = readCount(in);
+            List<TypeDeclaration.Operation> operations = new ArrayList<>(operationCount);
+            for (int o = 0; o < operationCount; o++) {
+                String operationName = readName(in);
+                int parameterCount = readCount(in);
+                List<TypeDeclaration.Parameter> parameters = new ArrayList<>(parameterCount);
+                for (int p = 0; p < parameterCount; p++) {
+                    parameters.add(new TypeDeclaration.Parameter(readName(in), readName(in)));
+                }
+                String returnTypeName = in.readBoolean() ? readName(in) : null;
+                operations.add(new TypeDeclaration.Operation(operationName, List.copyOf(parameters), returnTypeName));
+            }
+
+            List<String> enumConstants = readStrings(in);
+            types.add(new TypeDeclaration(kind, name, qualifiedName, superTypes, List.copyOf(annotations),
+                    List.copyOf(fields), List.copyOf(operations), enumConstants));
+        }
+        checkEnd(in);
+        return new ParsedFile(filePath, packageName, imports, List.copyOf(types));
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readName(in));
+        }
+        return List.copyOf(values);
+    }
+
+    // DataOutput.writeUTF is limited to 64 KB, which long annotation values can exceed.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        return readString(in).intern();
+    }
+
+    /**
+     * Reads the number of values or bytes that follow, which cannot be more than the bytes left.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw malformed();
+        }
+        return count;
+    }
+
+    private static void checkEnd(DataInputStream in) throws IOException {
+        if (in.available() != 0) {
+            throw malformed();
+        }
+    }
+
+    private static IOException malformed() {
+        return new IOException("Malformed cache file");
+    }
+}
@@ -0,0 +1,427 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a parse tree into {@link TypeDeclaration}s. It keeps no state and does not touch EMF, so it can run on the
+ * parsing threads.
+ */
+public class DeclarationExtractor {
+    public static final String DEFAULT_PACKAGE_NAME = "javaPackage";
+
+    public ParsedFile extract(Path filePath, JavaParser.CompilationUnitContext compilationUnit) {
+        return extract(filePath, compilationUnit, null);
+    }
+
+    /**
+     * @param tokens the tokens the tree was parsed from; when given, only the parts of the tree whose tokens include a
+     *               {@code class}, {@code interface} or {@code enum} keyword are searched for type declarations
+     */
+    public ParsedFile extract(Path filePath, JavaParser.CompilationUnitContext compilationUnit, TokenStream tokens) {
+        String packageName = extractPackageName(compilationUnit);
+        return new ParsedFile(filePath, packageName, extractImports(compilationUnit),
+                extractTypes(compilationUnit, packageName, tokens));
+    }
+
+    private String extractPackageName(JavaParser.CompilationUnitContext context) {
+        if (context.packageDeclaration() != null) {
+            return extractPackageName(context.packageDeclaration());
+        }
+        return DEFAULT_PACKAGE_NAME;
+    }
+
+    public String extractPackageName(JavaParser.PackageDeclarationContext packageCtx) {
+        return intern(packageCtx.qualifiedName().getText());
+    }
+
+    private List<String> extractImports(JavaParser.CompilationUnitContext context) {
+        List<String> imports = new ArrayList<>();
+        for (JavaParser.ImportDeclarationContext importCtx : context.importDeclaration()) {
+            imports.add(extractImport(importCtx));
+        }
+        return List.copyOf(imports);
+    }
+
+    public String extractImport(JavaParser.ImportDeclarationContext importCtx) {
+        String name = importCtx.qualifiedName().getText();
+        return intern(importCtx.MUL() != null ? name + ".*" : name);
+    }
+
+    private List<TypeDeclaration> extractTypes(JavaParser.CompilationUnitContext compilationUnit, String packageName,
+                                              TokenStream tokens) {
+        int[] keywordIndexes = tokens != null ? declarationKeywordIndexes(tokens) : null;
+        List<ParserRuleContext> typeDeclarations = collectTypeDeclarations(compilationUnit, keywordIndexes);
+
+        List<TypeDeclaration> declarations = new ArrayList<>(typeDeclarations.size());
+        for (ParserRuleContext declaration : typeDeclarations) {
+            declarations.add(extractType(declaration, packageName));
+        }
+        return List.copyOf(declarations);
+    }
+
+    /**
+     * Extracts a class, interface or enum declaration. Its qualified name is built from the enclosing type
+     * declarations, which must still have their name in the tree.
+     */
+    public TypeDeclaration extractType(ParserRuleContext declaration, String packageName) {
+        String qualifiedName = qualifiedNameOf(declaration, packageName);
+        if (declaration instanceof JavaParser.ClassDeclarationContext) {
+            return extractClass((JavaParser.ClassDeclarationContext) declaration, qualifiedName);
+        } else if (declaration instanceof JavaParser.InterfaceDeclarationContext) {
+            return extractInterface((JavaParser.InterfaceDeclarationContext) declaration, qualifiedName);
+        } else if (declaration instanceof JavaParser.EnumDeclarationContext) {
+            return extractEnum((JavaParser.EnumDeclarationContext) declaration, qualifiedName);
+        }
+        throw new IllegalArgumentException("Not a class, interface or enum declaration: " + declaration);
+    }
+
+    /**
+     * Finds the class, interface and enum declarations of a tree in source order, nested and local ones included.
+     * <p>
+     * The tree is walked with an explicit stack, so deeply nested expressions cannot overflow the call stack. A
+     * subtree is skipped when none of its tokens is a declaration keyword, as every type declaration contains its
+     * keyword: this leaves out almost every method body and expression, and keeps the cost close to the number of
+     * declarations.
+     *
+     * @param keywordIndexes the sorted token indexes of the declaration keywords, or null to search the whole tree
+     */
+    private List<ParserRuleContext> collectTypeDeclarations(ParserRuleContext root, int[] keywordIndexes) {
+        List<ParserRuleContext> typeDeclarations = new ArrayList<>();
+        Deque<ParserRuleContext> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ParserRuleContext context = stack.pop();
+            if (context instanceof JavaParser.ClassDeclarationContext
+                    || context instanceof JavaParser.InterfaceDeclarationContext
+                    || context instanceof JavaParser.EnumDeclarationContext) {
+                typeDeclarations.add(context);
+            }
+
+            // Pushed last to first, so they are popped in source order.
+            for (int i = context.getChildCount() - 1; i >= 0; i--) {
+                ParseTree child = context.getChild(i);
+                if (child instanceof ParserRuleContext && mayDeclareType((ParserRuleContext) child, keywordIndexes)) {
+                    stack.push((ParserRuleContext) child);
+                }
+            }
+        }
+        return typeDeclarations;
+    }
+
+    private static boolean mayDeclareType(ParserRuleContext context, int[] keywordIndexes) {
+        if (keywordIndexes == null) {
+            return true;
+        }
+        if (context.getStart() == null || context.getStop() == null) {
+            return false;
+        }
+        int start = context.getStart().getTokenIndex();
+        int stop = context.getStop().getTokenIndex();
+        int insertionPoint = Arrays.binarySearch(keywordIndexes, start);
+        if (insertionPoint >= 0) {
+            return true;
+        }
+        int next = -insertionPoint - 1;
+        return next < keywordIndexes.length && keywordIndexes[next] <= stop;
+    }
+
+    /**
+     * @return the indexes of the {@code class}, {@code interface} and {@code enum} tokens, leaving out class literals
+     */
+    private static int[] declarationKeywordIndexes(TokenStream tokens) {
+        List<Token> tokenList = tokens instanceof BufferedTokenStream
+                ? ((BufferedTokenStream) tokens).getTokens()
+                : null;
+        // Reads the types of a compact stream directly, without creating its tokens.
+        CompactTokenStream compactTokens = tokens instanceof CompactTokenStream ? (CompactTokenStream) tokens : null;
+        int size = tokenList != null ? tokenList.size() : tokens.size();
+        int[] indexes = new int[16];
+        int count = 0;
+        int previousType = Token.INVALID_TYPE;
+        for (int i = 0; i < size; i++) {
+            int type;
+            if (compactTokens != null) {
+                type = compactTokens.getType(i);
+            } else {
+                type = (tokenList != null ? tokenList.get(i) : tokens.get(i)).getType();
+            }
+            if ((type == JavaLexer.CLASS && previousType != JavaLexer.DOT)
+                    || type == JavaLexer.INTERFACE || type == JavaLexer.ENUM) {
+                if (count == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, count * 2);
+                }
+                indexes[count++] = i;
+            }
+            if (type != JavaLexer.WS && type != JavaLexer.COMMENT && type != JavaLexer.LINE_COMMENT) {
+                previousType = type;
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
+    /**
+     * Builds the qualified name of a type declaration from its package and the names of its enclosing types.
+     */
+    private String qualifiedNameOf(ParserRuleContext declaration, String packageName) {
+        StringBuilder name = new StringBuilder(typeNameOf(declaration));
+        for (ParserRuleContext parent = declaration.getParent(); parent != null; parent = parent.getParent()) {
+            String enclosingName = typeNameOf(parent);
+            if (enclosingName != null) {
+                name.insert(0, enclosingName + ".");
+            }
+        }
+        return intern(packageName + "." + name);
+    }
+
+    private String typeNameOf(ParserRuleContext context) {
+        if (context instanceof JavaParser.ClassDeclarationContext) {
+            return ((JavaParser.ClassDeclarationContext) context).identifier().getText();
+        } else if (context instanceof JavaParser.InterfaceDeclarationContext) {
+            return ((JavaParser.InterfaceDeclarationContext) context).identifier().getText();
+        } else if (context instanceof JavaParser.EnumDeclarationContext) {
+            return ((JavaParser.EnumDeclarationContext) context).identifier().getText();
+        } else if (context instanceof JavaParser.RecordDeclarationContext) {
+            return ((JavaParser.RecordDeclarationContext) context).identifier().getText();
+        }
+        return null;
+    }
+
+    private TypeDeclaration extractClass(JavaParser.ClassDeclarationContext classDecl, String qualifiedName) {
+        String className = intern(classDecl.identifier().getText());
+        List<String> superTypes = new ArrayList<>();
+        List<TypeDeclaration.Annotation> annotations = new ArrayList<>();
+        List<TypeDeclaration.Field> fields = new ArrayList<>();
+        List<TypeDeclaration.Operation> operations = new ArrayList<>();
+
+        // Handle superclass
+        if (classDecl.EXTENDS() != null && classDecl.typeType() != null) {
+            superTypes.add(getTypeName(classDecl.typeType()));
+        }
+
+        // Handle interfaces
+        if (classDecl.IMPLEMENTS() != null) {
+            classDecl.typeList().forEach(typeListContext -> typeListContext.typeType().forEach(typeTypeContext ->
+                    superTypes.add(getTypeName(typeTypeContext))));
+        }
+
+        for (JavaParser.ClassBodyDeclarationContext bodyDecl : classDecl.classBody().classBodyDeclaration()) {
+            extractClassMember(bodyDecl, annotations, fields, operations);
+        }
+
+        return new TypeDeclaration(TypeDeclaration.Kind.CLASS, className, qualifiedName, List.copyOf(superTypes),
+                List.copyOf(annotations), List.copyOf(fields), List.copyOf(operations), List.of());
+    }
+
+    /**
+     * Adds the annotations, field or method of one declaration in the body of a class to the lists of that class.
+     */
+    public void extractClassMember(JavaParser.ClassBodyDeclarationContext bodyDecl,
+                                   List<TypeDeclaration.Annotation> annotations, List<TypeDeclaration.Field> fields,
+                                   List<TypeDeclaration.Operation> operations) {
+        JavaParser.MemberDeclarationContext memberCtx = bodyDecl.memberDeclaration();
+        if (memberCtx == null) {
+            return;
+        }
+
+        // Handle Annotations
+        for (JavaParser.ModifierContext modCtx : bodyDecl.modifier()) {
+            if (modCtx.classOrInterfaceModifier() != null &&
+                    modCtx.classOrInterfaceModifier().annotation() != null) {
+                annotations.add(extractAnnotation(modCtx.classOrInterfaceModifier().annotation()));
+            }
+        }
+
+        if (memberCtx.fieldDeclaration() != null) {
+            fields.add(extractField(memberCtx.fieldDeclaration()));
+        } else if (memberCtx.methodDeclaration() != null) {
+            JavaParser.MethodDeclarationContext methodCtx = memberCtx.methodDeclaration();
+            operations.add(extractOperation(methodCtx.identifier(), methodCtx.formalParameters(),
+                    methodCtx.typeTypeOrVoid()));
+        }
+    }
+
+    private TypeDeclaration extractInterface(JavaParser.InterfaceDeclarationContext interfaceDecl, String qualifiedName) {
+        String interfaceName = intern(interfaceDecl.identifier().getText());
+        List<String> extendedInterfaceNames = new ArrayList<>();
+        List<TypeDeclaration.Operation> operations = new ArrayList<>();
+
+        // Handle extended interfaces
+        if (interfaceDecl.EXTENDS() != null) {
+            interfaceDecl.typeList().forEach(typeListContext -> typeListContext.typeType().forEach(typeTypeContext ->
+                    extendedInterfaceNames.add(getTypeName(typeTypeContext))));
+        }
+
+        // Process interface methods
+        interfaceDecl.interfaceBody().interfaceBodyDeclaration().forEach(declaration -> {
+            TypeDeclaration.Operation operation = extractInterfaceMember(declaration);
+            if (operation != null) {
+                operations.add(operation);
+            }
+        });
+
+        return new TypeDeclaration(TypeDeclaration.Kind.INTERFACE, interfaceName, qualifiedName,
+                List.copyOf(extendedInterfaceNames), List.of(), List.of(), List.copyOf(operations), List.of());
+    }
+
+    /**
+     * @return the method of one declaration in the body of an interface, or null if it declares something else
+     */
+    public TypeDeclaration.Operation extractInterfaceMember(JavaParser.InterfaceBodyDeclarationContext declaration) {
+        if (declaration.interfaceMemberDeclaration() != null && declaration.interfaceMemberDeclaration().interfaceMethodDeclaration() != null) {
+            JavaParser.InterfaceCommonBodyDeclarationContext methodCtx =
+                    declaration.interfaceMemberDeclaration().interfaceMethodDeclaration().interfaceCommonBodyDeclaration();
+            return extractOperation(methodCtx.identifier(), methodCtx.formalParameters(), methodCtx.typeTypeOrVoid());
+        }
+        return null;
+    }
+
+    private TypeDeclaration extractEnum(JavaParser.EnumDeclarationContext enumDecl, String qualifiedName) {
+        String enumName = intern(enumDecl.identifier().getText());
+        List<String> constants = new ArrayList<>();
+
+        if (enumDecl.enumConstants() != null) {
+            for (JavaParser.EnumConstantContext enumConstant : enumDecl.enumConstants().enumConstant()) {
+                constants.add(extractEnumConstant(enumConstant));
+            }
+        }
+
+        return new TypeDeclaration(TypeDeclaration.Kind.ENUM, enumName, qualifiedName, List.of(), List.of(),
+                List.of(), List.of(), List.copyOf(constants));
+    }
+
+    public String extractEnumConstant(JavaParser.EnumConstantContext enumConstant) {
+        return intern(enumConstant.identifier().getText());
+    }
+
+    private TypeDeclaration.Field extractField(JavaParser.FieldDeclarationContext fieldCtx) {
+        String fieldName = fieldCtx.variableDeclarators().variableDeclarator(0).variableDeclaratorId().getText();
+        String fieldType = fieldCtx.typeType().getText();
+        return new TypeDeclaration.Field(intern(fieldName), intern(fieldType));
+    }
+
+    private TypeDeclaration.Operation extractOperation(JavaParser.IdentifierContext nameCtx,
+                                                       JavaParser.FormalParametersContext formalParametersCtx,
+                                                       JavaParser.TypeTypeOrVoidContext returnTypeCtx) {
+        List<TypeDeclaration.Parameter> parameters = new ArrayList<>();
+        if (formalParametersCtx != null && formalParametersCtx.formalParameterList() != null) {
+            for (JavaParser.FormalParameterContext paramCtx : formalParametersCtx.formalParameterList().formalParameter()) {
+                String paramName = paramCtx.variableDeclaratorId().getText();
+                String paramType = getTypeName(paramCtx.typeType());
+                parameters.add(new TypeDeclaration.Parameter(intern(paramName), paramType));
+            }
+        }
+
+        // Handle the return type, void and missing return types are both left unset
+        String returnType = null;
+        if (returnTypeCtx != null && returnTypeCtx.VOID() == null && returnTypeCtx.typeType() != null) {
+            returnType = getTypeName(returnTypeCtx.typeType());
+        }
+
+        return new TypeDeclaration.Operation(intern(nameCtx.getText()), List.copyOf(parameters), returnType);
+    }
+
+    private TypeDeclaration.Annotation extractAnnotation(JavaParser.AnnotationContext annotationCtx) {
+        String annotationName = annotationCtx.qualifiedName().getText();
+        Map<String, String> elements = new HashMap<>();
+
+        JavaParser.ElementValuePairsContext pairsCtx = annotationCtx.elementValuePairs();
+        if (pairsCtx != null) {
+            for (JavaParser.ElementValuePairContext pair : pairsCtx.elementValuePair()) {
+                // Use the identifier() method from ElementValuePairContext
+                String key = pair.identifier().getText();
+                // Use the elementValue() method from ElementValuePairContext
+                String value = pair.elementValue().getText();
+                elements.put(key, value);
+            }
+        }
+
+        return new TypeDeclaration.Annotation(intern(annotationName), Collections.unmodifiableMap(elements));
+    }
+
+    public String getTypeName(JavaParser.TypeTypeContext typeCtx) {
+        if (typeCtx == null) {
+            return "EObject"; // Default type when no specific type is provided
+        }
+
+        if (typeCtx.classOrInterfaceType() != null) {
+            JavaParser.ClassOrInterfaceTypeContext classOrInterfaceType = typeCtx.classOrInterfaceType();
+            String baseType = getClassOrInterfaceTypeName(classOrInterfaceType);
+            List<String> typeArgs = new ArrayList<>();
+
+            for (JavaParser.TypeArgumentsContext typeArgsCtx : classOrInterfaceType.typeArguments()) {
+                for (JavaParser.TypeArgumentContext typeArgCtx : typeArgsCtx.typeArgument()) {
+                    typeArgs.add(getTypeNameForTypeArgument(typeArgCtx));
+                }
+            }
+            return intern(typeArgs.isEmpty() ? baseType : baseType + "<" + String.join(", ", typeArgs) + ">");
+        } else if (typeCtx.primitiveType() != null) {
+            return mapPrimitiveTypeToEcore(typeCtx.primitiveType().getText());
+        } else {
+            return "EObject"; // Default for types that are neither class/interface nor primitives
+        }
+    }
+
+    /**
+     * Maps Java primitive names to the names of the matching Ecore data types, e.g. int to EInt.
+     */
+    private String mapPrimitiveTypeToEcore(String primitiveType) {
+        return switch (primitiveType) {
+            case "int" -> "EInt";
+            case "boolean" -> "EBoolean";
+            case "byte" -> "EByte";
+            case "short" -> "EShort";
+            case "long" -> "ELong";
+            case "float" -> "EFloat";
+            case "double" -> "EDouble";
+            case "char" -> "EChar";
+            case "String" -> "EString";
+            default -> primitiveType; // Should not happen if all cases are covered
+        };
+    }
+
+    private String getTypeNameForTypeArgument(JavaParser.TypeArgumentContext typeArg) {
+        // Check if the type argument is a wildcard type
+        if (typeArg.QUESTION() != null) {
+            StringBuilder wildcardType = new StringBuilder("?");
+            if (typeArg.EXTENDS() != null) {
+                wildcardType.append(" extends ").append(getTypeName(typeArg.typeType()));
+            } else if (typeArg.SUPER() != null) {
+                wildcardType.append(" super ").append(getTypeName(typeArg.typeType()));
+            }
+            return wildcardType.toString();
+        } else if (typeArg.typeType() != null) {
+            // Handle regular types
+            return getTypeName(typeArg.typeType());
+        }
+        return ""; // Fallback
+    }
+
+    public String getClassOrInterfaceTypeName(JavaParser.ClassOrInterfaceTypeContext ctx) {
+        List<String> parts = new ArrayList<>();
+        for (JavaParser.IdentifierContext idCtx : ctx.identifier()) {
+            parts.add(idCtx.getText());
+        }
+        if (ctx.typeIdentifier() != null) {
+            parts.add(ctx.typeIdentifier().getText());
+        }
+        return String.join(".", parts);
+    }
+
+    private static String intern(String name) {
+        return name.intern();
+    }
+}
@@ -0,0 +1,274 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the prediction caches of the lexer and parser from growing without bound.
+ * <p>
+ * ANTLR adds a state to the DFA of a decision every time it meets a new lookahead, and never removes one, so a very
+ * long run keeps growing its heap. Every file is parsed between {@link #enter()} and {@link #exit(long, long)}. Every
+ * {@value #CHECK_INTERVAL} files the guard checks the number of DFA states against a cap, and the heap left in use by
+ * the last garbage collection against a share of the maximum heap. If either is exceeded, it waits for the files being
+ * parsed to finish, then drops every DFA and the prediction context cache before parsing goes on.
+ * <p>
+ * Sessions with a thread-local DFA register their copies, which are counted and cleared along with the shared DFA.
+ * <p>
+ * A cleared cache makes the next files slower until it is warm again. The guard compares the parse time per character
+ * of the first {@value #WARMUP_FILES} files after a start or clear with the files that follow, and reports the
+ * difference as the warm-up cost.
+ */
+public class DfaCacheGuard {
+    private static final Logger LOGGER = Logger.getLogger(DfaCacheGuard.class.getName());
+    private static final int CHECK_INTERVAL = 64;
+    private static final int WARMUP_FILES = 256;
+    // Below this many states the DFA is not what fills the heap, and clearing it would only slow parsing down.
+    private static final int MIN_STATES_TO_CLEAR = 10_000;
+
+    private final int maxStates;
+    private final double maxHeapShare;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger filesSinceCheck = new AtomicInteger();
+    private volatile PredictionContextCache contextCache = new PredictionContextCache();
+    private volatile int generation;
+    private final List<WeakReference<DFA[]>> threadLocalDfas = new ArrayList<>();
+
+    // Parse times since the last start or clear, split between the warm-up files and the ones after them.
+    private final AtomicInteger filesSinceClear = new AtomicInteger();
+    private final LongAdder warmUpChars = new LongAdder();
+    private final LongAdder warmUpNanos = new LongAdder();
+    private final LongAdder steadyChars = new LongAdder();
+    private final LongAdder steadyNanos = new LongAdder();
+    private int clearCount;
+    private long warmUpCostNanos;
+
+    /**
+     * @param maxStates     the number of DFA states above which the caches are cleared, or 0 for no cap
+     * @param maxHeapShare  the share of the maximum heap, between 0 and 1, that may stay in use after a garbage
+     *                      collection before the caches are cleared, or 0 to ignore the heap
+     */
+    public DfaCacheGuard(int maxStates, double maxHeapShare) {
+        if (maxStates < 0 || maxHeapShare < 0 || maxHeapShare > 1) {
+            throw new IllegalArgumentException("Invalid DFA cache limits: " + maxStates + " states, " + maxHeapShare
+                    + " of the heap");
+        }
+        this.maxStates = maxStates;
+        this.maxHeapShare = maxHeapShare;
+    }
+
+    /**
+     * Called before a file is parsed, clearing the caches first if they are over their limit.
+     */
+    public void enter() {
+        if (filesSinceCheck.incrementAndGet() >= CHECK_INTERVAL) {
+            filesSinceCheck.set(0);
+            if (overLimit() != null) {
+                clear();
+            }
+        }
+        lock.readLock().lock();
+    }
+
+    /**
+     * Called once a file has been parsed and its tokens and tree are no longer used.
+     */
+    public void exit(long chars, long nanos) {
+        try {
+            if (filesSinceClear.incrementAndGet() <= WARMUP_FILES) {
+                warmUpChars.add(chars);
+                warmUpNanos.add(nanos);
+            } else {
+                steadyChars.add(chars);
+                steadyNanos.add(nanos);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the prediction context cache parsers must use, replaced on every clear
+     */
+    public PredictionContextCache getContextCache() {
+        return contextCache;
+    }
+
+    /**
+     * @return a number that changes whenever the caches are cleared
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Adds a thread-local copy of a DFA to the ones that are counted and cleared.
+     */
+    public void register(DFA[] decisionToDFA) {
+        synchronized (threadLocalDfas) {
+            threadLocalDfas.add(new WeakReference<>(decisionToDFA));
+        }
+    }
+
+    public int getClearCount() {
+        return clearCount;
+    }
+
+    private String overLimit() {
+        int states = stateCount(JavaParser._decisionToDFA) + stateCount(JavaLexer._decisionToDFA)
+                + threadLocalStateCount();
+        if (maxStates > 0 && states > maxStates) {
+            return states + " DFA states, over the cap of " + maxStates;
+        }
+        if (maxHeapShare > 0 && states >= MIN_STATES_TO_CLEAR) {
+            double heapShare = heapShareAfterLastCollection();
+            if (heapShare > maxHeapShare) {
+                return states + " DFA states with " + Math.round(heapShare * 100) + "% of the heap in use";
+            }
+        }
+        return null;
+    }
+
+    private void clear() {
+        lock.writeLock().lock();
+        try {
+            // Another thread may have cleared the caches while this one was waiting for the lock.
+            String reason = overLimit();
+            if (reason == null) {
+                return;
+            }
+            long warmUpCost = endEpoch();
+            clearCount++;
+            LOGGER.info("Clearing the DFA cache: " + reason + ". Warm-up since the previous start or clear cost about "
+                    + TimeUnit.NANOSECONDS.toMillis(warmUpCost) + " ms of parsing");
+            clearDfa(JavaParser._decisionToDFA);
+            clearDfa(JavaLexer._decisionToDFA);
+            clearThreadLocalDfas();
+            contextCache = new PredictionContextCache();
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Estimates the extra time the warm-up files of the current epoch took over the steady rate, and starts a new one.
+     */
+    private long endEpoch() {
+        long cost = 0;
+        long chars = steadyChars.sum();
+        if (chars > 0) {
+            double steadyNanosPerChar = (double) steadyNanos.sum() / chars;
+            cost = Math.max(0, warmUpNanos.sum() - Math.round(warmUpChars.sum() * steadyNanosPerChar));
+        }
+        warmUpCostNanos += cost;
+        filesSinceClear.set(0);
+        warmUpChars.reset();
+        warmUpNanos.reset();
+        steadyChars.reset();
+        steadyNanos.reset();
+        return cost;
+    }
+
+    /**
+     * Logs the size of the caches, the decisions with the most states and the total warm-up cost so far.
+     */
+    public void report() {
+        lock.writeLock().lock();
+        try {
+            endEpoch();
+            LOGGER.info("DFA cache: " + stateCount(JavaParser._decisionToDFA) + " parser states, "
+                    + stateCount(JavaLexer._decisionToDFA) + " lexer states, cleared " + clearCount
+                    + " times, warm-up cost about " + TimeUnit.NANOSECONDS.toMillis(warmUpCostNanos) + " ms in total");
+            LOGGER.info("Parser decisions with the most DFA states: " + largestDecisions(5));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String largestDecisions(int count) {
+        List<DFA> dfas = new ArrayList<>(List.of(JavaParser._decisionToDFA));
+        dfas.sort(Comparator.comparingInt((DFA dfa) -> dfa.states.size()).reversed());
+        StringBuilder description = new StringBuilder();
+        for (DFA dfa : dfas.subList(0, Math.min(count, dfas.size()))) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            String rule = JavaParser.ruleNames[dfa.atnStartState.ruleIndex];
+            description.append(rule).append(" #").append(dfa.decision).append(": ").append(dfa.states.size());
+        }
+        return description.toString();
+    }
+
+    private int threadLocalStateCount() {
+        int states = 0;
+        synchronized (threadLocalDfas) {
+            Iterator<WeakReference<DFA[]>> iterator = threadLocalDfas.iterator();
+            while (iterator.hasNext()) {
+                DFA[] decisionToDFA = iterator.next().get();
+                if (decisionToDFA == null) {
+                    // Its thread is gone.
+                    iterator.remove();
+                } else {
+                    states += stateCount(decisionToDFA);
+                }
+            }
+        }
+        return states;
+    }
+
+    private void clearThreadLocalDfas() {
+        synchronized (threadLocalDfas) {
+            for (WeakReference<DFA[]> reference : threadLocalDfas) {
+                DFA[] decisionToDFA = reference.get();
+                if (decisionToDFA != null) {
+                    clearDfa(decisionToDFA);
+                }
+            }
+        }
+    }
+
+    private static int stateCount(DFA[] decisionToDFA) {
+        int states = 0;
+        for (DFA dfa : decisionToDFA) {
+            states += dfa.states.size();
+        }
+        return states;
+    }
+
+    private static void clearDfa(DFA[] decisionToDFA) {
+        for (int d = 0; d < decisionToDFA.length; d++) {
+            decisionToDFA[d] = new DFA(decisionToDFA[d].atnStartState, d);
+        }
+    }
+
+    /**
+     * @return the share of the maximum heap left in use by the last garbage collection
+     */
+    static double heapShareAfterLastCollection() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null) {
+                    used += usage.getUsed();
+                }
+            }
+        }
+        return (double) used / Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,93 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deep copies of the prediction DFAs of a recognizer, so a thread can extend its own copy without synchronizing with
+ * the others.
+ * <p>
+ * States are copied along with their edges. The configuration sets, predicates and lexer actions of a state are never
+ * changed once the state is in a DFA, so the copies share them with the originals.
+ */
+public class DfaCopier {
+
+    private DfaCopier() {
+    }
+
+    public static DFA[] copy(DFA[] decisionToDFA, ATN atn) {
+        DFA[] copy = new DFA[decisionToDFA.length];
+        for (int d = 0; d < decisionToDFA.length; d++) {
+            copy[d] = copy(decisionToDFA[d], atn, d);
+        }
+        return copy;
+    }
+
+    private static DFA copy(DFA dfa, ATN atn, int decision) {
+        DFA copy = new DFA(atn.getDecisionState(decision), decision);
+        List<DFAState> states;
+        synchronized (dfa.states) {
+            states = List.copyOf(dfa.states.values());
+        }
+        if (states.isEmpty()) {
+            return copy;
+        }
+
+        Map<DFAState, DFAState> copies = new IdentityHashMap<>(states.size());
+        for (DFAState state : states) {
+            copies.put(state, copyState(state));
+        }
+        for (Map.Entry<DFAState, DFAState> entry : copies.entrySet()) {
+            DFAState[] edges;
+            // Edges are added while holding the lock of their source state.
+            synchronized (entry.getKey()) {
+                edges = entry.getKey().edges;
+            }
+            if (edges != null) {
+                entry.getValue().edges = copyEdges(edges, copies);
+            }
+            copy.states.put(entry.getValue(), entry.getValue());
+        }
+
+        DFAState s0 = dfa.s0;
+        if (dfa.isPrecedenceDfa()) {
+            // The start state of a precedence DFA is not in its states, it only points to one start state per level.
+            if (s0 != null && s0.edges != null) {
+                for (int precedence = 0; precedence < s0.edges.length; precedence++) {
+                    DFAState start = s0.edges[precedence];
+                    if (start != null) {
+                        copy.setPrecedenceStartState(precedence, copies.getOrDefault(start, start));
+                    }
+                }
+            }
+        } else if (s0 != null) {
+            copy.s0 = copies.get(s0);
+        }
+        return copy;
+    }
+
+    private static DFAState copyState(DFAState state) {
+        DFAState copy = new DFAState(state.configs);
+        copy.stateNumber = state.stateNumber;
+        copy.isAcceptState = state.isAcceptState;
+        copy.prediction = state.prediction;
+        copy.lexerActionExecutor = state.lexerActionExecutor;
+        copy.requiresFullContext = state.requiresFullContext;
+        copy.predicates = state.predicates;
+        return copy;
+    }
+
+    private static DFAState[] copyEdges(DFAState[] edges, Map<DFAState, DFAState> copies) {
+        DFAState[] copy = new DFAState[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            // The error state is a shared sentinel that is not part of any DFA.
+            copy[i] = edges[i] != null ? copies.getOrDefault(edges[i], edges[i]) : null;
+        }
+        return copy;
+    }
+}
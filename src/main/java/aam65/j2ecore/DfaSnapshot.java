@@ -0,0 +1,796 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.atn.*;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the warmed-up prediction DFAs of the lexer and parser to a file and loads them back, so a run starts with the
+ * cache a previous run or a training corpus left behind instead of an empty one.
+ * <p>
+ * A snapshot holds every DFA state with its configurations, their prediction and semantic contexts, and its edges.
+ * It is tied to the grammar by a hash of the serialized ATNs of {@link JavaLexer} and {@link JavaParser}, and is
+ * ignored once the grammar changes. A snapshot trained on the project's own sources by {@link DfaTrainer} is
+ * generated as part of the build and bundled as a resource. It is loaded at startup unless a snapshot file is given.
+ * <p>
+ * A snapshot ends with a CRC-32 of everything before it, and every count and table index read from it is checked, so
+ * a truncated or damaged file is ignored rather than loaded or failing the run. The DFAs are only replaced once the
+ * whole snapshot has been read.
+ */
+public class DfaSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(DfaSnapshot.class.getName());
+    private static final int MAGIC = 0x4A324446;
+    private static final int FORMAT_VERSION = 2;
+    private static final String BUNDLED_RESOURCE = "java.dfa";
+
+    private static final int CONTEXT_EMPTY = 0;
+    private static final int CONTEXT_SINGLETON = 1;
+    private static final int CONTEXT_ARRAY = 2;
+
+    private static final int SEMANTIC_NONE = 0;
+    private static final int SEMANTIC_PREDICATE = 1;
+    private static final int SEMANTIC_PRECEDENCE = 2;
+    private static final int SEMANTIC_AND = 3;
+    private static final int SEMANTIC_OR = 4;
+
+    // Lexer action tags are the ordinals of LexerActionType, plus one for actions bound to an offset.
+    private static final int ACTION_INDEXED = LexerActionType.values().length;
+
+    private static final int EDGE_NONE = 0;
+    private static final int EDGE_ERROR = 1;
+
+    private DfaSnapshot() {
+    }
+
+    /**
+     * @return the number of states in the shared lexer and parser DFAs
+     */
+    public static int stateCount() {
+        int states = 0;
+        for (DFA dfa : JavaLexer._decisionToDFA) {
+            states += dfa.states.size();
+        }
+        for (DFA dfa : JavaParser._decisionToDFA) {
+            states += dfa.states.size();
+        }
+        return states;
+    }
+
+    /**
+     * Writes the shared lexer and parser DFAs to a file, replacing it atomically. Must not be called while files are
+     * being parsed.
+     */
+    public static void save(Path file) throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(snapshot);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(grammarHash());
+        new Writer(out, JavaLexer._ATN, true).write(JavaLexer._decisionToDFA);
+        new Writer(out, JavaParser._ATN, false).write(JavaParser._decisionToDFA);
+        out.writeInt((int) checksum(snapshot.toByteArray(), snapshot.size()));
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream target = Files.newOutputStream(temporary)) {
+                snapshot.writeTo(target);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Replaces the shared lexer and parser DFAs with those of a snapshot file. Must be called before any file is
+     * parsed.
+     *
+     * @return whether the snapshot was loaded; a missing, damaged or outdated snapshot is ignored
+     */
+    public static boolean load(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return load(in, file.toString());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot read DFA snapshot " + file + ", starting with an empty DFA", e);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the snapshot trained at build time, if the jar has one.
+     */
+    public static boolean loadBundled() {
+        try (InputStream in = DfaSnapshot.class.getResourceAsStream(BUNDLED_RESOURCE)) {
+            return in != null && load(in, BUNDLED_RESOURCE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the bundled DFA snapshot, starting with an empty DFA", e);
+            return false;
+        }
+    }
+
+    private static boolean load(InputStream stream, String name) throws IOException {
+        byte[] snapshot = stream.readAllBytes();
+        // Read from memory, so that every count can be checked against the bytes left.
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (snapshot.length < 8 || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            LOGGER.warning("Ignoring DFA snapshot " + name + ", it is not in the current format");
+            return false;
+        }
+        int end = snapshot.length - 4;
+        if (end < 8 || (int) checksum(snapshot, end) != ByteBuffer.wrap(snapshot, end, 4).getInt()) {
+            LOGGER.warning("Ignoring DFA snapshot " + name + ", it is truncated or damaged");
+            return false;
+        }
+        byte[] hash = new byte[32];
+        in.readFully(hash);
+        if (!Arrays.equals(hash, grammarHash())) {
+            LOGGER.info("Ignoring DFA snapshot " + name + ", it was made for another version of the grammar");
+            return false;
+        }
+        DFA[] lexerDfa = new Reader(in, JavaLexer._ATN, true).read(JavaLexer._decisionToDFA.length);
+        DFA[] parserDfa = new Reader(in, JavaParser._ATN, false).read(JavaParser._decisionToDFA.length);
+        if (in.available() != 4) {
+            throw new IOException("DFA snapshot has trailing data");
+        }
+        System.arraycopy(lexerDfa, 0, JavaLexer._decisionToDFA, 0, lexerDfa.length);
+        System.arraycopy(parserDfa, 0, JavaParser._decisionToDFA, 0, parserDfa.length);
+        return true;
+    }
+
+    private static long checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    private static byte[] grammarHash() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(JavaLexer._serializedATN.getBytes(StandardCharsets.UTF_8));
+            digest.update(JavaParser._serializedATN.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Writes the DFAs of one recognizer: first the tables of prediction contexts, semantic contexts and lexer action
+     * executors they use, each entry after the ones it refers to, then the states and edges of every decision.
+     */
+    private static class Writer {
+        private final DataOutputStream out;
+        private final ATN atn;
+        private final boolean lexer;
+        private final Map<PredictionContext, Integer> contextIds = new IdentityHashMap<>();
+        private final List<PredictionContext> contexts = new ArrayList<>();
+        private final Map<SemanticContext, Integer> semanticIds = new IdentityHashMap<>();
+        private final List<SemanticContext> semantics = new ArrayList<>();
+        private final Map<LexerActionExecutor, Integer> executorIds = new IdentityHashMap<>();
+        private final List<LexerActionExecutor> executors = new ArrayList<>();
+
+        Writer(DataOutputStream out, ATN atn, boolean lexer) {
+            this.out = out;
+            this.atn = atn;
+            this.lexer = lexer;
+        }
+
+        void write(DFA[] decisionToDFA) throws IOException {
+            List<List<DFAState>> statesByDecision = new ArrayList<>(decisionToDFA.length);
+            for (DFA dfa : decisionToDFA) {
+                List<DFAState> states;
+                synchronized (dfa.states) {
+                    states = new ArrayList<>(dfa.states.values());
+                }
+                statesByDecision.add(states);
+                for (DFAState state : states) {
+                    collect(state);
+                }
+            }
+
+            writeContexts();
+            writeSemantics();
+            writeExecutors();
+
+            writeInt(decisionToDFA.length);
+            for (int d = 0; d < decisionToDFA.length; d++) {
+                writeDfa(decisionToDFA[d], statesByDecision.get(d));
+            }
+        }
+
+        private void collect(DFAState state) {
+            if (state.lexerActionExecutor != null) {
+                executorId(state.lexerActionExecutor);
+            }
+            if (state.predicates != null) {
+                for (DFAState.PredPrediction predicate : state.predicates) {
+                    semanticId(predicate.pred);
+                }
+            }
+            for (ATNConfig config : state.configs.configs) {
+                contextId(config.context);
+                semanticId(config.semanticContext);
+                if (lexer && ((LexerATNConfig) config).getLexerActionExecutor() != null) {
+                    executorId(((LexerATNConfig) config).getLexerActionExecutor());
+                }
+            }
+        }
+
+        /**
+         * Numbers a context and, first, all its parents, without recursion as context chains can be long.
+         */
+        private int contextId(PredictionContext context) {
+            if (context == null) {
+                return 0;
+            }
+            Integer known = contextIds.get(context);
+            if (known != null) {
+                return known;
+            }
+            Deque<PredictionContext> stack = new ArrayDeque<>();
+            stack.push(context);
+            while (!stack.isEmpty()) {
+                PredictionContext top = stack.peek();
+                if (contextIds.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean parentsDone = true;
+                for (int i = 0; i < top.size(); i++) {
+                    PredictionContext parent = top.getParent(i);
+                    if (parent != null && !contextIds.containsKey(parent)) {
+                        stack.push(parent);
+                        parentsDone = false;
+                    }
+                }
+                if (parentsDone) {
+                    stack.pop();
+                    contexts.add(top);
+                    contextIds.put(top, contexts.size());
+                }
+            }
+            return contextIds.get(context);
+        }
+
+        private int semanticId(SemanticContext semantic) {
+            Integer known = semanticIds.get(semantic);
+            if (known != null) {
+                return known;
+            }
+            if (semantic instanceof SemanticContext.Operator) {
+                for (SemanticContext operand : ((SemanticContext.Operator) semantic).getOperands()) {
+                    semanticId(operand);
+                }
+            }
+            semantics.add(semantic);
+            semanticIds.put(semantic, semantics.size());
+            return semantics.size();
+        }
+
+        private int executorId(LexerActionExecutor executor) {
+            return executorIds.computeIfAbsent(executor, e -> {
+                executors.add(e);
+                return executors.size();
+            });
+        }
+
+        private void writeContexts() throws IOException {
+            writeInt(contexts.size());
+            for (PredictionContext context : contexts) {
+                if (context == PredictionContext.EMPTY) {
+                    out.writeByte(CONTEXT_EMPTY);
+                } else if (context instanceof SingletonPredictionContext) {
+                    SingletonPredictionContext singleton = (SingletonPredictionContext) context;
+                    out.writeByte(CONTEXT_SINGLETON);
+                    writeInt(contextId(singleton.parent));
+                    writeInt(singleton.returnState);
+                } else {
+                    ArrayPredictionContext array = (ArrayPredictionContext) context;
+                    out.writeByte(CONTEXT_ARRAY);
+                    writeInt(array.returnStates.length);
+                    for (int i = 0; i < array.returnStates.length; i++) {
+                        writeInt(contextId(array.parents[i]));
+                        writeInt(array.returnStates[i]);
+                    }
+                }
+            }
+        }
+
+        private void writeSemantics() throws IOException {
+            writeInt(semantics.size());
+            for (SemanticContext semantic : semantics) {
+                if (semantic == SemanticContext.NONE) {
+                    out.writeByte(SEMANTIC_NONE);
+                } else if (semantic instanceof SemanticContext.Predicate) {
+                    SemanticContext.Predicate predicate = (SemanticContext.Predicate) semantic;
+                    out.writeByte(SEMANTIC_PREDICATE);
+                    writeSignedInt(predicate.ruleIndex);
+                    writeSignedInt(predicate.predIndex);
+                    out.writeBoolean(predicate.isCtxDependent);
+                } else if (semantic instanceof SemanticContext.PrecedencePredicate) {
+                    out.writeByte(SEMANTIC_PRECEDENCE);
+                    writeInt(((SemanticContext.PrecedencePredicate) semantic).precedence);
+                } else {
+                    out.writeByte(semantic instanceof SemanticContext.AND ? SEMANTIC_AND : SEMANTIC_OR);
+                    List<SemanticContext> operands = new ArrayList<>(((SemanticContext.Operator) semantic).getOperands());
+                    writeInt(operands.size());
+                    for (SemanticContext operand : operands) {
+                        writeInt(semanticId(operand));
+                    }
+                }
+            }
+        }
+
+        private void writeExecutors() throws IOException {
+            writeInt(executors.size());
+            for (LexerActionExecutor executor : executors) {
+                LexerAction[] actions = executor.getLexerActions();
+                writeInt(actions.length);
+                for (LexerAction action : actions) {
+                    writeAction(action);
+                }
+            }
+        }
+
+        private void writeAction(LexerAction action) throws IOException {
+            if (action instanceof LexerIndexedCustomAction) {
+                out.writeByte(ACTION_INDEXED);
+                writeInt(((LexerIndexedCustomAction) action).getOffset());
+                writeAction(((LexerIndexedCustomAction) action).getAction());
+                return;
+            }
+            out.writeByte(action.getActionType().ordinal());
+            switch (action.getActionType()) {
+                case CHANNEL -> writeSignedInt(((LexerChannelAction) action).getChannel());
+                case CUSTOM -> {
+                    writeSignedInt(((LexerCustomAction) action).getRuleIndex());
+                    writeSignedInt(((LexerCustomAction) action).getActionIndex());
+                }
+                case MODE -> writeSignedInt(((LexerModeAction) action).getMode());
+                case PUSH_MODE -> writeSignedInt(((LexerPushModeAction) action).getMode());
+                case TYPE -> writeSignedInt(((LexerTypeAction) action).getType());
+                case MORE, POP_MODE, SKIP -> {
+                }
+            }
+        }
+
+        private void writeDfa(DFA dfa, List<DFAState> states) throws IOException {
+            Map<DFAState, Integer> stateIds = new IdentityHashMap<>(states.size());
+            writeInt(states.size());
+            for (DFAState state : states) {
+                stateIds.put(state, stateIds.size() + 1);
+                writeState(state);
+            }
+            for (DFAState state : states) {
+                DFAState[] edges;
+                synchronized (state) {
+                    edges = state.edges;
+                }
+                writeEdges(edges, stateIds);
+            }
+            DFAState s0 = dfa.s0;
+            if (dfa.isPrecedenceDfa()) {
+                // The start state of a precedence DFA only points to one start state per precedence level.
+                writeEdges(s0 != null ? s0.edges : null, stateIds);
+            } else {
+                writeInt(s0 != null ? stateIds.getOrDefault(s0, 0) : 0);
+            }
+        }
+
+        private void writeState(DFAState state) throws IOException {
+            writeInt(state.stateNumber);
+            out.writeBoolean(state.isAcceptState);
+            writeSignedInt(state.prediction);
+            out.writeBoolean(state.requiresFullContext);
+            writeInt(state.lexerActionExecutor != null ? executorId(state.lexerActionExecutor) : 0);
+            if (state.predicates == null) {
+                writeInt(0);
+            } else {
+                writeInt(state.predicates.length + 1);
+                for (DFAState.PredPrediction predicate : state.predicates) {
+                    writeInt(semanticId(predicate.pred));
+                    writeSignedInt(predicate.alt);
+                }
+            }
+
+            ATNConfigSet configs = state.configs;
+            out.writeBoolean(configs.fullCtx);
+            writeSignedInt(configs.uniqueAlt);
+            out.writeBoolean(configs.hasSemanticContext);
+            out.writeBoolean(configs.dipsIntoOuterContext);
+            writeInt(configs.configs.size());
+            for (ATNConfig config : configs.configs) {
+                writeInt(config.state.stateNumber);
+                writeInt(config.alt);
+                writeInt(contextId(config.context));
+                writeInt(semanticId(config.semanticContext));
+                writeInt(config.reachesIntoOuterContext);
+                if (lexer) {
+                    LexerATNConfig lexerConfig = (LexerATNConfig) config;
+                    writeInt(lexerConfig.getLexerActionExecutor() != null
+                            ? executorId(lexerConfig.getLexerActionExecutor())
+                            : 0);
+                    out.writeBoolean(lexerConfig.hasPassedThroughNonGreedyDecision());
+                }
+            }
+        }
+
+        private void writeEdges(DFAState[] edges, Map<DFAState, Integer> stateIds) throws IOException {
+            if (edges == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(edges.length + 1);
+            for (DFAState target : edges) {
+                if (target == null) {
+                    writeInt(EDGE_NONE);
+                } else if (target == ATNSimulator.ERROR) {
+                    writeInt(EDGE_ERROR);
+                } else {
+                    writeInt(stateIds.get(target) + 1);
+                }
+            }
+        }
+
+        private void writeInt(int value) throws IOException {
+            writeVarInt(out, value);
+        }
+
+        private void writeSignedInt(int value) throws IOException {
+            writeVarInt(out, (value << 1) ^ (value >> 31));
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final ATN atn;
+        private final boolean lexer;
+        private PredictionContext[] contexts;
+        private SemanticContext[] semantics;
+        private LexerActionExecutor[] executors;
+        private ATNState nonGreedyState;
+
+        Reader(DataInputStream in, ATN atn, boolean lexer) {
+            this.in = in;
+            this.atn = atn;
+            this.lexer = lexer;
+        }
+
+        DFA[] read(int decisions) throws IOException {
+            readContexts();
+            readSemantics();
+            readExecutors();
+
+            if (readInt() != decisions) {
+                throw new IOException("DFA snapshot does not match the grammar");
+            }
+            DFA[] decisionToDFA = new DFA[decisions];
+            for (int d = 0; d < decisions; d++) {
+                decisionToDFA[d] = readDfa(d);
+            }
+            return decisionToDFA;
+        }
+
+        private void readContexts() throws IOException {
+            contexts = new PredictionContext[readCount() + 1];
+            for (int id = 1; id < contexts.length; id++) {
+                int kind = in.readByte();
+                if (kind == CONTEXT_EMPTY) {
+                    contexts[id] = PredictionContext.EMPTY;
+                } else if (kind == CONTEXT_SINGLETON) {
+                    // Parents always come first.
+                    PredictionContext parent = entry(contexts, readInt(), 0, id);
+                    contexts[id] = SingletonPredictionContext.create(parent, readInt());
+                } else if (kind == CONTEXT_ARRAY) {
+                    int size = readCount();
+                    if (size == 0) {
+                        throw malformed();
+                    }
+                    PredictionContext[] parents = new PredictionContext[size];
+                    int[] returnStates = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        parents[i] = entry(contexts, readInt(), 0, id);
+                        returnStates[i] = readInt();
+                    }
+                    contexts[id] = new ArrayPredictionContext(parents, returnStates);
+                } else {
+                    throw malformed();
+                }
+            }
+        }
+
+        private void readSemantics() throws IOException {
+            semantics = new SemanticContext[readCount() + 1];
+            for (int id = 1; id < semantics.length; id++) {
+                int kind = in.readByte();
+                switch (kind) {
+                    case SEMANTIC_NONE -> semantics[id] = SemanticContext.NONE;
+                    case SEMANTIC_PREDICATE -> semantics[id] = new SemanticContext.Predicate(readSignedInt(),
+                            readSignedInt(), in.readBoolean());
+                    case SEMANTIC_PRECEDENCE -> semantics[id] = new SemanticContext.PrecedencePredicate(readInt());
+                    case SEMANTIC_AND, SEMANTIC_OR -> {
+                        int size = readCount();
+                        if (size == 0) {
+                            throw malformed();
+                        }
+                        // Operands always come first.
+                        SemanticContext combined = entry(semantics, readInt(), 1, id);
+                        for (int i = 1; i < size; i++) {
+                            SemanticContext operand = entry(semantics, readInt(), 1, id);
+                            combined = kind == SEMANTIC_AND
+                                    ? new SemanticContext.AND(combined, operand)
+                                    : new SemanticContext.OR(combined, operand);
+                        }
+                        semantics[id] = combined;
+                    }
+                    default -> throw malformed();
+                }
+            }
+        }
+
+        private void readExecutors() throws IOException {
+            executors = new LexerActionExecutor[readCount() + 1];
+            for (int id = 1; id < executors.length; id++) {
+                LexerAction[] actions = new LexerAction[readCount()];
+                for (int i = 0; i < actions.length; i++) {
+                    actions[i] = readAction();
+                }
+                executors[id] = new LexerActionExecutor(actions);
+            }
+        }
+
+        private LexerAction readAction() throws IOException {
+            int tag = in.readByte();
+            if (tag == ACTION_INDEXED) {
+                int offset = readInt();
+                return new LexerIndexedCustomAction(offset, readAction());
+            }
+            if (tag < 0 || tag >= ACTION_INDEXED) {
+                throw malformed();
+            }
+            return switch (LexerActionType.values()[tag]) {
+                case CHANNEL -> new LexerChannelAction(readSignedInt());
+                case CUSTOM -> new LexerCustomAction(readSignedInt(), readSignedInt());
+                case MODE -> new LexerModeAction(readSignedInt());
+                case PUSH_MODE -> new LexerPushModeAction(readSignedInt());
+                case TYPE -> new LexerTypeAction(readSignedInt());
+                case MORE -> LexerMoreAction.INSTANCE;
+                case POP_MODE -> LexerPopModeAction.INSTANCE;
+                case SKIP -> LexerSkipAction.INSTANCE;
+            };
+        }
+
+        private DFA readDfa(int decision) throws IOException {
+            DFA dfa = new DFA(atn.getDecisionState(decision), decision);
+            DFAState[] states = new DFAState[readCount()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = readState();
+                dfa.states.put(states[i], states[i]);
+            }
+            for (DFAState state : states) {
+                state.edges = readEdges(states);
+            }
+            if (dfa.isPrecedenceDfa()) {
+                DFAState[] starts = readEdges(states);
+                if (starts != null) {
+                    for (int precedence = 0; precedence < starts.length; precedence++) {
+                        if (starts[precedence] != null) {
+                            dfa.setPrecedenceStartState(precedence, starts[precedence]);
+                        }
+                    }
+                }
+            } else {
+                int s0 = readInt();
+                dfa.s0 = s0 != 0 ? entry(states, s0 - 1, 0, states.length) : null;
+            }
+            return dfa;
+        }
+
+        private DFAState readState() throws IOException {
+            int stateNumber = readInt();
+            boolean acceptState = in.readBoolean();
+            int prediction = readSignedInt();
+            boolean requiresFullContext = in.readBoolean();
+            LexerActionExecutor executor = entry(executors, readInt(), 0, executors.length);
+            DFAState.PredPrediction[] predicates = null;
+            int predicateCount = readCount();
+            if (predicateCount > 0) {
+                predicates = new DFAState.PredPrediction[predicateCount - 1];
+                for (int i = 0; i < predicates.length; i++) {
+                    predicates[i] = new DFAState.PredPrediction(entry(semantics, readInt(), 1, semantics.length),
+                            readSignedInt());
+                }
+            }
+
+            boolean fullCtx = in.readBoolean();
+            int uniqueAlt = readSignedInt();
+            boolean hasSemanticContext = in.readBoolean();
+            boolean dipsIntoOuterContext = in.readBoolean();
+            LoadedConfigSet configs = new LoadedConfigSet(fullCtx);
+            int configCount = readCount();
+            for (int i = 0; i < configCount; i++) {
+                configs.configs.add(readConfig());
+            }
+            if (requiresFullContext) {
+                // Computed from the configurations the same way the parser does when it adds the state.
+                configs.setConflictingAlts(PredictionMode.getAlts(PredictionMode.getConflictingAltSubsets(configs)));
+            }
+            configs.uniqueAlt = uniqueAlt;
+            configs.hasSemanticContext = hasSemanticContext;
+            configs.dipsIntoOuterContext = dipsIntoOuterContext;
+            configs.setReadonly(true);
+
+            DFAState state = new DFAState(configs);
+            state.stateNumber = stateNumber;
+            state.isAcceptState = acceptState;
+            state.prediction = prediction;
+            state.requiresFullContext = requiresFullContext;
+            state.lexerActionExecutor = executor;
+            state.predicates = predicates;
+            return state;
+        }
+
+        private ATNConfig readConfig() throws IOException {
+            int stateNumber = readInt();
+            if (stateNumber >= atn.states.size() || atn.states.get(stateNumber) == null) {
+                throw malformed();
+            }
+            ATNState state = atn.states.get(stateNumber);
+            int alt = readInt();
+            PredictionContext context = entry(contexts, readInt(), 0, contexts.length);
+            SemanticContext semantic = entry(semantics, readInt(), 1, semantics.length);
+            int reachesIntoOuterContext = readInt();
+            ATNConfig config;
+            if (lexer) {
+                LexerActionExecutor executor = entry(executors, readInt(), 0, executors.length);
+                LexerATNConfig lexerConfig = new LexerATNConfig(state, alt, context, executor);
+                if (in.readBoolean()) {
+                    // The flag can only be set by deriving the config from one that went through a non-greedy decision.
+                    LexerATNConfig nonGreedy = new LexerATNConfig(lexerConfig, nonGreedyState());
+                    lexerConfig = new LexerATNConfig(nonGreedy, state);
+                }
+                config = lexerConfig;
+            } else {
+                config = new ATNConfig(state, alt, context, semantic);
+            }
+            config.reachesIntoOuterContext = reachesIntoOuterContext;
+            return config;
+        }
+
+        private ATNState nonGreedyState() throws IOException {
+            if (nonGreedyState == null) {
+                for (DecisionState decisionState : atn.decisionToState) {
+                    if (decisionState.nonGreedy) {
+                        nonGreedyState = decisionState;
+                        break;
+                    }
+                }
+                if (nonGreedyState == null) {
+                    throw new IOException("DFA snapshot does not match the grammar");
+                }
+            }
+            return nonGreedyState;
+        }
+
+        private DFAState[] readEdges(DFAState[] states) throws IOException {
+            int length = readCount();
+            if (length == 0) {
+                return null;
+            }
+            DFAState[] edges = new DFAState[length - 1];
+            for (int i = 0; i < edges.length; i++) {
+                int target = readInt();
+                edges[i] = target == EDGE_NONE ? null : target == EDGE_ERROR
+                        ? ATNSimulator.ERROR
+                        : entry(states, target - 2, 0, states.length);
+            }
+            return edges;
+        }
+
+        /**
+         * @return the entry of a table at an index read from the snapshot, which must be at least {@code min} and below
+         * {@code limit}
+         */
+        private static <T> T entry(T[] table, int index, int min, int limit) throws IOException {
+            if (index < min || index >= limit) {
+                throw malformed();
+            }
+            return table[index];
+        }
+
+        private int readInt() throws IOException {
+            return readVarInt(in);
+        }
+
+        /**
+         * Reads the number of entries that follow, each of which takes at least one byte.
+         */
+        private int readCount() throws IOException {
+            int count = readInt();
+            if (count < 0 || count > in.available()) {
+                throw malformed();
+            }
+            return count;
+        }
+
+        private static IOException malformed() {
+            return new IOException("Malformed DFA snapshot");
+        }
+
+        private int readSignedInt() throws IOException {
+            int value = readVarInt(in);
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    /**
+     * A configuration set rebuilt from a snapshot. Its configurations are added as they were saved, without merging,
+     * and its conflicting alternatives can only be set from a subclass.
+     */
+    private static class LoadedConfigSet extends ATNConfigSet {
+        LoadedConfigSet(boolean fullCtx) {
+            super(fullCtx);
+        }
+
+        void setConflictingAlts(BitSet conflictingAlts) {
+            this.conflictingAlts = conflictingAlts;
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of DFA snapshot");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed DFA snapshot");
+    }
+}
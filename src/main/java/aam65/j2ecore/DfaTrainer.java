@@ -0,0 +1,57 @@
+package aam65.j2ecore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Trains a {@link DfaSnapshot} by parsing every Java file below a directory, and saves it. Run by the
+ * {@code trainDfaSnapshot} task.
+ * <p>
+ * Usage: {@code DfaTrainer <source directory> <snapshot file>}
+ */
+public class DfaTrainer {
+    private static final Logger LOGGER = Logger.getLogger(DfaTrainer.class.getName());
+
+    private DfaTrainer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DfaTrainer <source directory> <snapshot file>");
+            System.exit(2);
+        }
+        Path target = Paths.get(args[1]);
+        int files = train(Paths.get(args[0]));
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        DfaSnapshot.save(target);
+        LOGGER.info("Trained a snapshot of " + DfaSnapshot.stateCount() + " DFA states on " + files + " files");
+    }
+
+    /**
+     * Parses every Java file below a directory, in path order, which fills the shared DFAs.
+     *
+     * @return the number of files parsed
+     */
+    static int train(Path sourceDirectory) throws IOException {
+        List<Path> javaFiles;
+        try (Stream<Path> paths = Files.walk(sourceDirectory)) {
+            javaFiles = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.toString().endsWith(".java"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        JavaFileParser parser = JavaFileParser.builder(null).build();
+        for (Path javaFile : javaFiles) {
+            parser.parse(javaFile);
+        }
+        return javaFiles.size();
+    }
+}
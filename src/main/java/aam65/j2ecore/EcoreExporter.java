@@ -24,6 +24,9 @@ public class EcoreExporter {
             throw new IOException("Failed to create a resource for the file path: " + filePath);
         }
 
+        // Attach the package first, so its classifiers are saved inside it rather than as separate roots.
+        resource.getContents().add(ePackage);
+
         for (EClassifier classifier : ePackage.getEClassifiers()) {
             if (classifier.eResource() == null) {
                 System.err.println("Classifier " + classifier.getName() + " is not associated with a resource.");
@@ -31,7 +34,6 @@ public class EcoreExporter {
             }
         }
 
-        resource.getContents().add(ePackage);
         resource.save(Collections.EMPTY_MAP);
     }
 }
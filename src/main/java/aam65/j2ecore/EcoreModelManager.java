@@ -1,24 +1,106 @@
 package aam65.j2ecore;
 
+import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.*;
 import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.InternalEList;
 import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
 import org.eclipse.emf.ecore.resource.Resource;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
 
 public class EcoreModelManager {
+    private static final Logger LOGGER = Logger.getLogger(EcoreModelManager.class.getName());
     private final EPackage ePackage;
     private final EcoreFactory ecoreFactory;
     private final EcoreUtils ecoreUtils = new EcoreUtils();
+    private final boolean bulkBuild;
+    // Classifiers waiting to be added to ePackage in one go, only used in bulk-build mode.
+    private final List<EClassifier> pendingClassifiers = new ArrayList<>();
+    // Symbol table over the classifiers of ePackage, keyed by qualified name and kept up to date by register() and
+    // unregister(). Classifiers sharing a simple name are kept in qualified-name order, see rename().
+    private final Map<String, EClassifier> classifiersByQualifiedName = new HashMap<>();
+    private final Map<String, TreeMap<String, EClassifier>> classifiersBySimpleName = new HashMap<>();
+    private final Map<EClassifier, String> simpleNames = new HashMap<>();
+    private final Map<EClassifier, String> qualifiedNames = new HashMap<>();
+    // Declarations not built because a classifier of the same qualified name already was, in file order. The first
+    // one is built by updateFile() when that classifier goes away.
+    private final Map<String, List<ShadowedDeclaration>> shadowedDeclarations = new LinkedHashMap<>();
+    // Type names recorded per class while files are processed and resolved by link() once every classifier is known.
+    // They are kept after linking, so updateFile() can resolve them again when the classifiers they name change.
+    private final Map<EClass, List<SuperTypeLink>> superTypeLinks = new LinkedHashMap<>();
+    private final Map<EClass, List<ParameterTypeLink>> parameterTypeLinks = new LinkedHashMap<>();
+    // Classes that refer to a type name through a supertype, parameter or reference, by that name.
+    private final Map<String, Set<EClass>> dependentClasses = new HashMap<>();
+    // Provenance: the classifiers built from each file, by absolute path.
+    private final Map<Path, List<EClassifier>> classifiersByFile = new HashMap<>();
+
+    private static class SuperTypeLink {
+        final EClass eClass;
+        final String superTypeName;
+        final boolean interfaceOnly;
+
+        SuperTypeLink(EClass eClass, String superTypeName, boolean interfaceOnly) {
+            this.eClass = eClass;
+            this.superTypeName = superTypeName;
+            this.interfaceOnly = interfaceOnly;
+        }
+    }
+
+    private static class ParameterTypeLink {
+        final EParameter eParameter;
+        final String typeName;
+
+        ParameterTypeLink(EParameter eParameter, String typeName) {
+            this.eParameter = eParameter;
+            this.typeName = typeName;
+        }
+    }
+
+    private static class ShadowedDeclaration {
+        final Path file;
+        final TypeDeclaration declaration;
+
+        ShadowedDeclaration(Path file, TypeDeclaration declaration) {
+            this.file = file;
+            this.declaration = declaration;
+        }
+    }
 
     public EcoreModelManager() {
+        this(false);
+    }
+
+    /**
+     * @param bulkBuild when true the package is built for speed: it sends no notifications and is not attached to a
+     *                  resource until it is exported, and new elements are appended without the uniqueness checks of
+     *                  EMF lists (the symbol table already rejects duplicate classifiers, and every other element is
+     *                  freshly created). Classifiers are only added to the package by {@link #link()} or
+     *                  {@link #getEPackage()}.
+     */
+    public EcoreModelManager(boolean bulkBuild) {
+        this.bulkBuild = bulkBuild;
         ecoreFactory = EcoreFactory.eINSTANCE;
         ePackage = ecoreFactory.createEPackage();
 
+        if (bulkBuild) {
+            ePackage.eSetDeliver(false);
+            return;
+        }
+
         // Initialize the ResourceSet and Resource
         ResourceSetImpl resourceSet = new ResourceSetImpl();
         resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("ecore", new XMIResourceFactoryImpl());
@@ -26,6 +108,220 @@ public class EcoreModelManager {
         resource.getContents().add(ePackage);
     }
 
+    @SuppressWarnings("unchecked")
+    private <T> void append(EList<T> list, T element) {
+        if (bulkBuild) {
+            ((InternalEList<T>) list).addUnique(element);
+        } else {
+            list.add(element);
+        }
+    }
+
+    /**
+     * Adds the classifiers collected in bulk-build mode to the package in a single call and turns notifications back
+     * on, so the package behaves normally from here on.
+     */
+    @SuppressWarnings("unchecked")
+    private void flushPendingClassifiers() {
+        if (!bulkBuild || pendingClassifiers.isEmpty()) {
+            return;
+        }
+        ((InternalEList<EClassifier>) ePackage.getEClassifiers()).addAllUnique(pendingClassifiers);
+        pendingClassifiers.clear();
+        ePackage.eSetDeliver(true);
+    }
+
+    /**
+     * Builds the classifiers declared by a parsed file. Supertypes, parameter types and references are only recorded
+     * by name here and resolved by {@link #link()}.
+     * <p>
+     * A declaration whose qualified name already has a classifier, as when two source roots hold the same class, is
+     * reported and kept aside without being built; the first file processed keeps the name, which is the first in path
+     * order for a whole run. {@link #updateFile(Path, ParsedFile)} builds the declaration kept aside once the file that
+     * won drops it.
+     */
+    public void addDeclarations(ParsedFile parsedFile) {
+        Path file = parsedFile.getPath() != null ? fileKey(parsedFile.getPath()) : null;
+        List<EClassifier> classifiers = new ArrayList<>(parsedFile.getTypeDeclarations().size());
+        for (TypeDeclaration declaration : parsedFile.getTypeDeclarations()) {
+            if (classifiersByQualifiedName.containsKey(declaration.qualifiedName())) {
+                shadow(file, declaration);
+            } else {
+                classifiers.add(addDeclaration(declaration));
+            }
+        }
+        if (file != null) {
+            classifiersByFile.put(file, classifiers);
+        }
+        setPackageName(parsedFile.getPackageName());
+    }
+
+    private EClassifier addDeclaration(TypeDeclaration declaration) {
+        return switch (declaration.kind()) {
+            case CLASS -> addClassDeclaration(declaration);
+            case INTERFACE -> addInterfaceDeclaration(declaration);
+            case ENUM -> addEnumDeclaration(declaration);
+        };
+    }
+
+    private void shadow(Path file, TypeDeclaration declaration) {
+        List<ShadowedDeclaration> shadowed = shadowedDeclarations.computeIfAbsent(declaration.qualifiedName(),
+                k -> new ArrayList<>());
+        shadowed.add(new ShadowedDeclaration(file, declaration));
+        shadowed.sort(Comparator.comparing((ShadowedDeclaration entry) -> entry.file,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        LOGGER.warning("Duplicate classifier " + declaration.qualifiedName() + (file != null ? " in " + file : "")
+                + " ignored, it is already defined");
+    }
+
+    /**
+     * Builds the first declaration kept aside for a qualified name that no longer has a classifier.
+     *
+     * @return the classifier built, or null if there was none to build
+     */
+    private EClassifier promote(String qualifiedName) {
+        List<ShadowedDeclaration> shadowed = shadowedDeclarations.get(qualifiedName);
+        if (shadowed == null || classifiersByQualifiedName.containsKey(qualifiedName)) {
+            return null;
+        }
+        ShadowedDeclaration next = shadowed.remove(0);
+        if (shadowed.isEmpty()) {
+            shadowedDeclarations.remove(qualifiedName);
+        }
+        EClassifier classifier = addDeclaration(next.declaration);
+        if (next.file != null) {
+            classifiersByFile.computeIfAbsent(next.file, k -> new ArrayList<>()).add(classifier);
+        }
+        return classifier;
+    }
+
+    private void forgetShadowed(Path file) {
+        shadowedDeclarations.values().forEach(shadowed -> shadowed.removeIf(entry -> file.equals(entry.file)));
+        shadowedDeclarations.values().removeIf(List::isEmpty);
+    }
+
+    /**
+     * Replaces the classifiers built from one file with those of its new content, and links again only the classes
+     * whose supertypes, parameter types or references name a classifier that was removed or added. The rest of the
+     * model is left as it is, so the cost follows the size of the change rather than the size of the model.
+     * <p>
+     * A declaration of another file kept aside as a duplicate is built once this file no longer declares its name.
+     *
+     * @param parsedFile the new content of the file, or null if the file was deleted
+     */
+    public void updateFile(Path path, ParsedFile parsedFile) {
+        flushPendingClassifiers();
+
+        Set<String> affectedNames = new LinkedHashSet<>();
+        Set<String> freedNames = new LinkedHashSet<>();
+        List<EClassifier> removed = classifiersByFile.remove(fileKey(path));
+        if (removed != null) {
+            for (EClassifier classifier : removed) {
+                affectedNames.add(simpleNames.get(classifier));
+                affectedNames.add(qualifiedNames.get(classifier));
+                freedNames.add(qualifiedNames.get(classifier));
+                unregister(classifier);
+            }
+        }
+        forgetShadowed(fileKey(path));
+
+        List<EClassifier> added = new ArrayList<>();
+        if (parsedFile != null) {
+            addDeclarations(parsedFile);
+            added.addAll(classifiersByFile.getOrDefault(fileKey(path), List.of()));
+        }
+        for (String qualifiedName : freedNames) {
+            EClassifier promoted = promote(qualifiedName);
+            if (promoted != null) {
+                added.add(promoted);
+            }
+        }
+        for (EClassifier classifier : added) {
+            affectedNames.add(simpleNames.get(classifier));
+            affectedNames.add(qualifiedNames.get(classifier));
+        }
+        flushPendingClassifiers();
+
+        Set<EClass> classes = new LinkedHashSet<>();
+        for (EClassifier classifier : added) {
+            if (classifier instanceof EClass) {
+                classes.add((EClass) classifier);
+            }
+        }
+        for (String name : affectedNames) {
+            classes.addAll(dependentClasses.getOrDefault(name, Set.of()));
+        }
+        link(classes);
+    }
+
+    /**
+     * @return the files whose classifiers are in the model
+     */
+    public Set<Path> getFiles() {
+        return classifiersByFile.keySet();
+    }
+
+    private static Path fileKey(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private EClass addClassDeclaration(TypeDeclaration declaration) {
+        EClass eClass = addClass(declaration.name(), declaration.qualifiedName());
+        for (String superTypeName : declaration.superTypes()) {
+            addSuperType(eClass, superTypeName);
+        }
+
+        for (TypeDeclaration.Annotation annotation : declaration.annotations()) {
+            addEAnnotationToElement(eClass, createEAnnotation(annotation.name(), annotation.elements()));
+        }
+
+        for (TypeDeclaration.Field field : declaration.fields()) {
+            EClassifier fieldTypeClassifier = getEClassifierByName(field.typeName());
+            if (fieldTypeClassifier instanceof EDataType) {
+                addAttribute(eClass, field.name(), (EDataType) fieldTypeClassifier);
+            } else {
+                // Assuming all references are containment for simplification
+                addReferenceInfo(eClass, field.typeName(), field.name(), true);
+            }
+        }
+
+        addOperations(eClass, declaration.operations());
+        return eClass;
+    }
+
+    private EClass addInterfaceDeclaration(TypeDeclaration declaration) {
+        EClass eInterface = addInterface(declaration.name(), declaration.qualifiedName(), declaration.superTypes());
+        addOperations(eInterface, declaration.operations());
+        return eInterface;
+    }
+
+    private EEnum addEnumDeclaration(TypeDeclaration declaration) {
+        EEnum eEnum = addEnum(declaration.name(), declaration.qualifiedName());
+        int ordinal = 0;
+        for (String constant : declaration.enumConstants()) {
+            addEnumLiteral(eEnum, constant, ordinal++);
+        }
+        return eEnum;
+    }
+
+    private void addOperations(EClass eClass, List<TypeDeclaration.Operation> operations) {
+        for (TypeDeclaration.Operation operation : operations) {
+            EOperation eOperation = addOperation(eClass, operation.name());
+            for (TypeDeclaration.Parameter parameter : operation.parameters()) {
+                addParameterToOperation(eOperation, parameter.name(), parameter.typeName());
+            }
+
+            if (operation.returnTypeName() != null) {
+                Object resolvedReturnType = resolveReturnType(operation.returnTypeName());
+                if (resolvedReturnType instanceof EGenericType) {
+                    eOperation.setEGenericType((EGenericType) resolvedReturnType);
+                } else if (resolvedReturnType instanceof EClassifier) {
+                    eOperation.setEType((EClassifier) resolvedReturnType);
+                }
+            }
+        }
+    }
+
     public void setPackageName(String packageName) {
         ePackage.setName(packageName);
         ePackage.setNsPrefix(packageName.toLowerCase());
@@ -33,60 +329,189 @@ public class EcoreModelManager {
     }
 
     public EClass addClass(String className) {
+        return addClass(className, className);
+    }
+
+    public EClass addClass(String className, String qualifiedName) {
         EClass eClass = ecoreFactory.createEClass();
         eClass.setName(className);
-        ePackage.getEClassifiers().add(eClass);
+        register(eClass, qualifiedName);
         return eClass;
     }
 
     public EClass addInterface(String interfaceName, List<String> superInterfaceNames) {
+        return addInterface(interfaceName, interfaceName, superInterfaceNames);
+    }
+
+    public EClass addInterface(String interfaceName, String qualifiedName, List<String> superInterfaceNames) {
         EClass eInterface = ecoreFactory.createEClass();
         eInterface.setName(interfaceName);
         eInterface.setInterface(true);
         eInterface.setAbstract(true);
+        register(eInterface, qualifiedName);
 
         for (String superInterfaceName : superInterfaceNames) {
-            EClass superInterface = getEClassByName(superInterfaceName);
-            if (superInterface != null && superInterface.isInterface()) {
-                eInterface.getESuperTypes().add(superInterface);
+            recordLink(superTypeLinks, eInterface, superInterfaceName,
+                    new SuperTypeLink(eInterface, superInterfaceName, true));
+        }
+        return eInterface;
+    }
+
+    /**
+     * Adds the classifier to the package and indexes it by simple and qualified name.
+     *
+     * @throws IllegalArgumentException if the package already has a classifier of that qualified name
+     */
+    private void register(EClassifier classifier, String qualifiedName) {
+        if (classifiersByQualifiedName.putIfAbsent(qualifiedName, classifier) != null) {
+            throw new IllegalArgumentException("Duplicate classifier " + qualifiedName);
+        }
+        String name = classifier.getName();
+        simpleNames.put(classifier, name);
+        qualifiedNames.put(classifier, qualifiedName);
+        classifiersBySimpleName.computeIfAbsent(name, k -> new TreeMap<>()).put(qualifiedName, classifier);
+        rename(name);
+        if (bulkBuild) {
+            pendingClassifiers.add(classifier);
+        } else {
+            ePackage.getEClassifiers().add(classifier);
+        }
+    }
+
+    /**
+     * Names the classifiers sharing a simple name in the package, which cannot hold two classifiers of the same name:
+     * the one whose qualified name sorts first keeps the simple name and the others are named after their qualified
+     * name, {@code com.example.Node} becoming {@code com_example_Node}. The names do not depend on the order files
+     * are processed in.
+     */
+    private void rename(String name) {
+        TreeMap<String, EClassifier> sharing = classifiersBySimpleName.get(name);
+        if (sharing == null) {
+            return;
+        }
+        for (Map.Entry<String, EClassifier> entry : sharing.entrySet()) {
+            String packageName = entry.getKey().equals(sharing.firstKey()) ? name : entry.getKey().replace('.', '_');
+            if (!packageName.equals(entry.getValue().getName())) {
+                entry.getValue().setName(packageName);
             }
         }
+    }
 
-        ePackage.getEClassifiers().add(eInterface);
-        return eInterface;
+    /**
+     * Takes a classifier out of the package and the symbol table, along with the type names it recorded. Opposites
+     * pointing at its references are cleared; the classes that named it are linked again by the caller.
+     */
+    private void unregister(EClassifier classifier) {
+        String qualifiedName = qualifiedNames.remove(classifier);
+        String name = simpleNames.remove(classifier);
+        if (qualifiedName != null) {
+            classifiersByQualifiedName.remove(qualifiedName, classifier);
+            TreeMap<String, EClassifier> sharing = classifiersBySimpleName.get(name);
+            sharing.remove(qualifiedName, classifier);
+            if (sharing.isEmpty()) {
+                classifiersBySimpleName.remove(name);
+            } else {
+                rename(name);
+            }
+        }
+        ePackage.getEClassifiers().remove(classifier);
+
+        if (classifier instanceof EClass) {
+            EClass eClass = (EClass) classifier;
+            for (EReference reference : eClass.getEReferences()) {
+                if (reference.getEOpposite() != null && reference.getEOpposite().getEOpposite() == reference) {
+                    reference.getEOpposite().setEOpposite(null);
+                }
+            }
+            forgetLinks(superTypeLinks.remove(eClass), eClass, link -> link.superTypeName);
+            forgetLinks(parameterTypeLinks.remove(eClass), eClass, link -> link.typeName);
+            forgetLinks(ecoreUtils.getClassReferences().remove(eClass), eClass, info -> info.targetName);
+        }
+    }
+
+    private <L> void recordLink(Map<EClass, List<L>> links, EClass eClass, String typeName, L link) {
+        links.computeIfAbsent(eClass, k -> new ArrayList<>()).add(link);
+        dependentClasses.computeIfAbsent(typeName, k -> new LinkedHashSet<>()).add(eClass);
+    }
+
+    private <L> void forgetLinks(Collection<L> links, EClass eClass, Function<L, String> typeName) {
+        if (links == null) {
+            return;
+        }
+        for (L link : links) {
+            Set<EClass> dependents = dependentClasses.get(typeName.apply(link));
+            if (dependents != null) {
+                dependents.remove(eClass);
+                if (dependents.isEmpty()) {
+                    dependentClasses.remove(typeName.apply(link));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the qualified names of the declarations kept aside because a classifier of that qualified name was
+     * already built, once for each declaration
+     */
+    public List<String> getDuplicateNames() {
+        List<String> duplicateNames = new ArrayList<>();
+        shadowedDeclarations.forEach((qualifiedName, shadowed) ->
+                shadowed.forEach(entry -> duplicateNames.add(qualifiedName)));
+        return duplicateNames;
     }
 
     public void addAttribute(EClass eClass, String attributeName, EDataType dataType) {
         EAttribute eAttribute = ecoreFactory.createEAttribute();
         eAttribute.setName(attributeName);
         eAttribute.setEType(dataType);
-        eClass.getEStructuralFeatures().add(eAttribute);
+        append(eClass.getEStructuralFeatures(), eAttribute);
+    }
+
+    /**
+     * Records a supertype by name. It is added to the class by {@link #link()} if the package defines it.
+     */
+    public void addSuperType(EClass eClass, String superTypeName) {
+        recordLink(superTypeLinks, eClass, superTypeName, new SuperTypeLink(eClass, superTypeName, false));
     }
 
     public EOperation addOperation(EClass eClass, String operationName) {
         EOperation eOperation = ecoreFactory.createEOperation();
         eOperation.setName(operationName);
-        eClass.getEOperations().add(eOperation);
+        append(eClass.getEOperations(), eOperation);
         return eOperation;
     }
 
     public EPackage getEPackage() {
+        flushPendingClassifiers();
         return ePackage;
     }
 
     public EClass getEClassByName(String className) {
-        for (EClassifier classifier : ePackage.getEClassifiers()) {
-            if (classifier instanceof EClass && classifier.getName().equals(className)) {
-                return (EClass) classifier;
-            }
+        EClassifier classifier = getClassifier(className);
+        return classifier instanceof EClass ? (EClass) classifier : null;
+    }
+
+    /**
+     * Looks a classifier of the package up by qualified or simple name. A simple name shared by several classifiers
+     * finds the one whose qualified name sorts first.
+     */
+    public EClassifier getClassifier(String name) {
+        EClassifier classifier = classifiersByQualifiedName.get(name);
+        if (classifier != null) {
+            return classifier;
         }
-        return null;
+        TreeMap<String, EClassifier> sharing = classifiersBySimpleName.get(name);
+        return sharing != null ? sharing.firstEntry().getValue() : null;
     }
 
     public EEnum addEnum(String enumName) {
+        return addEnum(enumName, enumName);
+    }
+
+    public EEnum addEnum(String enumName, String qualifiedName) {
         EEnum eEnum = ecoreFactory.createEEnum();
         eEnum.setName(enumName);
-        ePackage.getEClassifiers().add(eEnum);
+        register(eEnum, qualifiedName);
         return eEnum;
     }
 
@@ -94,80 +519,29 @@ public class EcoreModelManager {
         EEnumLiteral eEnumLiteral = ecoreFactory.createEEnumLiteral();
         eEnumLiteral.setName(literalName);
         eEnumLiteral.setValue(value);
-        eEnum.getELiterals().add(eEnumLiteral);
+        append(eEnum.getELiterals(), eEnumLiteral);
     }
 
-    public String getTypeName(JavaParser.TypeTypeContext typeCtx) {
-        if (typeCtx == null) {
-            return "EObject"; // Default type when no specific type is provided
-        }
-
-        if (typeCtx.classOrInterfaceType() != null) {
-            JavaParser.ClassOrInterfaceTypeContext classOrInterfaceType = typeCtx.classOrInterfaceType();
-            String baseType = getClassOrInterfaceTypeName(classOrInterfaceType);
-            List<String> typeArgs = new ArrayList<>();
-
-            for (JavaParser.TypeArgumentsContext typeArgsCtx : classOrInterfaceType.typeArguments()) {
-                for (JavaParser.TypeArgumentContext typeArgCtx : typeArgsCtx.typeArgument()) {
-                    typeArgs.add(getTypeNameForTypeArgument(typeArgCtx));
-                }
-            }
-            return typeArgs.isEmpty() ? baseType : baseType + "<" + String.join(", ", typeArgs) + ">";
-        } else if (typeCtx.primitiveType() != null) {
-            return mapPrimitiveTypeToEcore(typeCtx.primitiveType().getText());
-        } else {
-            return "EObject"; // Default for types that are neither class/interface nor primitives
-        }
-    }
-
-    private String mapPrimitiveTypeToEcore(String primitiveType) {
-        return switch (primitiveType) {
-            case "int" -> EcorePackage.Literals.EINT.getName();
-            case "boolean" -> EcorePackage.Literals.EBOOLEAN.getName();
-            case "byte" -> EcorePackage.Literals.EBYTE.getName();
-            case "short" -> EcorePackage.Literals.ESHORT.getName();
-            case "long" -> EcorePackage.Literals.ELONG.getName();
-            case "float" -> EcorePackage.Literals.EFLOAT.getName();
-            case "double" -> EcorePackage.Literals.EDOUBLE.getName();
-            case "char" -> EcorePackage.Literals.ECHAR.getName();
-            case "String" -> EcorePackage.Literals.ESTRING.getName();
-            default -> primitiveType; // Should not happen if all cases are covered
-        };
-    }
-
-    private String getTypeNameForTypeArgument(JavaParser.TypeArgumentContext typeArg) {
-        // Check if the type argument is a wildcard type
-        if (typeArg.QUESTION() != null) {
-            StringBuilder wildcardType = new StringBuilder("?");
-            if (typeArg.EXTENDS() != null) {
-                wildcardType.append(" extends ").append(getTypeName(typeArg.typeType()));
-            } else if (typeArg.SUPER() != null) {
-                wildcardType.append(" super ").append(getTypeName(typeArg.typeType()));
-            }
-            return wildcardType.toString();
-        } else if (typeArg.typeType() != null) {
-            // Handle regular types
-            return getTypeName(typeArg.typeType());
-        }
-        return ""; // Fallback
-    }
-
-    public String getClassOrInterfaceTypeName(JavaParser.ClassOrInterfaceTypeContext ctx) {
-        List<String> parts = new ArrayList<>();
-        for (JavaParser.IdentifierContext idCtx : ctx.identifier()) {
-            parts.add(idCtx.getText());
-        }
-        if (ctx.typeIdentifier() != null) {
-            parts.add(ctx.typeIdentifier().getText());
-        }
-        return String.join(".", parts);
-    }
-
-    public void addParameterToOperation(EOperation eOperation, String paramName, EClassifier paramType) {
+    public EParameter addParameterToOperation(EOperation eOperation, String paramName, EClassifier paramType) {
         EParameter eParameter = ecoreFactory.createEParameter();
         eParameter.setName(paramName);
         eParameter.setEType(paramType);
-        eOperation.getEParameters().add(eParameter);
+        append(eOperation.getEParameters(), eParameter);
+        return eParameter;
+    }
+
+    /**
+     * Adds a parameter typed by name. Primitive and String types are set right away; any other type is typed as
+     * EObject until {@link #link()} replaces it with the classifier of that name, if the package defines one.
+     */
+    public EParameter addParameterToOperation(EOperation eOperation, String paramName, String paramTypeName) {
+        EClassifier paramType = getEClassifierByName(paramTypeName);
+        EParameter eParameter = addParameterToOperation(eOperation, paramName, paramType);
+        if (paramType == EcorePackage.Literals.EOBJECT && eOperation.getEContainingClass() != null) {
+            recordLink(parameterTypeLinks, eOperation.getEContainingClass(), paramTypeName,
+                    new ParameterTypeLink(eParameter, paramTypeName));
+        }
+        return eParameter;
     }
 
     public EClassifier getEClassifierByName(String typeName) {
@@ -225,32 +599,99 @@ public class EcoreModelManager {
     }
 
     public void addEAnnotationToElement(EModelElement element, EAnnotation annotation) {
-        element.getEAnnotations().add(annotation);
+        append(element.getEAnnotations(), annotation);
     }
 
     public void addReferenceInfo(EClass source, String targetClassName, String referenceName, boolean containment) {
-        EClass target = getEClassByName(targetClassName);
-        if (target != null) {
-            ecoreUtils.addReferenceInfo(source, target, referenceName, containment);
+        ecoreUtils.addReferenceInfo(source, targetClassName, referenceName, containment);
+        dependentClasses.computeIfAbsent(targetClassName, k -> new LinkedHashSet<>()).add(source);
+    }
+
+    /**
+     * Resolves every supertype, parameter type and reference recorded so far against the classifiers of the package.
+     * Call it once all files have been processed, so the result does not depend on the order they were read in.
+     * Calling it again resolves everything afresh.
+     */
+    public void link() {
+        flushPendingClassifiers();
+
+        Set<EClass> classes = new LinkedHashSet<>(superTypeLinks.keySet());
+        classes.addAll(parameterTypeLinks.keySet());
+        classes.addAll(ecoreUtils.getClassReferences().keySet());
+        link(classes);
+    }
+
+    private void link(Collection<EClass> classes) {
+        for (EClass eClass : classes) {
+            linkSuperTypes(eClass);
+            linkParameterTypes(eClass);
+        }
+        // References come last, as opposites are looked for among the references already added.
+        for (EClass eClass : classes) {
+            processReferences(eClass);
+        }
+    }
+
+    private void linkSuperTypes(EClass eClass) {
+        List<SuperTypeLink> links = superTypeLinks.get(eClass);
+        if (links == null) {
+            return;
+        }
+        eClass.getESuperTypes().clear();
+        for (SuperTypeLink superTypeLink : links) {
+            EClass superType = getEClassByName(superTypeLink.superTypeName);
+            if (superType != null && (!superTypeLink.interfaceOnly || superType.isInterface())) {
+                eClass.getESuperTypes().add(superType);
+            }
+        }
+    }
+
+    private void linkParameterTypes(EClass eClass) {
+        for (ParameterTypeLink parameterTypeLink : parameterTypeLinks.getOrDefault(eClass, List.of())) {
+            EClassifier paramType = getClassifier(parameterTypeLink.typeName);
+            parameterTypeLink.eParameter.setEType(paramType != null ? paramType : EcorePackage.Literals.EOBJECT);
         }
     }
 
     public void processReferences() {
-        Map<EClass, List<EcoreUtils.ReferenceInfo>> refs = ecoreUtils.getClassReferences();
-        for (Map.Entry<EClass, List<EcoreUtils.ReferenceInfo>> entry : refs.entrySet()) {
-            EClass sourceClass = entry.getKey();
-            for (EcoreUtils.ReferenceInfo info : entry.getValue()) {
-                try {
-                    addReference(sourceClass, info.target, info.referenceName, info.containment);
-                } catch (IllegalArgumentException e) {
-                    // Log the error or handle it as appropriate
-                    System.err.println("Error adding reference from " + sourceClass.getName() + " to " + info.target.getName() + ": " + e.getMessage());
+        for (EClass sourceClass : ecoreUtils.getClassReferences().keySet()) {
+            processReferences(sourceClass);
+        }
+    }
+
+    /**
+     * Replaces the references of a class with those its recorded reference infos resolve to now.
+     */
+    private void processReferences(EClass sourceClass) {
+        List<EcoreUtils.ReferenceInfo> infos = ecoreUtils.getClassReferences().get(sourceClass);
+        if (infos == null) {
+            return;
+        }
+        for (EcoreUtils.ReferenceInfo info : infos) {
+            if (info.reference != null) {
+                EReference opposite = info.reference.getEOpposite();
+                if (opposite != null && opposite.getEOpposite() == info.reference) {
+                    opposite.setEOpposite(null);
                 }
+                sourceClass.getEStructuralFeatures().remove(info.reference);
+                info.reference = null;
+            }
+        }
+        for (EcoreUtils.ReferenceInfo info : infos) {
+            EClass target = getEClassByName(info.targetName);
+            if (target == null) {
+                continue;
+            }
+            try {
+                info.reference = addReference(sourceClass, target, info.referenceName, info.containment);
+            } catch (IllegalArgumentException e) {
+                // Log the error or handle it as appropriate
+                System.err.println("Error adding reference from " + sourceClass.getName() + " to " + info.targetName + ": " + e.getMessage());
             }
         }
     }
 
-    private void addReference(EClass source, EClass target, String referenceName, boolean containment) {
+    private EReference addReference(EClass source, EClass target, String referenceName, boolean containment) {
         EReference eReference = ecoreFactory.createEReference();
         eReference.setName(referenceName);
         eReference.setEType(target);
@@ -272,7 +713,8 @@ public class EcoreModelManager {
             opposite.setEOpposite(eReference);
         }
 
-        source.getEStructuralFeatures().add(eReference);
+        append(source.getEStructuralFeatures(), eReference);
+        return eReference;
     }
 
     private EReference findOppositeReference(EClass target, EClass source) {
@@ -3,29 +3,31 @@ package aam65.j2ecore;
 import org.eclipse.emf.ecore.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class EcoreUtils {
-    private final Map<EClass, List<ReferenceInfo>> classReferences = new HashMap<>();
+    private final Map<EClass, List<ReferenceInfo>> classReferences = new LinkedHashMap<>();
 
     public static class ReferenceInfo {
         EClass source;
-        EClass target;
+        String targetName;
         String referenceName;
         boolean containment;
+        // The reference last created from this info, replaced whenever the source class is linked again.
+        EReference reference;
 
-        public ReferenceInfo(EClass source, EClass target, String referenceName, boolean containment) {
+        public ReferenceInfo(EClass source, String targetName, String referenceName, boolean containment) {
             this.source = source;
-            this.target = target;
+            this.targetName = targetName;
             this.referenceName = referenceName;
             this.containment = containment;
         }
     }
 
-    public void addReferenceInfo(EClass source, EClass target, String referenceName, boolean containment) {
-        ReferenceInfo referenceInfo = new ReferenceInfo(source, target, referenceName, containment);
+    public void addReferenceInfo(EClass source, String targetName, String referenceName, boolean containment) {
+        ReferenceInfo referenceInfo = new ReferenceInfo(source, targetName, referenceName, containment);
         classReferences.computeIfAbsent(source, k -> new ArrayList<>()).add(referenceInfo);
     }
 
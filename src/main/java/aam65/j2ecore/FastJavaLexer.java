@@ -0,0 +1,709 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.Arrays;
+
+/**
+ * A hand-written scanner for the tokens of {@link JavaLexer}, much faster than the generated lexer, which runs its
+ * ATN interpreter on every character.
+ * <p>
+ * The scanner emits the same tokens as {@code JavaLexer.g4}, with the same types, channels, positions and source, and
+ * picks the longest match between the rules the same way. It only handles the common cases itself: ASCII identifiers
+ * and keywords, numbers, operators, whitespace, comments, and string and character literals with simple escapes.
+ * Anything else, such as an identifier that may contain non-ASCII letters, a text block, a {@code \}{@code u} escape
+ * or a character no token starts with, is handed to the generated lexer for that one token, and scanning goes on
+ * after it.
+ */
+public class FastJavaLexer implements TokenSource {
+    private static final int DECIMAL = 0;
+    private static final int HEX = 1;
+    private static final int OCTAL = 2;
+    private static final int BINARY = 3;
+    private static final int NO_MATCH = -1;
+
+    // Keywords by length and first letter, read from the literal names of the generated lexer.
+    private static final int MAX_KEYWORD_LENGTH;
+    private static final char[][][] KEYWORDS;
+    private static final int[][] KEYWORD_TYPES;
+    private static final char[] NON_SEALED_TAIL = "-sealed".toCharArray();
+
+    static {
+        int maxLength = "false".length();
+        char[][] words = new char[JavaLexer.VOCABULARY.getMaxTokenType() + 3][];
+        int[] types = new int[words.length];
+        int count = 0;
+        for (int type = 1; type <= JavaLexer.VOCABULARY.getMaxTokenType(); type++) {
+            String literal = JavaLexer.VOCABULARY.getLiteralName(type);
+            if (literal != null && literal.matches("'[a-z]+'")) {
+                words[count] = literal.substring(1, literal.length() - 1).toCharArray();
+                types[count++] = type;
+                maxLength = Math.max(maxLength, literal.length() - 2);
+            }
+        }
+        // BOOL_LITERAL has two alternatives, so it has no literal name.
+        words[count] = "true".toCharArray();
+        types[count++] = JavaLexer.BOOL_LITERAL;
+        words[count] = "false".toCharArray();
+        types[count++] = JavaLexer.BOOL_LITERAL;
+
+        MAX_KEYWORD_LENGTH = maxLength;
+        KEYWORDS = new char[(maxLength + 1) * 26][0][];
+        KEYWORD_TYPES = new int[KEYWORDS.length][0];
+        for (int i = 0; i < count; i++) {
+            int bucket = keywordBucket(words[i].length, words[i][0]);
+            int size = KEYWORDS[bucket].length;
+            KEYWORDS[bucket] = Arrays.copyOf(KEYWORDS[bucket], size + 1);
+            KEYWORD_TYPES[bucket] = Arrays.copyOf(KEYWORD_TYPES[bucket], size + 1);
+            KEYWORDS[bucket][size] = words[i];
+            KEYWORD_TYPES[bucket][size] = types[i];
+        }
+    }
+
+    private final JavaLexer fallback;
+    private CharStream input;
+    private Pair<TokenSource, CharStream> source;
+    private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+    private int line = 1;
+    private int charPositionInLine;
+    private final char[] word = new char[MAX_KEYWORD_LENGTH];
+
+    // Set while scanning a token.
+    private int tokenLength;
+    private int tokenChannel;
+    private int newlines;
+    private int lastNewline;
+    private int digitsEnd;
+    private boolean digitsComplete;
+
+    /**
+     * @param fallback the lexer that handles the tokens this scanner does not, and that the tokens appear to come
+     *                 from
+     */
+    public FastJavaLexer(JavaLexer fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Starts scanning a new input, or drops the current one when null.
+     */
+    public void setInputStream(CharStream input) {
+        this.input = input;
+        fallback.setInputStream(input);
+        source = new Pair<>(fallback, input);
+        line = 1;
+        charPositionInLine = 0;
+    }
+
+    /**
+     * @return the token source and input the tokens appear to come from
+     */
+    public Pair<TokenSource, CharStream> getTokenSourcePair() {
+        return source;
+    }
+
+    @Override
+    public Token nextToken() {
+        int start = input.index();
+        if (input.LA(1) == IntStream.EOF) {
+            return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL, start, start - 1, line,
+                    charPositionInLine);
+        }
+        int type = scanToken();
+        if (type == NO_MATCH) {
+            return delegate(start);
+        }
+        Token token = factory.create(source, type, null, tokenChannel, start, start + tokenLength - 1, line,
+                charPositionInLine);
+        advance(start);
+        return token;
+    }
+
+    /**
+     * Scans the rest of the input into a token stream, up to and including the end of file. Only the tokens left to
+     * the generated lexer are created as objects.
+     */
+    public void fill(CompactTokenStream tokens) {
+        while (true) {
+            int start = input.index();
+            if (input.LA(1) == IntStream.EOF) {
+                tokens.add(Token.EOF, Token.DEFAULT_CHANNEL, start, start - 1, line, charPositionInLine);
+                return;
+            }
+            int type = scanToken();
+            if (type == NO_MATCH) {
+                Token token = delegate(start);
+                tokens.add(token);
+                if (token.getType() == Token.EOF) {
+                    return;
+                }
+            } else {
+                tokens.add(type, tokenChannel, start, start + tokenLength - 1, line, charPositionInLine);
+                advance(start);
+            }
+        }
+    }
+
+    private int scanToken() {
+        tokenChannel = Token.DEFAULT_CHANNEL;
+        newlines = 0;
+        lastNewline = -1;
+        return scan();
+    }
+
+    /**
+     * Moves past the token just scanned.
+     */
+    private void advance(int start) {
+        input.seek(start + tokenLength);
+        if (newlines > 0) {
+            line += newlines;
+            charPositionInLine = tokenLength - lastNewline - 1;
+        } else {
+            charPositionInLine += tokenLength;
+        }
+    }
+
+    /**
+     * Scans the token at the current position without consuming it.
+     *
+     * @return the token type, with its length in {@link #tokenLength}, or {@link #NO_MATCH} if the token is left to
+     * the generated lexer
+     */
+    private int scan() {
+        int c = la(0);
+        switch (c) {
+            case ' ', '\t', '\r', '\n', '\f' -> {
+                return whitespace();
+            }
+            case '(' -> {
+                return token(JavaLexer.LPAREN, 1);
+            }
+            case ')' -> {
+                return token(JavaLexer.RPAREN, 1);
+            }
+            case '{' -> {
+                return token(JavaLexer.LBRACE, 1);
+            }
+            case '}' -> {
+                return token(JavaLexer.RBRACE, 1);
+            }
+            case '[' -> {
+                return token(JavaLexer.LBRACK, 1);
+            }
+            case ']' -> {
+                return token(JavaLexer.RBRACK, 1);
+            }
+            case ';' -> {
+                return token(JavaLexer.SEMI, 1);
+            }
+            case ',' -> {
+                return token(JavaLexer.COMMA, 1);
+            }
+            case '@' -> {
+                return token(JavaLexer.AT, 1);
+            }
+            case '~' -> {
+                return token(JavaLexer.TILDE, 1);
+            }
+            case '?' -> {
+                return token(JavaLexer.QUESTION, 1);
+            }
+            case '.' -> {
+                if (isDigit(la(1), DECIMAL)) {
+                    return number();
+                }
+                return la(1) == '.' && la(2) == '.' ? token(JavaLexer.ELLIPSIS, 3) : token(JavaLexer.DOT, 1);
+            }
+            case ':' -> {
+                return la(1) == ':' ? token(JavaLexer.COLONCOLON, 2) : token(JavaLexer.COLON, 1);
+            }
+            case '=' -> {
+                return la(1) == '=' ? token(JavaLexer.EQUAL, 2) : token(JavaLexer.ASSIGN, 1);
+            }
+            case '!' -> {
+                return la(1) == '=' ? token(JavaLexer.NOTEQUAL, 2) : token(JavaLexer.BANG, 1);
+            }
+            case '*' -> {
+                return la(1) == '=' ? token(JavaLexer.MUL_ASSIGN, 2) : token(JavaLexer.MUL, 1);
+            }
+            case '^' -> {
+                return la(1) == '=' ? token(JavaLexer.XOR_ASSIGN, 2) : token(JavaLexer.CARET, 1);
+            }
+            case '%' -> {
+                return la(1) == '=' ? token(JavaLexer.MOD_ASSIGN, 2) : token(JavaLexer.MOD, 1);
+            }
+            case '&' -> {
+                return switch (la(1)) {
+                    case '&' -> token(JavaLexer.AND, 2);
+                    case '=' -> token(JavaLexer.AND_ASSIGN, 2);
+                    default -> token(JavaLexer.BITAND, 1);
+                };
+            }
+            case '|' -> {
+                return switch (la(1)) {
+                    case '|' -> token(JavaLexer.OR, 2);
+                    case '=' -> token(JavaLexer.OR_ASSIGN, 2);
+                    default -> token(JavaLexer.BITOR, 1);
+                };
+            }
+            case '+' -> {
+                return switch (la(1)) {
+                    case '+' -> token(JavaLexer.INC, 2);
+                    case '=' -> token(JavaLexer.ADD_ASSIGN, 2);
+                    default -> token(JavaLexer.ADD, 1);
+                };
+            }
+            case '-' -> {
+                return switch (la(1)) {
+                    case '-' -> token(JavaLexer.DEC, 2);
+                    case '=' -> token(JavaLexer.SUB_ASSIGN, 2);
+                    case '>' -> token(JavaLexer.ARROW, 2);
+                    default -> token(JavaLexer.SUB, 1);
+                };
+            }
+            case '<' -> {
+                // There is no shift token, so << is two LT tokens unless an assignment follows.
+                if (la(1) == '<') {
+                    return la(2) == '=' ? token(JavaLexer.LSHIFT_ASSIGN, 3) : token(JavaLexer.LT, 1);
+                }
+                return la(1) == '=' ? token(JavaLexer.LE, 2) : token(JavaLexer.LT, 1);
+            }
+            case '>' -> {
+                if (la(1) == '>') {
+                    if (la(2) == '=') {
+                        return token(JavaLexer.RSHIFT_ASSIGN, 3);
+                    }
+                    return la(2) == '>' && la(3) == '=' ? token(JavaLexer.URSHIFT_ASSIGN, 4) : token(JavaLexer.GT, 1);
+                }
+                return la(1) == '=' ? token(JavaLexer.GE, 2) : token(JavaLexer.GT, 1);
+            }
+            case '/' -> {
+                return switch (la(1)) {
+                    case '/' -> lineComment();
+                    case '*' -> blockComment();
+                    case '=' -> token(JavaLexer.DIV_ASSIGN, 2);
+                    default -> token(JavaLexer.DIV, 1);
+                };
+            }
+            case '"' -> {
+                return stringLiteral();
+            }
+            case '\'' -> {
+                return charLiteral();
+            }
+            default -> {
+                if (isDigit(c, DECIMAL)) {
+                    return number();
+                }
+                if (isIdentifierStart(c)) {
+                    return identifier();
+                }
+                return NO_MATCH;
+            }
+        }
+    }
+
+    private int token(int type, int length) {
+        tokenLength = length;
+        return type;
+    }
+
+    private int whitespace() {
+        int i = 0;
+        for (int c = la(0); c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f'; c = la(++i)) {
+            if (c == '\n') {
+                newlines++;
+                lastNewline = i;
+            }
+        }
+        tokenChannel = Token.HIDDEN_CHANNEL;
+        return token(JavaLexer.WS, i);
+    }
+
+    private int lineComment() {
+        int i = 2;
+        while (la(i) != '\r' && la(i) != '\n' && la(i) != IntStream.EOF) {
+            i++;
+        }
+        tokenChannel = Token.HIDDEN_CHANNEL;
+        return token(JavaLexer.LINE_COMMENT, i);
+    }
+
+    private int blockComment() {
+        // The comment ends at the first */ after the opening /*, which cannot share its star.
+        for (int i = 2; ; i++) {
+            int c = la(i);
+            if (c == '*' && la(i + 1) == '/') {
+                tokenChannel = Token.HIDDEN_CHANNEL;
+                return token(JavaLexer.COMMENT, i + 2);
+            }
+            if (c == '\n') {
+                newlines++;
+                lastNewline = i;
+            } else if (c == IntStream.EOF) {
+                // Unterminated, so only the slash is a token.
+                return NO_MATCH;
+            }
+        }
+    }
+
+    private int stringLiteral() {
+        if (la(1) == '"' && la(2) == '"') {
+            // Maybe a text block, whose non-greedy end is best left to the generated lexer.
+            return NO_MATCH;
+        }
+        for (int i = 1; ; i++) {
+            int c = la(i);
+            if (c == '"') {
+                return token(JavaLexer.STRING_LITERAL, i + 1);
+            }
+            if (c == '\\') {
+                // The digits after an octal escape are string characters either way, so they need no special care.
+                if (!isSimpleEscape(la(i + 1)) && !isDigit(la(i + 1), OCTAL)) {
+                    return NO_MATCH;
+                }
+                i++;
+            } else if (c == '\r' || c == '\n' || c == IntStream.EOF) {
+                return NO_MATCH;
+            }
+        }
+    }
+
+    private int charLiteral() {
+        int c = la(1);
+        if (c == '\\') {
+            return isSimpleEscape(la(2)) && la(3) == '\'' ? token(JavaLexer.CHAR_LITERAL, 4) : NO_MATCH;
+        }
+        if (c == '\'' || c == '\r' || c == '\n' || c == IntStream.EOF) {
+            return NO_MATCH;
+        }
+        return la(2) == '\'' ? token(JavaLexer.CHAR_LITERAL, 3) : NO_MATCH;
+    }
+
+    private static boolean isSimpleEscape(int c) {
+        return switch (c) {
+            case 'b', 't', 'n', 'f', 'r', '"', '\'', '\\' -> true;
+            default -> false;
+        };
+    }
+
+    private int identifier() {
+        int i = 1;
+        word[0] = (char) la(0);
+        for (int c = la(1); isIdentifierPart(c); c = la(++i)) {
+            if (i < word.length) {
+                word[i] = (char) c;
+            }
+        }
+        if (la(i) >= 0x80) {
+            // A non-ASCII letter may continue the identifier.
+            return NO_MATCH;
+        }
+        if (i == 3 && word[0] == 'n' && word[1] == 'o' && word[2] == 'n' && matches(i, NON_SEALED_TAIL)) {
+            return token(JavaLexer.NON_SEALED, i + NON_SEALED_TAIL.length);
+        }
+        return token(i <= MAX_KEYWORD_LENGTH ? keywordType(i) : JavaLexer.IDENTIFIER, i);
+    }
+
+    private int keywordType(int length) {
+        char first = word[0];
+        if (first < 'a' || first > 'z') {
+            return JavaLexer.IDENTIFIER;
+        }
+        int bucket = keywordBucket(length, first);
+        char[][] candidates = KEYWORDS[bucket];
+        candidates:
+        for (int k = 0; k < candidates.length; k++) {
+            char[] keyword = candidates[k];
+            for (int i = 1; i < length; i++) {
+                if (keyword[i] != word[i]) {
+                    continue candidates;
+                }
+            }
+            return KEYWORD_TYPES[bucket][k];
+        }
+        return JavaLexer.IDENTIFIER;
+    }
+
+    private static int keywordBucket(int length, char first) {
+        return length * 26 + first - 'a';
+    }
+
+    private boolean matches(int offset, char[] text) {
+        for (int i = 0; i < text.length; i++) {
+            if (la(offset + i) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || c >= '0' && c <= '9';
+    }
+
+    /**
+     * Scans a number the way the lexer does: every numeric rule is matched on its own, and the longest match wins,
+     * the first rule in the grammar on a tie.
+     */
+    private int number() {
+        int type = JavaLexer.DECIMAL_LITERAL;
+        int length = decimalLength();
+        int hex = integerLength('x', 'X', HEX);
+        if (hex > length) {
+            type = JavaLexer.HEX_LITERAL;
+            length = hex;
+        }
+        int octal = octalLength();
+        if (octal > length) {
+            type = JavaLexer.OCT_LITERAL;
+            length = octal;
+        }
+        int binary = integerLength('b', 'B', BINARY);
+        if (binary > length) {
+            type = JavaLexer.BINARY_LITERAL;
+            length = binary;
+        }
+        int floating = floatLength();
+        if (floating > length) {
+            type = JavaLexer.FLOAT_LITERAL;
+            length = floating;
+        }
+        int hexFloat = hexFloatLength();
+        if (hexFloat > length) {
+            type = JavaLexer.HEX_FLOAT_LITERAL;
+            length = hexFloat;
+        }
+        return token(type, length);
+    }
+
+    // DECIMAL_LITERAL : ('0' | [1-9] (Digits? | '_'+ Digits)) [lL]?
+    private int decimalLength() {
+        int c = la(0);
+        if (c == '0') {
+            return isLongSuffix(la(1)) ? 2 : 1;
+        }
+        if (c < '1' || c > '9') {
+            return 0;
+        }
+        digits(0, DECIMAL);
+        return withLongSuffix();
+    }
+
+    // HEX_LITERAL and BINARY_LITERAL : '0' [xX] HexDigit ((HexDigit | '_')* HexDigit)? [lL]?
+    private int integerLength(char prefix, char upperPrefix, int radix) {
+        if (la(0) != '0' || la(1) != prefix && la(1) != upperPrefix || !digits(2, radix)) {
+            return 0;
+        }
+        return withLongSuffix();
+    }
+
+    // OCT_LITERAL : '0' '_'* [0-7] ([0-7_]* [0-7])? [lL]?
+    private int octalLength() {
+        if (la(0) != '0') {
+            return 0;
+        }
+        int i = 1;
+        while (la(i) == '_') {
+            i++;
+        }
+        if (!digits(i, OCTAL)) {
+            return 0;
+        }
+        return withLongSuffix();
+    }
+
+    private int withLongSuffix() {
+        return digitsComplete && isLongSuffix(la(digitsEnd)) ? digitsEnd + 1 : digitsEnd;
+    }
+
+    // FLOAT_LITERAL : (Digits '.' Digits? | '.' Digits) ExponentPart? [fFdD]? | Digits (ExponentPart [fFdD]? | [fFdD])
+    private int floatLength() {
+        if (la(0) == '.') {
+            if (!digits(1, DECIMAL)) {
+                return 0;
+            }
+            return digitsComplete ? exponentAndSuffix(digitsEnd, digitsEnd) : digitsEnd;
+        }
+        // A run of digits ending in an underscore cannot be followed by anything.
+        if (!digits(0, DECIMAL) || !digitsComplete) {
+            return 0;
+        }
+        int i = digitsEnd;
+        if (la(i) != '.') {
+            return exponentAndSuffix(i, 0);
+        }
+        i++;
+        if (digits(i, DECIMAL)) {
+            if (!digitsComplete) {
+                return digitsEnd;
+            }
+            i = digitsEnd;
+        }
+        return exponentAndSuffix(i, i);
+    }
+
+    /**
+     * Matches an optional exponent and type suffix at {@code i}.
+     *
+     * @param matched the length matched so far, 0 if the number is not a float without them
+     */
+    private int exponentAndSuffix(int i, int matched) {
+        int c = la(i);
+        if (c == 'e' || c == 'E') {
+            int j = i + 1;
+            if (la(j) == '+' || la(j) == '-') {
+                j++;
+            }
+            if (!digits(j, DECIMAL)) {
+                return matched;
+            }
+            if (!digitsComplete) {
+                return digitsEnd;
+            }
+            i = digitsEnd;
+            matched = i;
+        }
+        return isFloatSuffix(la(i)) ? i + 1 : matched;
+    }
+
+    // HEX_FLOAT_LITERAL : '0' [xX] (HexDigits '.'? | HexDigits? '.' HexDigits) [pP] [+-]? Digits [fFdD]?
+    private int hexFloatLength() {
+        if (la(0) != '0' || la(1) != 'x' && la(1) != 'X') {
+            return 0;
+        }
+        int i;
+        if (digits(2, HEX)) {
+            if (!digitsComplete) {
+                return 0;
+            }
+            i = digitsEnd;
+            if (la(i) == '.') {
+                i++;
+                if (digits(i, HEX)) {
+                    if (!digitsComplete) {
+                        return 0;
+                    }
+                    i = digitsEnd;
+                }
+            }
+        } else {
+            if (la(2) != '.' || !digits(3, HEX) || !digitsComplete) {
+                return 0;
+            }
+            i = digitsEnd;
+        }
+        if (la(i) != 'p' && la(i) != 'P') {
+            return 0;
+        }
+        i++;
+        if (la(i) == '+' || la(i) == '-') {
+            i++;
+        }
+        if (!digits(i, DECIMAL)) {
+            return 0;
+        }
+        if (!digitsComplete) {
+            return digitsEnd;
+        }
+        return isFloatSuffix(la(digitsEnd)) ? digitsEnd + 1 : digitsEnd;
+    }
+
+    /**
+     * Matches digits of a radix, with underscores between them, starting at {@code start}. Sets {@link #digitsEnd} to
+     * the end of the last digit, and {@link #digitsComplete} when no underscore follows it, that is when the rest of
+     * the literal may follow.
+     *
+     * @return false if there is no digit at {@code start}
+     */
+    private boolean digits(int start, int radix) {
+        if (!isDigit(la(start), radix)) {
+            return false;
+        }
+        int i = start + 1;
+        int end = i;
+        for (int c = la(i); c == '_' || isDigit(c, radix); c = la(++i)) {
+            if (c != '_') {
+                end = i + 1;
+            }
+        }
+        digitsEnd = end;
+        digitsComplete = end == i;
+        return true;
+    }
+
+    private static boolean isDigit(int c, int radix) {
+        return switch (radix) {
+            case DECIMAL -> c >= '0' && c <= '9';
+            case HEX -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+            case OCTAL -> c >= '0' && c <= '7';
+            default -> c == '0' || c == '1';
+        };
+    }
+
+    private static boolean isLongSuffix(int c) {
+        return c == 'l' || c == 'L';
+    }
+
+    private static boolean isFloatSuffix(int c) {
+        return c == 'f' || c == 'F' || c == 'd' || c == 'D';
+    }
+
+    private int la(int offset) {
+        return input.LA(offset + 1);
+    }
+
+    /**
+     * Lets the generated lexer produce the token at {@code start}, skipping any characters it cannot match.
+     */
+    private Token delegate(int start) {
+        input.seek(start);
+        fallback.setLine(line);
+        fallback.setCharPositionInLine(charPositionInLine);
+        Token token = fallback.nextToken();
+        line = fallback.getLine();
+        charPositionInLine = fallback.getCharPositionInLine();
+        return token;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory;
+    }
+}
@@ -1,242 +1,249 @@
 package aam65.j2ecore;
 
-import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
-import org.eclipse.emf.ecore.*;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JavaFileParser {
     private final EcoreModelManager modelManager;
+    private final boolean outline;
+    private final boolean mappedInput;
+    private final boolean streaming;
+    private final boolean outlineScanner;
+    private final DeclarationExtractor extractor = new DeclarationExtractor();
+    private final AtomicInteger parsedFileCount = new AtomicInteger();
+    private final AtomicInteger llFallbackCount = new AtomicInteger();
+    private final AtomicInteger scannedFileCount = new AtomicInteger();
+    private final DfaCacheGuard dfaCacheGuard;
+    private final MemoryBudget memoryBudget;
+    // Each parsing thread reuses its own lexer, token stream and parser.
+    private final ThreadLocal<ParseSession> sessions;
 
     public JavaFileParser(EcoreModelManager modelManager) {
-        this.modelManager = modelManager;
+        this(modelManager, false);
     }
 
-    public void parseFile(Path filePath) throws IOException {
-        CharStream codeCharStream = CharStreams.fromPath(filePath);
-        JavaLexer lexer = new JavaLexer(codeCharStream);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        JavaParser parser = new JavaParser(tokens);
+    /**
+     * @param outline when true, method bodies and field initializers are skipped before parsing, see
+     *                {@link OutlineTokenFilter}
+     */
+    public JavaFileParser(EcoreModelManager modelManager, boolean outline) {
+        this(builder(modelManager).outline(outline));
+    }
 
-        ParseTree tree = parser.compilationUnit();
-        processTree(tree);
+    protected JavaFileParser(Builder builder) {
+        this.modelManager = builder.modelManager;
+        this.outline = builder.outline;
+        this.mappedInput = builder.mappedInput;
+        this.streaming = builder.streaming;
+        this.outlineScanner = builder.outlineScanner;
+        this.dfaCacheGuard = builder.dfaCacheGuard;
+        this.memoryBudget = builder.memoryBudget;
+        boolean threadLocalDfa = builder.threadLocalDfa;
+        boolean fastLexer = builder.fastLexer;
+        this.sessions = ThreadLocal.withInitial(() ->
+                new ParseSession(dfaCacheGuard, threadLocalDfa, fastLexer, streaming));
+    }
 
-        String packageName = extractPackageName(parser.compilationUnit());
-        modelManager.setPackageName(packageName);
+    /**
+     * @return a builder for a parser that adds what it parses to this model, which may be null if the parser is only
+     * used through {@link #parse(Path)}
+     */
+    public static Builder builder(EcoreModelManager modelManager) {
+        return new Builder(modelManager);
     }
 
-    private String extractPackageName(JavaParser.CompilationUnitContext context) {
-        if (context.packageDeclaration() != null) {
-            return context.packageDeclaration().qualifiedName().getText();
-        }
-        return "javaPackage";
+    public void parseFile(Path filePath) throws IOException {
+        process(parse(filePath));
     }
 
-    private void processTree(ParseTree tree) {
-        if (tree instanceof JavaParser.ClassDeclarationContext) {
-            processClass((JavaParser.ClassDeclarationContext) tree);
-        } else if (tree instanceof JavaParser.InterfaceDeclarationContext) {
-            processInterface((JavaParser.InterfaceDeclarationContext) tree);
-        } else if (tree instanceof JavaParser.EnumDeclarationContext) {
-            processEnum((JavaParser.EnumDeclarationContext) tree);
+    /**
+     * Lexes and parses a single file without touching the model, so it can be called from several threads at once.
+     * The file is parsed once and its declarations are extracted from that tree, which can be collected as soon as
+     * this method returns.
+     */
+    public ParsedFile parse(Path filePath) throws IOException {
+        if (outlineScanner) {
+            return parse(filePath, Files.readAllBytes(filePath));
         }
-
-        for (int i = 0; i < tree.getChildCount(); i++) {
-            processTree(tree.getChild(i));
+        if (!mappedInput) {
+            return parse(filePath, CharStreams.fromPath(filePath));
+        }
+        try (ByteCharStream input = ByteCharStream.open(filePath)) {
+            return parse(filePath, input.decoded());
         }
     }
 
-    private void processClass(JavaParser.ClassDeclarationContext classDecl) {
-        String className = classDecl.identifier().getText();
-        EClass eClass = modelManager.addClass(className);
-
-        // Handle superclass
-        if (classDecl.EXTENDS() != null && classDecl.typeType() != null) {
-            String superclassName = modelManager.getTypeName(classDecl.typeType());
-            EClass superclass = modelManager.getEClassByName(superclassName);
-            if (superclass != null) {
-                eClass.getESuperTypes().add(superclass);
+    /**
+     * Same as {@link #parse(Path)} for a file whose bytes have already been read.
+     */
+    public ParsedFile parse(Path filePath, byte[] content) {
+        if (outlineScanner) {
+            ParsedFile parsedFile = OutlineScanner.scan(filePath, content);
+            if (parsedFile != null) {
+                scannedFileCount.incrementAndGet();
+                return parsedFile;
             }
         }
-
-        // Handle interfaces
-        if (classDecl.IMPLEMENTS() != null) {
-            classDecl.typeList().forEach(typeListContext -> typeListContext.typeType().forEach(typeTypeContext -> {
-                String interfaceName = modelManager.getTypeName(typeTypeContext);
-                EClass interfaceClass = modelManager.getEClassByName(interfaceName);
-                if (interfaceClass != null) {
-                    eClass.getESuperTypes().add(interfaceClass);
-                }
-            }));
-        }
-
-        // Handle Annotations
-        for (JavaParser.ClassBodyDeclarationContext bodyDecl : classDecl.classBody().classBodyDeclaration()) {
-            if (bodyDecl.memberDeclaration() != null) {
-                for (JavaParser.ModifierContext modCtx : bodyDecl.modifier()) {
-                    if (modCtx.classOrInterfaceModifier() != null &&
-                            modCtx.classOrInterfaceModifier().annotation() != null) {
-                        handleAnnotation(modCtx.classOrInterfaceModifier().annotation(), eClass);
-                    }
-                }
-            }
+        if (mappedInput) {
+            return parse(filePath, ByteCharStream.wrap(content, filePath.toString()).decoded());
         }
+        return parse(filePath, CharStreams.fromString(new String(content, StandardCharsets.UTF_8), filePath.toString()));
+    }
 
-        classDecl.classBody().classBodyDeclaration().forEach(declaration -> {
-            if (declaration.memberDeclaration() != null) {
-                JavaParser.MemberDeclarationContext memberCtx = declaration.memberDeclaration();
-                if (memberCtx.fieldDeclaration() != null) {
-                    extractFields(memberCtx.fieldDeclaration(), eClass);
-                } else if (memberCtx.methodDeclaration() != null) {
-                    extractMethods(memberCtx.methodDeclaration(), eClass);
-                }
+    /**
+     * Same as {@link #parse(Path)} for content that has already been read.
+     */
+    public ParsedFile parse(Path filePath, CharStream codeCharStream) {
+        // Admitted before entering the guard, so a file waiting for room never holds up a clear of the caches.
+        MemoryBudget.Admission admission = memoryBudget != null ? memoryBudget.admit(codeCharStream.size()) : null;
+        if (dfaCacheGuard != null) {
+            dfaCacheGuard.enter();
+        }
+        long start = System.nanoTime();
+        ParseSession session = sessions.get();
+        try {
+            JavaParser.CompilationUnitContext tree = session.parse(codeCharStream, outline);
+            parsedFileCount.incrementAndGet();
+            if (session.usedLlFallback()) {
+                llFallbackCount.incrementAndGet();
+            }
+            if (streaming) {
+                return session.getStreamingExtractor().toParsedFile(filePath);
+            }
+            return extractor.extract(filePath, tree, session.getTokens());
+        } finally {
+            session.clear();
+            if (dfaCacheGuard != null) {
+                dfaCacheGuard.exit(codeCharStream.size(), System.nanoTime() - start);
             }
-        });
+            if (admission != null) {
+                memoryBudget.release(admission);
+            }
+        }
     }
 
-    private void processInterface(JavaParser.InterfaceDeclarationContext interfaceDecl) {
-        String interfaceName = interfaceDecl.identifier().getText();
-        List<String> extendedInterfaceNames = new ArrayList<>();
+    /**
+     * @return the number of files parsed so far
+     */
+    public int getParsedFileCount() {
+        return parsedFileCount.get();
+    }
 
-        // Handle extended interfaces
-        if (interfaceDecl.EXTENDS() != null) {
-            interfaceDecl.typeList().forEach(typeListContext -> typeListContext.typeType().forEach(typeTypeContext -> {
-                String extendedInterfaceName = modelManager.getTypeName(typeTypeContext);
-                extendedInterfaceNames.add(extendedInterfaceName);
-            }));
-        }
+    /**
+     * @return the number of files whose declarations were read by the outline scanner instead of being parsed
+     */
+    public int getScannedFileCount() {
+        return scannedFileCount.get();
+    }
 
-        EClass eInterface = modelManager.addInterface(interfaceName, extendedInterfaceNames);
+    /**
+     * @return the number of files that had to be parsed again with full LL prediction after SLL prediction failed
+     */
+    public int getLlFallbackCount() {
+        return llFallbackCount.get();
+    }
 
-        // Process interface methods
-        interfaceDecl.interfaceBody().interfaceBodyDeclaration().forEach(declaration -> {
-            if (declaration.interfaceMemberDeclaration() != null && declaration.interfaceMemberDeclaration().interfaceMethodDeclaration() != null) {
-                extractInterfaceMethods(declaration.interfaceMemberDeclaration().interfaceMethodDeclaration(), eInterface);
-            }
-        });
+    /**
+     * Adds the declarations of a parsed file to the model. Must only be called from one thread at a time.
+     */
+    public void process(ParsedFile parsedFile) {
+        modelManager.addDeclarations(parsedFile);
     }
 
-    private void extractInterfaceMethods(JavaParser.InterfaceMethodDeclarationContext methodCtx, EClass eInterface) {
-        String methodName = methodCtx.interfaceCommonBodyDeclaration().identifier().getText();
-        EOperation eOperation = modelManager.addOperation(eInterface, methodName);
-
-        // Extracting formal parameters
-        JavaParser.FormalParametersContext formalParametersCtx = methodCtx.interfaceCommonBodyDeclaration().formalParameters();
-        extractFormalParameters(eOperation, formalParametersCtx);
-
-        // Handling the return type
-        JavaParser.TypeTypeOrVoidContext returnTypeCtx = methodCtx.interfaceCommonBodyDeclaration().typeTypeOrVoid();
-        if (returnTypeCtx != null) {
-            if (returnTypeCtx.VOID() != null) {
-                eOperation.setEType(null); // void return type
-            } else if (returnTypeCtx.typeType() != null) {
-                String returnType = modelManager.getTypeName(returnTypeCtx.typeType());
-                Object resolvedReturnType = modelManager.resolveReturnType(returnType);
-                if (resolvedReturnType instanceof EGenericType) {
-                    eOperation.setEGenericType((EGenericType) resolvedReturnType);
-                } else if (resolvedReturnType != null) {
-                    eOperation.setEType((EClassifier) resolvedReturnType);
-                }
-            }
+    /**
+     * The options of a parser, all off by default.
+     */
+    public static final class Builder {
+        private final EcoreModelManager modelManager;
+        private boolean outline;
+        private boolean mappedInput;
+        private DfaCacheGuard dfaCacheGuard;
+        private boolean threadLocalDfa;
+        private boolean fastLexer;
+        private boolean streaming;
+        private boolean outlineScanner;
+        private MemoryBudget memoryBudget;
+
+        private Builder(EcoreModelManager modelManager) {
+            this.modelManager = modelManager;
         }
-    }
 
-    private void extractFormalParameters(EOperation eOperation, JavaParser.FormalParametersContext formalParametersCtx) {
-        if (formalParametersCtx != null && formalParametersCtx.formalParameterList() != null) {
-            for (JavaParser.FormalParameterContext paramCtx : formalParametersCtx.formalParameterList().formalParameter()) {
-                String paramName = paramCtx.variableDeclaratorId().getText();
-                String paramType = modelManager.getTypeName(paramCtx.typeType());
-                EClassifier eParamType = modelManager.getEClassifierByName(paramType);
-                if (eParamType != null) {
-                    modelManager.addParameterToOperation(eOperation, paramName, eParamType);
-                } else {
-                    // Handle the case where eParamType is null, indicating a missing type
-                    System.err.println("Error: Type " + paramType + " not found for parameter " + paramName);
-                }
-            }
+        /**
+         * Skips method bodies and field initializers before parsing, see {@link OutlineTokenFilter}.
+         */
+        public Builder outline(boolean outline) {
+            this.outline = outline;
+            return this;
         }
-    }
 
-    private void processEnum(JavaParser.EnumDeclarationContext enumDecl) {
-        String enumName = enumDecl.identifier().getText();
-        EEnum eEnum = modelManager.addEnum(enumName);
+        /**
+         * Lexes files straight from their bytes, memory-mapped for large files, see {@link ByteCharStream}.
+         */
+        public Builder mappedInput(boolean mappedInput) {
+            this.mappedInput = mappedInput;
+            return this;
+        }
 
-        if (enumDecl.enumConstants() != null) {
-            int ordinal = 0;
-            for (JavaParser.EnumConstantContext enumConstant : enumDecl.enumConstants().enumConstant()) {
-                String enumConstantName = enumConstant.identifier().getText();
-                modelManager.addEnumLiteral(eEnum, enumConstantName, ordinal++);
-            }
+        /**
+         * @param dfaCacheGuard the guard that keeps the prediction caches bounded, or null to let them grow
+         */
+        public Builder dfaCacheGuard(DfaCacheGuard dfaCacheGuard) {
+            this.dfaCacheGuard = dfaCacheGuard;
+            return this;
         }
-    }
 
+        /**
+         * Lets each parsing thread predict with its own copy of the DFA, see {@link ParseSession}. Removes all locking
+         * between threads, at the cost of warming up and holding one DFA per thread.
+         */
+        public Builder threadLocalDfa(boolean threadLocalDfa) {
+            this.threadLocalDfa = threadLocalDfa;
+            return this;
+        }
 
-    private void extractFields(JavaParser.FieldDeclarationContext fieldCtx, EClass eClass) {
-        String fieldName = fieldCtx.variableDeclarators().variableDeclarator(0).variableDeclaratorId().getText();
-        String fieldType = fieldCtx.typeType().getText();
+        /**
+         * Lexes files with a hand-written scanner, see {@link FastJavaLexer}.
+         */
+        public Builder fastLexer(boolean fastLexer) {
+            this.fastLexer = fastLexer;
+            return this;
+        }
 
-        EClassifier fieldTypeClassifier = modelManager.getEClassifierByName(fieldType);
-        if (fieldTypeClassifier instanceof EDataType) {
-            modelManager.addAttribute(eClass, fieldName, (EDataType) fieldTypeClassifier);
-        } else if (fieldTypeClassifier instanceof EClass) {
-            // Assuming all references are containment for simplification
-            modelManager.addReferenceInfo(eClass, fieldType, fieldName, true);
-        } else {
-            // Fallback for unknown types, treat as EObject
-            EClassifier fallbackType = EcorePackage.Literals.EOBJECT;
-            modelManager.addAttribute(eClass, fieldName, (EDataType) fallbackType);
+        /**
+         * Builds no parse tree and extracts declarations while each file is parsed, see {@link StreamingExtractor},
+         * so the memory a file needs does not grow with its size.
+         */
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
         }
-    }
 
-    private void extractMethods(JavaParser.MethodDeclarationContext methodCtx, EClass eClass) {
-        String methodName = methodCtx.identifier().getText();
-        EOperation eOperation = modelManager.addOperation(eClass, methodName);
-
-        JavaParser.FormalParametersContext formalParametersCtx = methodCtx.formalParameters();
-        extractFormalParameters(eOperation, formalParametersCtx);
-
-        // Handle the return type
-        JavaParser.TypeTypeOrVoidContext returnTypeCtx = methodCtx.typeTypeOrVoid();
-        if (returnTypeCtx != null) {
-            if (returnTypeCtx.VOID() != null) {
-                eOperation.setEType(null);
-            } else if (returnTypeCtx.typeType() != null) {
-                String returnType = modelManager.getTypeName(returnTypeCtx.typeType());
-                Object resolvedReturnType = modelManager.resolveReturnType(returnType);
-
-                // Check the instance of the resolved return type and set it appropriately
-                if (resolvedReturnType instanceof EGenericType) {
-                    eOperation.setEGenericType((EGenericType) resolvedReturnType);
-                } else if (resolvedReturnType instanceof EClassifier) {
-                    eOperation.setEType((EClassifier) resolvedReturnType);
-                }
-            }
+        /**
+         * Reads declarations from the bytes of each file with an {@link OutlineScanner} first, and only parses the
+         * files it cannot read with certainty.
+         */
+        public Builder outlineScanner(boolean outlineScanner) {
+            this.outlineScanner = outlineScanner;
+            return this;
         }
-    }
 
-    private void handleAnnotation(JavaParser.AnnotationContext annotationCtx, EModelElement eModelElement) {
-        String annotationName = annotationCtx.qualifiedName().getText();
-        Map<String, String> elements = new HashMap<>();
-
-        JavaParser.ElementValuePairsContext pairsCtx = annotationCtx.elementValuePairs();
-        if (pairsCtx != null) {
-            System.out.println("Adding EAnnotation");
-            for (JavaParser.ElementValuePairContext pair : pairsCtx.elementValuePair()) {
-                // Use the identifier() method from ElementValuePairContext
-                String key = pair.identifier().getText();
-                // Use the elementValue() method from ElementValuePairContext
-                String value = pair.elementValue().getText();
-                elements.put(key, value);
-            }
+        /**
+         * @param memoryBudget the budget files are admitted to parsing against, or null to parse as many at once as
+         *                     there are threads
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
         }
 
-        EAnnotation eAnnotation = modelManager.createEAnnotation(annotationName, elements);
-        modelManager.addEAnnotationToElement(eModelElement, eAnnotation);
+        public JavaFileParser build() {
+            return new JavaFileParser(this);
+        }
     }
 }
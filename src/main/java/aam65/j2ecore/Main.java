@@ -2,39 +2,200 @@ package aam65.j2ecore;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Stream;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 
 public class Main {
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
+    // The most threads a ForkJoinPool takes.
+    private static final int MAX_THREADS = 0x7fff;
+    // Sizes in megabytes are converted to bytes, which must not overflow.
+    private static final long MAX_MEGABYTES = Long.MAX_VALUE >> 20;
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar J2Ecore.jar [options], see the README for what each option does",
+            "  --threads <n>  --outline  --bulk  --mmap  --fast-lexer  --streaming  --outline-scanner",
+            "  --cache-dir <dir>  --cache-max-mb <n>  --watch",
+            "  --dfa-max-states <n>  --dfa-heap-percent <p>  --dfa-per-thread  --dfa-snapshot <file>",
+            "  --pipeline  --readers <n>  --queue-capacity <n>  --prefetch <n>  --prefetch-mb <n>",
+            "  --parse-budget-mb <n>  --adaptive-threads  --heap-ceiling-percent <p>",
+            "  --include <pattern>  --exclude <pattern>  --gitignore  --help");
 
     public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean outline = false;
+        boolean bulk = false;
+        String cacheDir = null;
+        long cacheMaxMegabytes = 512;
+        boolean watch = false;
+        boolean mappedInput = false;
+        int dfaMaxStates = 0;
+        int dfaHeapPercent = 0;
+        boolean threadLocalDfa = false;
+        String dfaSnapshot = null;
+        boolean fastLexer = false;
+        boolean streaming = false;
+        boolean outlineScanner = false;
+        boolean pipeline = false;
+        int readers = 0;
+        int queueCapacity = 0;
+        int prefetchDistance = 0;
+        long prefetchMegabytes = 64;
+        long parseBudgetMegabytes = 0;
+        boolean adaptiveThreads = false;
+        int heapCeilingPercent = 85;
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        boolean ignoreFiles = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads" -> threads = intValue(args, ++i, 1, MAX_THREADS);
+                    case "--outline" -> outline = true;
+                    case "--bulk" -> bulk = true;
+                    case "--cache-dir" -> cacheDir = value(args, ++i);
+                    case "--cache-max-mb" -> cacheMaxMegabytes = longValue(args, ++i, 0, MAX_MEGABYTES);
+                    case "--watch" -> watch = true;
+                    case "--mmap" -> mappedInput = true;
+                    case "--dfa-max-states" -> dfaMaxStates = intValue(args, ++i, 0, Integer.MAX_VALUE);
+                    case "--dfa-heap-percent" -> dfaHeapPercent = intValue(args, ++i, 0, 100);
+                    case "--dfa-per-thread" -> threadLocalDfa = true;
+                    case "--dfa-snapshot" -> dfaSnapshot = value(args, ++i);
+                    case "--fast-lexer" -> fastLexer = true;
+                    case "--streaming" -> streaming = true;
+                    case "--outline-scanner" -> outlineScanner = true;
+                    case "--pipeline" -> pipeline = true;
+                    case "--readers" -> readers = intValue(args, ++i, 1, Integer.MAX_VALUE);
+                    case "--queue-capacity" -> queueCapacity = intValue(args, ++i, 1, Integer.MAX_VALUE);
+                    case "--prefetch" -> {
+                        prefetchDistance = intValue(args, ++i, 1, Integer.MAX_VALUE);
+                        pipeline = true;
+                    }
+                    case "--prefetch-mb" -> prefetchMegabytes = longValue(args, ++i, 0, MAX_MEGABYTES);
+                    case "--parse-budget-mb" -> parseBudgetMegabytes = longValue(args, ++i, 0, MAX_MEGABYTES);
+                    case "--adaptive-threads" -> {
+                        adaptiveThreads = true;
+                        pipeline = true;
+                    }
+                    case "--heap-ceiling-percent" -> heapCeilingPercent = intValue(args, ++i, 1, 100);
+                    case "--include" -> includes.add(pattern(args, ++i));
+                    case "--exclude" -> excludes.add(pattern(args, ++i));
+                    case "--gitignore" -> ignoreFiles = true;
+                    case "--help" -> {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         System.out.println("Enter the directory path to search for .java files:");
         String directoryPath = scanner.nextLine();
 
-        EcoreModelManager modelManager = new EcoreModelManager();
-        JavaFileParser parser = new JavaFileParser(modelManager);
+        // Loaded before any file is parsed, so every parser starts with a warm prediction cache.
+        boolean snapshotLoaded = dfaSnapshot != null
+                ? DfaSnapshot.load(Paths.get(dfaSnapshot))
+                : DfaSnapshot.loadBundled();
+        int snapshotStates = snapshotLoaded ? DfaSnapshot.stateCount() : 0;
 
-        try (Stream<Path> paths = Files.walk(Paths.get(directoryPath))) {
-            paths.filter(Files::isRegularFile)
-                    .filter(path -> path.toString().endsWith(".java"))
-                    .forEach(path -> {
-                        try {
-                            parser.parseFile(path);
-                        } catch (IOException e) {
-                            LOGGER.log(Level.SEVERE, "Error parsing file: " + path, e);
-                        }
-                    });
+        EcoreModelManager modelManager = new EcoreModelManager(bulk);
+        DfaCacheGuard dfaCacheGuard = dfaMaxStates > 0 || dfaHeapPercent > 0
+                ? new DfaCacheGuard(dfaMaxStates, dfaHeapPercent / 100.0)
+                : null;
+        MemoryBudget memoryBudget = parseBudgetMegabytes > 0
+                ? new MemoryBudget(parseBudgetMegabytes * 1024 * 1024)
+                : null;
+        JavaFileParser parser = JavaFileParser.builder(modelManager)
+                .outline(outline)
+                .mappedInput(mappedInput)
+                .dfaCacheGuard(dfaCacheGuard)
+                .threadLocalDfa(threadLocalDfa)
+                .fastLexer(fastLexer)
+                .streaming(streaming)
+                .outlineScanner(outlineScanner)
+                .memoryBudget(memoryBudget)
+                .build();
+        DeclarationCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = new DeclarationCache(Paths.get(cacheDir), cacheMaxMegabytes * 1024 * 1024);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot use cache directory " + cacheDir + ", parsing every file", e);
+            }
+        }
+        ParallelParseEngine engine = new ParallelParseEngine(parser, threads, cache);
+        ParallelismController controller = adaptiveThreads
+                ? new ParallelismController(threads, heapCeilingPercent / 100.0)
+                : null;
+        if (queueCapacity <= 0) {
+            queueCapacity = 4 * threads;
+        }
+        // Every file read ahead gets a read of its own in flight, unless the readers are set apart.
+        ParsePipeline parsePipeline = pipeline
+                ? new ParsePipeline(parser, readers > 0 ? readers : prefetchDistance > 0 ? prefetchDistance : 4,
+                threads, queueCapacity, cache, controller, prefetchDistance > 0 ? prefetchDistance : queueCapacity,
+                prefetchMegabytes * 1024 * 1024)
+                : null;
 
-            // Process the references after all files have been parsed.
-            modelManager.processReferences();
+        SourceDiscovery discovery = new SourceDiscovery(Paths.get(directoryPath), includes, excludes, ignoreFiles,
+                threads);
+        try {
+            // The pipeline starts parsing with the first files found, the engine once the walk has ended.
+            if (parsePipeline != null) {
+                parsePipeline.parseAll(discovery);
+                parsePipeline.report();
+            } else {
+                engine.parseAll(discovery);
+            }
+            discovery.report();
+            LOGGER.info("Parsed " + parser.getParsedFileCount() + " files, "
+                    + parser.getLlFallbackCount() + " needed full LL prediction");
+            if (outlineScanner) {
+                LOGGER.info("Read " + parser.getScannedFileCount() + " files with the outline scanner");
+            }
+            if (memoryBudget != null) {
+                memoryBudget.report();
+            }
+            if (dfaCacheGuard != null) {
+                dfaCacheGuard.report();
+            }
+            if (dfaSnapshot != null && DfaSnapshot.stateCount() > snapshotStates) {
+                try {
+                    DfaSnapshot.save(Paths.get(dfaSnapshot));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot save DFA snapshot " + dfaSnapshot, e);
+                }
+            }
+            if (cache != null) {
+                LOGGER.info("Cache: " + cache.getFastHitCount() + " unchanged, " + cache.getHashHitCount()
+                        + " found by content, " + cache.getMissCount() + " parsed");
+            }
+
+            // Link supertypes, parameter types and references after all files have been parsed.
+            modelManager.link();
+            List<String> duplicateNames = modelManager.getDuplicateNames();
+            if (!duplicateNames.isEmpty()) {
+                LOGGER.warning(duplicateNames.size() + " duplicate classifiers left out of the model: "
+                        + String.join(", ", duplicateNames));
+            }
 
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error walking through directory: " + directoryPath, e);
+        } finally {
+            // Saves the index and evicts old entries even when parsing failed.
+            if (cache != null) {
+                cache.close();
+            }
         }
 
         System.out.println("Enter the file path to save the Ecore model:");
@@ -46,6 +207,55 @@ public class Main {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error exporting Ecore model", e);
         }
+
+        if (watch) {
+            try (SourceWatcher watcher = new SourceWatcher(discovery, parser, modelManager, ecoreFilePath)) {
+                watcher.run();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error watching directory: " + directoryPath, e);
+            }
+        }
     }
 
+    /**
+     * @return the value of the option before position {@code i}
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static String pattern(String[] args, int i) {
+        String pattern = value(args, i);
+        SourceDiscovery.checkPattern(pattern);
+        return pattern;
+    }
+
+    private static int intValue(String[] args, int i, int min, int max) {
+        return (int) longValue(args, i, min, max);
+    }
+
+    /**
+     * @return the value of the option before position {@code i}, which must be a number from {@code min} to
+     * {@code max}
+     */
+    private static long longValue(String[] args, int i, long min, long max) {
+        long value;
+        try {
+            value = Long.parseLong(value(args, i));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + args[i - 1] + ": " + args[i]);
+        }
+        if (value < min) {
+            throw new IllegalArgumentException("Too small for " + args[i - 1] + ": " + args[i] + ", must be at least "
+                    + min);
+        }
+        if (value > max) {
+            throw new IllegalArgumentException("Too large for " + args[i - 1] + ": " + args[i] + ", must be at most "
+                    + max);
+        }
+        return value;
+    }
 }
@@ -0,0 +1,172 @@
+package aam65.j2ecore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Admits files to parsing against a budget of heap bytes, so the trees built at the same time cannot exhaust the heap.
+ * <p>
+ * A parse tree takes many times the size of its source, and a few large generated files parsed at once are enough to
+ * run out of memory on a machine with many cores. Every file is parsed between {@link #admit(long)} and
+ * {@link #release(Admission)}. Admitting a file reserves its estimated cost, its number of characters times the bytes
+ * a character has cost so far, and waits while the files being parsed leave no room for it in the budget. Files are
+ * admitted in the order they ask, so a large file is never passed over by a stream of small ones. A file whose
+ * estimate exceeds the whole budget waits for every other file to finish and then runs alone.
+ * <p>
+ * The cost of a file is what its thread allocates while parsing it, which counts the garbage made along the way as
+ * well as the tree, so estimates err on the safe side. The bytes a character costs are averaged over the last files
+ * measured, weighted by their size, so the estimate follows the prediction cache as it warms up. Only files of at least
+ * {@value #MIN_SAMPLE_CHARS} characters are measured, as the fixed cost of a small file says little about larger ones.
+ * Until {@value #MIN_SAMPLES} files have been measured, and on JVMs that cannot measure allocation,
+ * {@value #INITIAL_BYTES_PER_CHAR} bytes a character are assumed.
+ * <p>
+ * The memory taken by parsing at any time is therefore about the budget, or the cost of the largest file if it is
+ * larger, whatever the mix of files.
+ */
+public class MemoryBudget {
+    private static final Logger LOGGER = Logger.getLogger(MemoryBudget.class.getName());
+    private static final long INITIAL_BYTES_PER_CHAR = 64;
+    private static final long MIN_SAMPLE_CHARS = 4096;
+    private static final int MIN_SAMPLES = 8;
+    // Each new measurement takes this share off the weight of the ones before it.
+    private static final int DECAY_SHIFT = 4;
+
+    private final long budgetBytes;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean measured;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Files are admitted in the order of their tickets.
+    private long nextTicket;
+    private long admittedTicket;
+    private long reservedBytes;
+    private int running;
+    private int sampleCount;
+    private long sampledChars;
+    private long sampledBytes;
+    private long peakReservedBytes;
+    private int aloneCount;
+    private int waitCount;
+    private long waitNanos;
+
+    /**
+     * @param budgetBytes the heap bytes the files being parsed may take together
+     */
+    public MemoryBudget(long budgetBytes) {
+        if (budgetBytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        this.measured = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Waits until a file fits in the budget, then reserves its estimated cost.
+     *
+     * @param chars the number of characters of the file
+     */
+    public Admission admit(long chars) {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            long ticket = nextTicket++;
+            long cost = estimate(chars);
+            // A file that does not fit in the budget at all takes all of it.
+            long reservation = Math.min(cost, budgetBytes);
+            boolean waited = false;
+            while (ticket != admittedTicket || (running > 0 && reservedBytes + reservation > budgetBytes)) {
+                waited = true;
+                changed.awaitUninterruptibly();
+            }
+            admittedTicket++;
+            reservedBytes += reservation;
+            running++;
+            peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+            if (cost >= budgetBytes) {
+                aloneCount++;
+            }
+            if (waited) {
+                waitCount++;
+                waitNanos += System.nanoTime() - start;
+            }
+            // The next file in line may fit as well.
+            changed.signalAll();
+            return new Admission(reservation, chars, allocatedBytes());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reservation of a file that has been parsed, and learns from what it cost.
+     */
+    public void release(Admission admission) {
+        long allocated = measured ? allocatedBytes() - admission.allocatedBefore : -1;
+        lock.lock();
+        try {
+            reservedBytes -= admission.reservation;
+            running--;
+            if (allocated >= 0 && admission.chars >= MIN_SAMPLE_CHARS) {
+                sampleCount++;
+                sampledChars += admission.chars - (sampledChars >> DECAY_SHIFT);
+                sampledBytes += allocated - (sampledBytes >> DECAY_SHIFT);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the heap bytes a file is expected to take while it is parsed
+     */
+    public long estimate(long chars) {
+        lock.lock();
+        try {
+            return chars * bytesPerChar();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void report() {
+        lock.lock();
+        try {
+            LOGGER.info("Memory budget: " + (budgetBytes >> 20) + " MB, at most " + (peakReservedBytes >> 20)
+                    + " MB reserved at once, about " + bytesPerChar() + " bytes per character" + (measured ? "" :
+                    " (not measured)") + ", " + aloneCount + " files parsed alone, " + waitCount
+                    + " files waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms in total");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long bytesPerChar() {
+        return sampleCount >= MIN_SAMPLES ? Math.max(1, sampledBytes / sampledChars) : INITIAL_BYTES_PER_CHAR;
+    }
+
+    private long allocatedBytes() {
+        return measured ? ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * The reservation of a file being parsed, to hand back to {@link #release(Admission)} on the same thread.
+     */
+    public static final class Admission {
+        private final long reservation;
+        private final long chars;
+        private final long allocatedBefore;
+
+        private Admission(long reservation, long chars, long allocatedBefore) {
+            this.reservation = reservation;
+            this.chars = chars;
+            this.allocatedBefore = allocatedBefore;
+        }
+    }
+}
@@ -0,0 +1,1163 @@
+package aam65.j2ecore;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts the declarations of a file in a single pass over its bytes, without lexing or parsing it with ANTLR.
+ * <p>
+ * The scanner reads the declaration skeleton of a file: its package, imports, class, interface and enum headers,
+ * fields, method signatures, enum constants and member annotations. Method bodies, initializers and annotation values
+ * are skipped by counting brackets, only looking out for string, character and text block literals, comments, and the
+ * keywords that would start a local or anonymous-member type. The result is the same as {@link DeclarationExtractor}
+ * would produce from a parse tree, including its quirks, such as leaving out generic methods and varargs parameters.
+ * <p>
+ * Anything the scanner does not recognize with certainty makes it give up, and {@link #scan(Path, byte[])} returns
+ * null so the file is parsed as usual: type declarations inside skipped code, non-ASCII characters or {@code \}
+ * {@code u} escapes outside literals, text blocks with escapes, module declarations, and any syntax it does not expect.
+ * Skipped code is assumed to be valid Java, only its brackets have to balance.
+ */
+public class OutlineScanner {
+    private static final int EOF = -1;
+    private static final int WORD = -2;
+    private static final int ELLIPSIS = -3;
+
+    private static final Set<String> RESERVED = new HashSet<>();
+    private static final Map<String, String> PRIMITIVES = Map.of("boolean", "EBoolean", "char", "EChar", "byte", "EByte",
+            "short", "EShort", "int", "EInt", "long", "ELong", "float", "EFloat", "double", "EDouble");
+    private static final Set<String> MEMBER_MODIFIERS = Set.of("public", "protected", "private", "static", "abstract",
+            "final", "strictfp", "sealed", "non-sealed", "native", "synchronized", "transient", "volatile");
+    private static final Set<String> TYPE_MODIFIERS = Set.of("public", "protected", "private", "static", "abstract",
+            "final", "strictfp", "sealed", "non-sealed");
+    private static final Set<String> INTERFACE_MEMBER_MODIFIERS = Set.of("public", "protected", "private", "static",
+            "abstract", "final", "strictfp", "sealed", "non-sealed", "native", "synchronized", "transient", "volatile",
+            "default");
+    // For every ASCII character, whether it can start an identifier, only be part of one, or neither.
+    private static final byte IDENTIFIER_START = 1;
+    private static final byte IDENTIFIER_PART = 2;
+    private static final byte[] IDENTIFIER_CHARACTERS = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$') {
+                IDENTIFIER_CHARACTERS[c] = IDENTIFIER_START;
+            } else if (c >= '0' && c <= '9') {
+                IDENTIFIER_CHARACTERS[c] = IDENTIFIER_PART;
+            }
+        }
+
+        // Every keyword of the lexer, less the ones the grammar also accepts as identifiers.
+        for (int type = 1; type <= JavaLexer.VOCABULARY.getMaxTokenType(); type++) {
+            String literal = JavaLexer.VOCABULARY.getLiteralName(type);
+            if (literal != null && literal.matches("'[a-z][a-z-]*'")) {
+                RESERVED.add(literal.substring(1, literal.length() - 1));
+            }
+        }
+        RESERVED.add("true");
+        RESERVED.add("false");
+        RESERVED.removeAll(List.of("module", "open", "requires", "exports", "opens", "to", "uses", "provides", "with",
+                "transitive", "yield", "sealed", "permits", "record", "var"));
+    }
+
+    /**
+     * Thrown wherever the scanner gives up, caught by {@link #scan(Path, byte[])}.
+     */
+    private static final class Unsupported extends RuntimeException {
+        private static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final byte[] buffer;
+    private final int end;
+    private int pos;
+
+    // The current token: a character, WORD, ELLIPSIS or EOF.
+    private int token;
+    private int tokenStart;
+    private String word;
+
+    private String packageName = DeclarationExtractor.DEFAULT_PACKAGE_NAME;
+    private final List<String> imports = new ArrayList<>();
+    private final List<TypeDeclaration> typeDeclarations = new ArrayList<>();
+    // The names of the types being scanned, from the outermost one.
+    private final List<String> enclosingNames = new ArrayList<>();
+
+    private OutlineScanner(byte[] buffer) {
+        this.buffer = buffer;
+        this.end = buffer.length;
+    }
+
+    /**
+     * @param content the UTF-8 bytes of the file
+     * @return the declarations of the file, or null if it has to be parsed instead
+     */
+    public static ParsedFile scan(Path filePath, byte[] content) {
+        OutlineScanner scanner = new OutlineScanner(content);
+        try {
+            scanner.compilationUnit();
+        } catch (Unsupported e) {
+            return null;
+        }
+        return new ParsedFile(filePath, scanner.packageName, List.copyOf(scanner.imports),
+                List.copyOf(scanner.typeDeclarations));
+    }
+
+    private static Unsupported unsupported() {
+        return Unsupported.INSTANCE;
+    }
+
+    // Declarations
+
+    private void compilationUnit() {
+        next();
+        int start = tokenStart;
+        skipAnnotations();
+        if (isWord("package")) {
+            next();
+            packageName = qualifiedName().intern();
+            expect(';');
+        } else {
+            reset(start);
+        }
+        while (isWord("import") || token == ';') {
+            if (token == ';') {
+                next();
+                continue;
+            }
+            next();
+            if (isWord("static")) {
+                next();
+            }
+            StringBuilder name = new StringBuilder(identifier());
+            boolean wildcard = false;
+            while (token == '.') {
+                next();
+                if (token == '*') {
+                    next();
+                    wildcard = true;
+                    break;
+                }
+                name.append('.').append(identifier());
+            }
+            expect(';');
+            imports.add((wildcard ? name + ".*" : name.toString()).intern());
+        }
+        while (token != EOF) {
+            if (token == ';') {
+                next();
+                continue;
+            }
+            modifiers(TYPE_MODIFIERS, null);
+            if (!typeDeclaration()) {
+                throw unsupported();
+            }
+        }
+    }
+
+    /**
+     * Skips the modifiers and annotations of a declaration, adding the annotations to a list when given.
+     */
+    private void modifiers(Set<String> allowed, List<TypeDeclaration.Annotation> annotations) {
+        while (true) {
+            if (token == '@') {
+                int start = tokenStart;
+                next();
+                if (isWord("interface")) {
+                    reset(start);
+                    return;
+                }
+                TypeDeclaration.Annotation annotation = annotation();
+                if (annotations != null) {
+                    annotations.add(annotation);
+                }
+            } else if (token == WORD && allowed.contains(word)) {
+                if (word.equals("static") && peekChar() == '{') {
+                    // A static initializer.
+                    return;
+                }
+                if (word.equals("sealed") || word.equals("non-sealed")) {
+                    // Also valid type names, taken as modifiers only when a type declaration follows.
+                    int start = tokenStart;
+                    next();
+                    modifiers(allowed, null);
+                    boolean declaresType = isWord("class") || isWord("interface");
+                    reset(start);
+                    if (!declaresType) {
+                        throw unsupported();
+                    }
+                }
+                next();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scans a class, interface, enum, annotation type or record declaration if one starts at the current token.
+     *
+     * @return false if no type declaration starts here
+     */
+    private boolean typeDeclaration() {
+        if (isWord("class")) {
+            next();
+            classDeclaration();
+        } else if (isWord("interface")) {
+            next();
+            interfaceDeclaration();
+        } else if (isWord("enum")) {
+            next();
+            enumDeclaration();
+        } else if (token == '@') {
+            // Modifiers stop before an annotation only when it is followed by interface.
+            next();
+            next();
+            identifier();
+            skipBody();
+        } else if (isRecordDeclaration()) {
+            // Records are not extracted, so all of a record is skipped like a body.
+            next();
+            identifier();
+            skipUntilBody();
+            skipBody();
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isRecordDeclaration() {
+        if (!isWord("record")) {
+            return false;
+        }
+        int start = tokenStart;
+        next();
+        boolean record = token == WORD && !RESERVED.contains(word);
+        if (record) {
+            next();
+            record = token == '(' || token == '<';
+        }
+        reset(start);
+        return record;
+    }
+
+    private void classDeclaration() {
+        OpenType type = openType(TypeDeclaration.Kind.CLASS);
+        skipTypeParameters();
+        if (isWord("extends")) {
+            next();
+            type.superTypes.add(typeType());
+        }
+        boolean implementsList = isWord("implements");
+        if (implementsList) {
+            next();
+            typeList(type.superTypes);
+        }
+        if (isWord("permits")) {
+            // The extractor reads every type list of a class once it implements something, permitted subclasses too.
+            next();
+            typeList(implementsList ? type.superTypes : new ArrayList<>());
+        }
+        expect('{');
+        classBody(type);
+        closeType(type);
+    }
+
+    private void interfaceDeclaration() {
+        OpenType type = openType(TypeDeclaration.Kind.INTERFACE);
+        skipTypeParameters();
+        boolean extendsList = isWord("extends");
+        if (extendsList) {
+            next();
+            typeList(type.superTypes);
+        }
+        if (isWord("permits")) {
+            next();
+            typeList(extendsList ? type.superTypes : new ArrayList<>());
+        }
+        expect('{');
+        while (token != '}') {
+            if (token == ';') {
+                next();
+                continue;
+            }
+            modifiers(INTERFACE_MEMBER_MODIFIERS, null);
+            if (typeDeclaration()) {
+                continue;
+            }
+            if (token == '<') {
+                // Generic methods are not extracted.
+                skipMember();
+                continue;
+            }
+            String returnType = typeTypeOrVoid();
+            String name = identifier();
+            if (token == '(') {
+                type.operations.add(methodRest(name, returnType));
+            } else {
+                skipDimensions();
+                if (token != '=') {
+                    throw unsupported();
+                }
+                skipUntil(false);
+                expect(';');
+            }
+        }
+        next();
+        closeType(type);
+    }
+
+    private void enumDeclaration() {
+        OpenType type = openType(TypeDeclaration.Kind.ENUM);
+        if (isWord("implements")) {
+            next();
+            typeList(new ArrayList<>());
+        }
+        expect('{');
+        if (token == ',') {
+            next();
+        } else if (token != ';' && token != '}') {
+            enumConstant(type);
+            while (token == ',') {
+                next();
+                if (token == ';' || token == '}') {
+                    break;
+                }
+                enumConstant(type);
+            }
+        }
+        if (token == ';') {
+            next();
+            // Members of an enum are not extracted, but the types nested in them are.
+            classBody(null);
+        } else {
+            expect('}');
+        }
+        closeType(type);
+    }
+
+    private void enumConstant(OpenType type) {
+        skipAnnotations();
+        type.enumConstants.add(identifier().intern());
+        if (token == '(') {
+            skipParenthesized();
+        }
+        if (token == '{') {
+            skipBody();
+        }
+    }
+
+    /**
+     * Scans the members of a class body up to and including its closing brace.
+     *
+     * @param type the class the members are extracted for, or null if they are only scanned for nested types
+     */
+    private void classBody(OpenType type) {
+        while (token != '}') {
+            if (token == ';') {
+                next();
+                continue;
+            }
+            if (token == '{') {
+                skipBody();
+                continue;
+            }
+            if (isWord("static") && peekChar() == '{') {
+                next();
+                skipBody();
+                continue;
+            }
+            List<TypeDeclaration.Annotation> annotations = type != null ? new ArrayList<>() : null;
+            modifiers(MEMBER_MODIFIERS, annotations);
+            if (type != null) {
+                type.annotations.addAll(annotations);
+            }
+            if (typeDeclaration()) {
+                continue;
+            }
+            if (token == '<') {
+                skipMember();
+                continue;
+            }
+            if (token == WORD && !RESERVED.contains(word) && peekChar() == '(') {
+                // A constructor.
+                skipMember();
+                continue;
+            }
+            int typeStart = tokenStart;
+            String returnType = typeTypeOrVoid();
+            int typeEnd = tokenStart;
+            String name = identifier();
+            if (token == '(') {
+                TypeDeclaration.Operation operation = methodRest(name, returnType);
+                if (type != null) {
+                    type.operations.add(operation);
+                }
+            } else {
+                if (returnType == null) {
+                    throw unsupported();
+                }
+                String fieldName = name + skipDimensions();
+                if (token != '=' && token != ',' && token != ';') {
+                    throw unsupported();
+                }
+                if (type != null) {
+                    type.fields.add(new TypeDeclaration.Field(fieldName.intern(), text(typeStart, typeEnd).intern()));
+                }
+                if (token != ';') {
+                    skipUntil(false);
+                }
+                expect(';');
+            }
+        }
+        next();
+    }
+
+    /**
+     * Scans the parameters, dimensions, throws clause and body of a method whose name has been read.
+     */
+    private TypeDeclaration.Operation methodRest(String name, String returnType) {
+        List<TypeDeclaration.Parameter> parameters = formalParameters();
+        skipDimensions();
+        if (isWord("throws")) {
+            next();
+            qualifiedName();
+            while (token == ',') {
+                next();
+                qualifiedName();
+            }
+        }
+        if (token == '{') {
+            skipBody();
+        } else {
+            expect(';');
+        }
+        return new TypeDeclaration.Operation(name.intern(), List.copyOf(parameters), returnType);
+    }
+
+    private List<TypeDeclaration.Parameter> formalParameters() {
+        expect('(');
+        List<TypeDeclaration.Parameter> parameters = new ArrayList<>();
+        boolean first = true;
+        while (token != ')') {
+            if (!first) {
+                expect(',');
+            }
+            while (isWord("final") || token == '@') {
+                if (token == '@') {
+                    next();
+                    annotation();
+                } else {
+                    next();
+                }
+            }
+            String typeName = typeType();
+            skipAnnotations();
+            if (token == ELLIPSIS) {
+                // The last, variable arity, parameter is not extracted.
+                next();
+                identifier();
+                skipDimensions();
+                if (token != ')') {
+                    throw unsupported();
+                }
+                break;
+            }
+            if (isWord("this") || (token == WORD && peekChar() == '.')) {
+                // A receiver parameter is not extracted either.
+                if (!first) {
+                    throw unsupported();
+                }
+                while (!isWord("this")) {
+                    identifier();
+                    expect('.');
+                }
+                next();
+            } else {
+                String name = identifier() + skipDimensions();
+                parameters.add(new TypeDeclaration.Parameter(name.intern(), typeName));
+            }
+            first = false;
+        }
+        next();
+        return parameters;
+    }
+
+    private OpenType openType(TypeDeclaration.Kind kind) {
+        String name = identifier().intern();
+        enclosingNames.add(name);
+        String qualifiedName = (packageName + "." + String.join(".", enclosingNames)).intern();
+        // Reserves its place, so declarations stay in source order although nested ones are completed first.
+        typeDeclarations.add(null);
+        return new OpenType(kind, name, qualifiedName, typeDeclarations.size() - 1);
+    }
+
+    private void closeType(OpenType type) {
+        enclosingNames.remove(enclosingNames.size() - 1);
+        typeDeclarations.set(type.index, type.complete());
+    }
+
+    // Types
+
+    /**
+     * @return the name of a return type as {@link DeclarationExtractor#getTypeName} gives it, or null for void
+     */
+    private String typeTypeOrVoid() {
+        if (isWord("void")) {
+            next();
+            return null;
+        }
+        return typeType();
+    }
+
+    /**
+     * Reads a type, and returns its name as {@link DeclarationExtractor#getTypeName} gives it: dimensions and
+     * annotations are left out.
+     */
+    private String typeType() {
+        skipAnnotations();
+        String name;
+        if (token == WORD && PRIMITIVES.containsKey(word)) {
+            name = PRIMITIVES.get(word);
+            next();
+        } else {
+            name = classOrInterfaceType();
+        }
+        while (true) {
+            int start = tokenStart;
+            skipAnnotations();
+            if (token != '[') {
+                reset(start);
+                break;
+            }
+            next();
+            expect(']');
+        }
+        return name;
+    }
+
+    private String classOrInterfaceType() {
+        StringBuilder name = new StringBuilder();
+        List<String> typeArguments = new ArrayList<>();
+        while (true) {
+            String part = identifier();
+            name.append(part);
+            if (token == '<') {
+                typeArguments(typeArguments);
+            }
+            if (token != '.') {
+                if (part.equals("var") || part.equals("yield")) {
+                    throw unsupported();
+                }
+                break;
+            }
+            next();
+            name.append('.');
+        }
+        String baseType = name.toString();
+        return (typeArguments.isEmpty() ? baseType : baseType + "<" + String.join(", ", typeArguments) + ">").intern();
+    }
+
+    private void typeArguments(List<String> typeArguments) {
+        expect('<');
+        while (true) {
+            skipAnnotations();
+            if (token == '?') {
+                next();
+                if (isWord("extends")) {
+                    next();
+                    typeArguments.add("? extends " + typeType());
+                } else if (isWord("super")) {
+                    next();
+                    typeArguments.add("? super " + typeType());
+                } else {
+                    typeArguments.add("?");
+                }
+            } else {
+                typeArguments.add(typeType());
+            }
+            if (token != ',') {
+                break;
+            }
+            next();
+        }
+        expect('>');
+    }
+
+    private void typeList(List<String> types) {
+        types.add(typeType());
+        while (token == ',') {
+            next();
+            types.add(typeType());
+        }
+    }
+
+    private void skipTypeParameters() {
+        if (token != '<') {
+            return;
+        }
+        int depth = 0;
+        do {
+            if (token == '<') {
+                depth++;
+            } else if (token == '>') {
+                depth--;
+            } else if (token == '(') {
+                skipParenthesized();
+                continue;
+            } else if (token == EOF || token == '{' || token == ';') {
+                throw unsupported();
+            }
+            next();
+        } while (depth > 0);
+    }
+
+    /**
+     * @return the brackets that follow, as {@code []} pairs
+     */
+    private String skipDimensions() {
+        String dimensions = "";
+        while (token == '[') {
+            next();
+            expect(']');
+            dimensions += "[]";
+        }
+        return dimensions;
+    }
+
+    // Annotations
+
+    private void skipAnnotations() {
+        while (token == '@') {
+            int start = tokenStart;
+            next();
+            if (isWord("interface")) {
+                reset(start);
+                return;
+            }
+            annotation();
+        }
+    }
+
+    /**
+     * Reads an annotation whose {@code @} has been read.
+     */
+    private TypeDeclaration.Annotation annotation() {
+        String name = qualifiedName();
+        Map<String, String> elements = new HashMap<>();
+        if (token == '(') {
+            int start = tokenStart;
+            if (!isIdentifierStart(peekChar()) && peekChar() != ')') {
+                // A single value, which is not extracted.
+                skipParenthesized();
+                return new TypeDeclaration.Annotation(name.intern(), Collections.unmodifiableMap(elements));
+            }
+            next();
+            boolean pairs = false;
+            if (token == WORD && !RESERVED.contains(word)) {
+                next();
+                pairs = token == '=' && peekChar() != '=';
+            }
+            reset(start);
+            next();
+            if (pairs) {
+                while (true) {
+                    String key = identifier();
+                    if (token != '=') {
+                        throw unsupported();
+                    }
+                    int valueStart = pos;
+                    skipUntil(true);
+                    String value = text(valueStart, tokenStart);
+                    if (value.isEmpty()) {
+                        throw unsupported();
+                    }
+                    elements.put(key, value);
+                    if (token != ',') {
+                        break;
+                    }
+                    next();
+                }
+            } else if (token != ')') {
+                reset(start);
+                skipParenthesized();
+                return new TypeDeclaration.Annotation(name.intern(), Collections.unmodifiableMap(elements));
+            }
+            expect(')');
+        }
+        return new TypeDeclaration.Annotation(name.intern(), Collections.unmodifiableMap(elements));
+    }
+
+    private String qualifiedName() {
+        StringBuilder name = new StringBuilder(identifier());
+        while (token == '.' && peekWord()) {
+            next();
+            name.append('.').append(identifier());
+        }
+        return name.toString();
+    }
+
+    private String identifier() {
+        if (token != WORD || RESERVED.contains(word)) {
+            throw unsupported();
+        }
+        String identifier = word;
+        next();
+        return identifier;
+    }
+
+    // Skipped code
+
+    /**
+     * Skips a member that is not extracted, from the current token to the end of its body or its semicolon.
+     */
+    private void skipMember() {
+        skipUntilBody();
+        if (token == '{') {
+            skipBody();
+        } else {
+            expect(';');
+        }
+    }
+
+    /**
+     * Skips to the next opening brace or semicolon outside parentheses, through the header of a generic method or a
+     * constructor.
+     */
+    private void skipUntilBody() {
+        while (token != '{' && token != ';') {
+            if (token == '(') {
+                skipParenthesized();
+            } else if (token == EOF || token == '}' || token == ')'
+                    || isWord("class") || isWord("interface") || isWord("enum")) {
+                throw unsupported();
+            } else {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Skips a block from its opening brace, the current token, to its closing one.
+     */
+    private void skipBody() {
+        if (token != '{') {
+            throw unsupported();
+        }
+        pos = tokenStart + 1;
+        skipCode(false, false);
+        if (pos >= end || buffer[pos] != '}') {
+            throw unsupported();
+        }
+        pos++;
+        next();
+    }
+
+    private void skipParenthesized() {
+        pos = tokenStart + 1;
+        skipCode(false, false);
+        if (pos >= end || buffer[pos] != ')') {
+            throw unsupported();
+        }
+        pos++;
+        next();
+    }
+
+    /**
+     * Skips an expression from the current token, which is not part of it, to the semicolon, comma or closing bracket
+     * that ends it.
+     */
+    private void skipUntil(boolean stopAtComma) {
+        pos = tokenStart + 1;
+        skipCode(true, stopAtComma);
+        next();
+    }
+
+    /**
+     * Skips code up to the first closing bracket that was not opened in it, or when stopping at separators, the first
+     * semicolon or comma outside brackets. Stops before that character.
+     */
+    private void skipCode(boolean stopAtSemicolon, boolean stopAtComma) {
+        int depth = 0;
+        // The last character that is not whitespace or a comment, to tell class literals from declarations.
+        int previous = 0;
+        while (pos < end) {
+            int c = buffer[pos];
+            switch (c) {
+                case '{', '(', '[' -> {
+                    depth++;
+                    pos++;
+                }
+                case '}', ')', ']' -> {
+                    if (depth == 0) {
+                        return;
+                    }
+                    depth--;
+                    pos++;
+                }
+                case ';' -> {
+                    if (depth == 0 && stopAtSemicolon) {
+                        return;
+                    }
+                    pos++;
+                }
+                case ',' -> {
+                    if (depth == 0 && stopAtComma) {
+                        return;
+                    }
+                    pos++;
+                }
+                case '"' -> skipString();
+                case '\'' -> skipCharacter();
+                case '/' -> {
+                    if (!skipComment()) {
+                        pos++;
+                    } else {
+                        continue;
+                    }
+                }
+                case ' ', '\t', '\n', '\r', '\f' -> {
+                    pos++;
+                    continue;
+                }
+                default -> {
+                    if (isIdentifierStart(c)) {
+                        int start = pos;
+                        pos = identifierEnd(pos + 1);
+                        if (previous != '.' && startsType(start, pos - start)) {
+                            throw unsupported();
+                        }
+                    } else if (c < 0 || c == '\\') {
+                        throw unsupported();
+                    } else {
+                        pos++;
+                    }
+                }
+            }
+            previous = c;
+        }
+        throw unsupported();
+    }
+
+    private boolean startsType(int start, int length) {
+        return switch (buffer[start]) {
+            case 'c' -> length == 5 && matches(start, "class");
+            case 'e' -> length == 4 && matches(start, "enum");
+            case 'i' -> length == 9 && matches(start, "interface");
+            default -> false;
+        };
+    }
+
+    private boolean matches(int start, String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buffer[start + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipString() {
+        if (pos + 2 < end && buffer[pos + 1] == '"' && buffer[pos + 2] == '"') {
+            skipTextBlock();
+            return;
+        }
+        pos++;
+        while (pos < end) {
+            int c = buffer[pos];
+            if (c == '"') {
+                pos++;
+                return;
+            } else if (c == '\\') {
+                skipEscape();
+            } else if (c == '\n' || c == '\r') {
+                throw unsupported();
+            } else {
+                pos++;
+            }
+        }
+        throw unsupported();
+    }
+
+    private void skipCharacter() {
+        pos++;
+        if (pos >= end) {
+            throw unsupported();
+        }
+        int c = buffer[pos];
+        if (c == '\\') {
+            skipEscape();
+        } else if (c < 0 || c == '\'' || c == '\n' || c == '\r') {
+            throw unsupported();
+        } else {
+            pos++;
+        }
+        if (pos >= end || buffer[pos] != '\'') {
+            throw unsupported();
+        }
+        pos++;
+    }
+
+    /**
+     * Skips an escape sequence of {@code JavaLexer.g4}.
+     */
+    private void skipEscape() {
+        if (pos + 1 >= end) {
+            throw unsupported();
+        }
+        int c = buffer[pos + 1];
+        if ("btnfr\"'\\".indexOf(c) >= 0) {
+            pos += 2;
+        } else if (c >= '0' && c <= '7') {
+            // Up to three digits, the first of which is at most 3 when there are three.
+            int last = c <= '3' ? pos + 4 : pos + 3;
+            pos += 2;
+            while (pos < last && pos < end && buffer[pos] >= '0' && buffer[pos] <= '7') {
+                pos++;
+            }
+        } else if (c == 'u') {
+            pos += 2;
+            while (pos < end && buffer[pos] == 'u') {
+                pos++;
+            }
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = pos < end ? Character.digit(buffer[pos], 16) : -1;
+                if (digit < 0) {
+                    throw unsupported();
+                }
+                value = value * 16 + digit;
+                pos++;
+            }
+            if (value == '\\') {
+                // The lexer reads an escaped backslash and the character after it as a single escape.
+                throw unsupported();
+            }
+        } else {
+            throw unsupported();
+        }
+    }
+
+    /**
+     * Skips a text block. One that contains a backslash is left to the generated lexer, which ends it at the first
+     * three quotes even after a backslash.
+     */
+    private void skipTextBlock() {
+        pos += 3;
+        while (pos < end && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+            pos++;
+        }
+        if (pos >= end || (buffer[pos] != '\n' && buffer[pos] != '\r')) {
+            throw unsupported();
+        }
+        while (pos + 2 < end) {
+            int c = buffer[pos];
+            if (c == '"' && buffer[pos + 1] == '"' && buffer[pos + 2] == '"') {
+                pos += 3;
+                return;
+            } else if (c == '\\') {
+                throw unsupported();
+            }
+            pos++;
+        }
+        throw unsupported();
+    }
+
+    /**
+     * Skips a comment at the current position, if there is one.
+     */
+    private boolean skipComment() {
+        if (pos + 1 >= end) {
+            return false;
+        }
+        byte[] buffer = this.buffer;
+        if (buffer[pos + 1] == '/') {
+            int i = pos + 2;
+            while (i < end && buffer[i] != '\n' && buffer[i] != '\r') {
+                i++;
+            }
+            pos = i;
+            return true;
+        }
+        if (buffer[pos + 1] == '*') {
+            // Looks for the slash, the rarer character of the two, from the first place the comment can end.
+            for (int i = pos + 3; i < end; i++) {
+                if (buffer[i] == '/' && buffer[i - 1] == '*') {
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            throw unsupported();
+        }
+        return false;
+    }
+
+    /**
+     * @return the text of the tokens between two positions without the whitespace and comments around them, as
+     * {@code getText()} gives it for a part of the parse tree
+     */
+    private String text(int from, int to) {
+        StringBuilder text = new StringBuilder(to - from);
+        int saved = pos;
+        pos = from;
+        while (pos < to) {
+            int c = buffer[pos];
+            int start = pos;
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                pos++;
+                continue;
+            } else if (c == '/' && skipComment()) {
+                continue;
+            } else if (c == '"') {
+                skipString();
+            } else if (c == '\'') {
+                skipCharacter();
+            } else {
+                pos++;
+            }
+            for (int i = start; i < pos; i++) {
+                if (buffer[i] < 0) {
+                    // Non-ASCII text would have to be decoded the way the parsed input is.
+                    throw unsupported();
+                }
+                text.append((char) buffer[i]);
+            }
+        }
+        pos = saved;
+        return text.toString();
+    }
+
+    // Tokens
+
+    private void next() {
+        skipTrivia();
+        tokenStart = pos;
+        if (pos >= end) {
+            token = EOF;
+            return;
+        }
+        int c = buffer[pos];
+        if (isIdentifierStart(c)) {
+            pos = identifierEnd(pos + 1);
+            if (pos < end && (buffer[pos] < 0 || buffer[pos] == '\\')) {
+                throw unsupported();
+            }
+            word = new String(buffer, tokenStart, pos - tokenStart, StandardCharsets.ISO_8859_1);
+            if (word.equals("non") && pos + 7 <= end && matches(pos, "-sealed")
+                    && (pos + 7 == end || !isIdentifierPart(buffer[pos + 7]))) {
+                pos += 7;
+                word = "non-sealed";
+            }
+            token = WORD;
+        } else if (c < 0 || c == '\\' || c == '"' || c == '\'') {
+            throw unsupported();
+        } else if (c == '.' && pos + 2 < end && buffer[pos + 1] == '.' && buffer[pos + 2] == '.') {
+            pos += 3;
+            token = ELLIPSIS;
+        } else {
+            pos++;
+            token = c;
+        }
+    }
+
+    /**
+     * Goes back to a token read before.
+     */
+    private void reset(int start) {
+        pos = start;
+        next();
+    }
+
+    private void skipTrivia() {
+        while (pos < end) {
+            int c = buffer[pos];
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                pos++;
+            } else if (c != '/' || !skipComment()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the first character of the token after the current one
+     */
+    private int peekChar() {
+        int saved = pos;
+        skipTrivia();
+        int c = pos < end ? buffer[pos] : EOF;
+        pos = saved;
+        return c;
+    }
+
+    /**
+     * @return whether the token after the current one is a word
+     */
+    private boolean peekWord() {
+        int c = peekChar();
+        return c != EOF && isIdentifierStart(c);
+    }
+
+    private boolean isWord(String keyword) {
+        return token == WORD && word.equals(keyword);
+    }
+
+    private void expect(int expected) {
+        if (token != expected) {
+            throw unsupported();
+        }
+        next();
+    }
+
+    private int identifierEnd(int from) {
+        while (from < end && isIdentifierPart(buffer[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        return c >= 0 && c < 128 && IDENTIFIER_CHARACTERS[c] == IDENTIFIER_START;
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return c >= 0 && c < 128 && IDENTIFIER_CHARACTERS[c] != 0;
+    }
+
+    /**
+     * A type declaration being scanned and what has been extracted from it so far.
+     */
+    private static final class OpenType {
+        final TypeDeclaration.Kind kind;
+        final String name;
+        final String qualifiedName;
+        final int index;
+        final List<String> superTypes = new ArrayList<>();
+        final List<TypeDeclaration.Annotation> annotations = new ArrayList<>();
+        final List<TypeDeclaration.Field> fields = new ArrayList<>();
+        final List<TypeDeclaration.Operation> operations = new ArrayList<>();
+        final List<String> enumConstants = new ArrayList<>();
+
+        OpenType(TypeDeclaration.Kind kind, String name, String qualifiedName, int index) {
+            this.kind = kind;
+            this.name = name;
+            this.qualifiedName = qualifiedName;
+            this.index = index;
+        }
+
+        TypeDeclaration complete() {
+            return new TypeDeclaration(kind, name, qualifiedName, List.copyOf(superTypes), List.copyOf(annotations),
+                    List.copyOf(fields), List.copyOf(operations), List.copyOf(enumConstants));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reduces a file's tokens to its declaration outline before they reach {@link JavaParser}.
+ * <p>
+ * Method, constructor and initializer bodies are replaced by an empty {@code {}} and field initializers are dropped
+ * up to the closing {@code ;} (interface constants keep a literal {@code 0}, which their grammar rule requires), so the
+ * parser never predicts statements or expressions. Dropping the initializer also drops any further declarators of a
+ * field, which is fine because {@link JavaFileParser} only reads the first one. A body or initializer that declares a
+ * local or anonymous-member type is kept as is, so the extracted model stays the same as with a full parse. When the
+ * braces do not balance the original tokens are returned and the parser reports the errors as usual.
+ */
+public class OutlineTokenFilter {
+
+    private OutlineTokenFilter() {
+    }
+
+    public static TokenSource filter(TokenSource lexer) {
+        List<Token> tokens = new ArrayList<>();
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                tokens.add(token);
+            }
+        }
+        return new ListTokenSource(outline(tokens), lexer.getSourceName());
+    }
+
+    static List<Token> outline(List<Token> tokens) {
+        List<Token> out = new ArrayList<>(tokens.size());
+        Deque<TypeBody> bodies = new ArrayDeque<>();
+        bodies.push(new TypeBody(false, false));
+        int parenDepth = 0;
+        int pendingType = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            int type = token.getType();
+
+            if (parenDepth > 0) {
+                if (type == JavaLexer.LPAREN) {
+                    parenDepth++;
+                } else if (type == JavaLexer.RPAREN) {
+                    parenDepth--;
+                }
+                out.add(token);
+                continue;
+            }
+
+            switch (type) {
+                case JavaLexer.LPAREN -> {
+                    parenDepth++;
+                    out.add(token);
+                }
+                case JavaLexer.CLASS, JavaLexer.INTERFACE, JavaLexer.ENUM -> {
+                    pendingType = type;
+                    out.add(token);
+                }
+                case JavaLexer.RECORD -> {
+                    if (isRecordHeader(tokens, i)) {
+                        pendingType = type;
+                    }
+                    out.add(token);
+                }
+                case JavaLexer.ASSIGN -> {
+                    int end = findEnd(tokens, i, JavaLexer.SEMI);
+                    if (end < 0) {
+                        return tokens;
+                    }
+                    if (declaresType(tokens, i + 1, end)) {
+                        out.addAll(tokens.subList(i, end));
+                    } else if (bodies.peek().isInterface) {
+                        out.add(token);
+                        out.add(placeholderLiteral(token));
+                    }
+                    i = end - 1;
+                }
+                case JavaLexer.SEMI -> {
+                    pendingType = 0;
+                    bodies.peek().inEnumConstants = false;
+                    out.add(token);
+                }
+                case JavaLexer.LBRACE -> {
+                    if (pendingType != 0 || bodies.peek().inEnumConstants) {
+                        bodies.push(new TypeBody(pendingType == JavaLexer.INTERFACE, pendingType == JavaLexer.ENUM));
+                        pendingType = 0;
+                        out.add(token);
+                        continue;
+                    }
+                    int end = findEnd(tokens, i, JavaLexer.RBRACE);
+                    if (end < 0) {
+                        return tokens;
+                    }
+                    boolean annotationDefault = i > 0 && tokens.get(i - 1).getType() == JavaLexer.DEFAULT;
+                    if (annotationDefault || declaresType(tokens, i + 1, end)) {
+                        out.addAll(tokens.subList(i, end + 1));
+                    } else {
+                        out.add(token);
+                        out.add(tokens.get(end));
+                    }
+                    i = end;
+                }
+                case JavaLexer.RBRACE -> {
+                    if (bodies.size() == 1) {
+                        return tokens;
+                    }
+                    bodies.pop();
+                    pendingType = 0;
+                    out.add(token);
+                }
+                default -> out.add(token);
+            }
+        }
+        return bodies.size() == 1 ? out : tokens;
+    }
+
+    private static Token placeholderLiteral(Token assign) {
+        CommonToken literal = new CommonToken(JavaLexer.DECIMAL_LITERAL, "0");
+        literal.setLine(assign.getLine());
+        literal.setCharPositionInLine(assign.getCharPositionInLine() + 1);
+        return literal;
+    }
+
+    /**
+     * Returns the index of the token of the given type that closes the run starting at {@code start}, skipping over
+     * balanced parentheses, brackets and braces, or -1 if the file ends or the nesting breaks first.
+     */
+    private static int findEnd(List<Token> tokens, int start, int closingType) {
+        int depth = 0;
+        for (int i = start; i < tokens.size(); i++) {
+            int type = tokens.get(i).getType();
+            switch (type) {
+                case JavaLexer.LPAREN, JavaLexer.LBRACK, JavaLexer.LBRACE -> depth++;
+                case JavaLexer.RPAREN, JavaLexer.RBRACK, JavaLexer.RBRACE -> {
+                    depth--;
+                    if (depth < 0) {
+                        return -1;
+                    }
+                }
+                case Token.EOF -> {
+                    return -1;
+                }
+                default -> {
+                }
+            }
+            if (type == closingType && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean declaresType(List<Token> tokens, int from, int to) {
+        for (int i = from; i < to; i++) {
+            switch (tokens.get(i).getType()) {
+                case JavaLexer.INTERFACE, JavaLexer.ENUM -> {
+                    return true;
+                }
+                case JavaLexer.CLASS -> {
+                    // Skip class literals such as Foo.class
+                    if (i == 0 || tokens.get(i - 1).getType() != JavaLexer.DOT) {
+                        return true;
+                    }
+                }
+                case JavaLexer.RECORD -> {
+                    if (isRecordHeader(tokens, i)) {
+                        return true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class TypeBody {
+        private final boolean isInterface;
+        // True while an enum body is still listing its constants, whose own bodies are type bodies too.
+        private boolean inEnumConstants;
+
+        private TypeBody(boolean isInterface, boolean inEnumConstants) {
+            this.isInterface = isInterface;
+            this.inEnumConstants = inEnumConstants;
+        }
+    }
+
+    private static boolean isRecordHeader(List<Token> tokens, int index) {
+        return index + 2 < tokens.size()
+                && tokens.get(index + 1).getType() == JavaLexer.IDENTIFIER
+                && (tokens.get(index + 2).getType() == JavaLexer.LPAREN || tokens.get(index + 2).getType() == JavaLexer.LT);
+    }
+}
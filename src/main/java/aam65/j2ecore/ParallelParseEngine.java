@@ -0,0 +1,138 @@
+package aam65.j2ecore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses files on a work-stealing pool and feeds the results to the model in path order.
+ * <p>
+ * Lexing and parsing run concurrently over a sliding window of files in path order, so only a few parsed files per
+ * thread wait to be processed at any time, however many files there are. The largest files are started first, one
+ * per thread, so a single huge file does not hold up the end of the run. Processing into the model stays on the
+ * calling thread and always follows the sorted path order, which keeps the generated model identical whatever the
+ * number of threads.
+ * <p>
+ * Files can also come from a {@link SourceDiscovery}. Their path order is only known once the walk has ended, so the
+ * walk is finished before parsing starts, rather than keeping every file parsed in the meantime. Use a
+ * {@link ParsePipeline} to parse files while they are found.
+ */
+public class ParallelParseEngine {
+    private static final Logger LOGGER = Logger.getLogger(ParallelParseEngine.class.getName());
+    // Files parsed or being parsed ahead of the one processed next, for each thread.
+    private static final int FILES_IN_FLIGHT_PER_THREAD = 4;
+
+    private final JavaFileParser fileParser;
+    private final int parallelism;
+    private final DeclarationCache cache;
+
+    public ParallelParseEngine(JavaFileParser fileParser, int parallelism) {
+        this(fileParser, parallelism, null);
+    }
+
+    /**
+     * @param cache cache of extracted declarations to consult before parsing, or null to parse every file
+     */
+    public ParallelParseEngine(JavaFileParser fileParser, int parallelism, DeclarationCache cache) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.fileParser = fileParser;
+        this.parallelism = parallelism;
+        this.cache = cache;
+    }
+
+    public void parseAll(List<Path> files) {
+        Path[] ordered = files.toArray(new Path[0]);
+        Arrays.sort(ordered);
+
+        long[] sizes = new long[ordered.length];
+        Integer[] bySize = new Integer[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            sizes[i] = sizeOf(ordered[i]);
+            bySize[i] = i;
+        }
+        Arrays.sort(bySize, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<ParsedFile>> tasks = new ArrayList<>(ordered.length);
+            for (int i = 0; i < ordered.length; i++) {
+                tasks.add(null);
+            }
+            for (int i = 0; i < Math.min(parallelism, ordered.length); i++) {
+                int index = bySize[i];
+                tasks.set(index, submit(pool, ordered[index]));
+            }
+
+            int window = parallelism * FILES_IN_FLIGHT_PER_THREAD;
+            int next = 0;
+            for (int i = 0; i < ordered.length; i++) {
+                for (; next < ordered.length && next < i + window; next++) {
+                    if (tasks.get(next) == null) {
+                        tasks.set(next, submit(pool, ordered[next]));
+                    }
+                }
+                ParsedFile parsedFile = join(ordered[i], tasks.get(i));
+                // Drop the reference so the parse tree can be collected once it is in the model.
+                tasks.set(i, null);
+                if (parsedFile != null) {
+                    fileParser.process(parsedFile);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses the files of a walk. The walk is finished first, as it takes little time next to parsing, and the files
+     * then go through the same window as {@link #parseAll(List)}, largest first, so memory stays bounded however large
+     * the tree.
+     *
+     * @throws IOException if the walk could not start
+     */
+    public void parseAll(SourceDiscovery discovery) throws IOException {
+        parseAll(discovery.discover());
+    }
+
+    private ForkJoinTask<ParsedFile> submit(ForkJoinPool pool, Path path) {
+        return pool.submit(() -> parse(path));
+    }
+
+    private ParsedFile parse(Path path) {
+        try {
+            return cache != null ? cache.parse(path, fileParser) : fileParser.parse(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ParsedFile join(Path path, ForkJoinTask<ParsedFile> task) {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            LOGGER.log(Level.SEVERE, "Error parsing file: " + path, e.getCause());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error parsing file: " + path, e);
+        }
+        return null;
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package aam65.j2ecore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the number of threads parsing at once while a {@link ParsePipeline} runs, toward the highest throughput the
+ * heap allows.
+ * <p>
+ * The pipeline starts its largest number of parser threads, and every thread waits in {@link #awaitTurn(int)} while
+ * its number is not below the current parallelism. Parallelism starts at half the threads, so there is room to climb
+ * both ways from the first measurement. After each interval of at least {@value #INTERVAL_MILLIS} ms, the
+ * controller compares the bytes parsed per second with the previous interval and climbs toward the better side: it
+ * takes another step the same way when throughput rose, turns back when it fell, and stays when it changed by less
+ * than {@value #NOISE_PERCENT}%. Three conditions take precedence over throughput:
+ * <ul>
+ * <li>the heap left in use by the last garbage collection is above the ceiling, or collections took more than
+ * {@value #GC_LIMIT_PERCENT}% of the interval: parallelism is halved, as every parser holds a tree;</li>
+ * <li>the parsers waited for files more than half the time: one fewer, since reading is the bottleneck;</li>
+ * <li>the parsers waited for room in the model's queue more than half the time: one fewer, since building the model
+ * is the bottleneck.</li>
+ * </ul>
+ * Each change and its reason are logged at the fine level, and {@link #report()} tells the setting the run ended on,
+ * the average over the run, what decided the last interval and the last few changes.
+ */
+public class ParallelismController {
+    private static final Logger LOGGER = Logger.getLogger(ParallelismController.class.getName());
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final int NOISE_PERCENT = 5;
+    private static final int GC_LIMIT_PERCENT = 25;
+    private static final int REPORTED_CHANGES = 5;
+
+    private final int maxParallelism;
+    private final double heapCeiling;
+    private final LongSupplier clock;
+    private final LongSupplier gcMillis;
+    private final DoubleSupplier heapShare;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile int parallelism;
+    private int direction = 1;
+    // What the previous interval did, or a negative throughput before the first one.
+    private double lastThroughput = -1;
+    private long intervalStart;
+    private long bytesAtStart;
+    private long starvedAtStart;
+    private long blockedAtStart;
+    private long gcMillisAtStart;
+    private long weightedNanos;
+    private long totalNanos;
+    private int changeCount;
+    // What decided the last interval, whether the parallelism changed or not.
+    private String lastReason = "no interval was long enough to measure";
+    private final Deque<String> recentChanges = new ArrayDeque<>();
+
+    /**
+     * @param maxParallelism the number of parser threads, the most that may parse at once
+     * @param heapCeiling    the share of the maximum heap, between 0 and 1, that may stay in use after a garbage
+     *                       collection before parallelism is cut
+     */
+    public ParallelismController(int maxParallelism, double heapCeiling) {
+        this(maxParallelism, heapCeiling, System::nanoTime, ParallelismController::gcMillis,
+                DfaCacheGuard::heapShareAfterLastCollection);
+    }
+
+    /**
+     * @param clock     the time in nanoseconds
+     * @param gcMillis  the time spent in garbage collection so far, in milliseconds
+     * @param heapShare the share of the maximum heap left in use by the last garbage collection
+     */
+    ParallelismController(int maxParallelism, double heapCeiling, LongSupplier clock, LongSupplier gcMillis,
+                          DoubleSupplier heapShare) {
+        if (maxParallelism < 1 || heapCeiling <= 0 || heapCeiling > 1) {
+            throw new IllegalArgumentException("Invalid parallelism limits: " + maxParallelism + " threads, "
+                    + heapCeiling + " of the heap");
+        }
+        this.maxParallelism = maxParallelism;
+        this.heapCeiling = heapCeiling;
+        this.clock = clock;
+        this.gcMillis = gcMillis;
+        this.heapShare = heapShare;
+        this.parallelism = Math.max(1, maxParallelism / 2);
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Called by a parser thread before it takes a file, waits while it is beyond the current parallelism.
+     *
+     * @param worker the number of the thread, from 0
+     */
+    public void awaitTurn(int worker) throws InterruptedException {
+        if (worker < parallelism) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (worker >= parallelism) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called regularly from a single thread with the running totals of the parsers, changes the parallelism once an
+     * interval has passed. Only called while there are files left to read, as parsers draining the last files
+     * would always seem starved.
+     *
+     * @param bytes        the bytes parsed so far
+     * @param starvedNanos the time the parsers have waited for files so far
+     * @param blockedNanos the time the parsers have waited for room in the next queue so far
+     */
+    public void update(long bytes, long starvedNanos, long blockedNanos) {
+        long now = clock.getAsLong();
+        if (intervalStart == 0) {
+            startInterval(now, bytes, starvedNanos, blockedNanos);
+            return;
+        }
+        long elapsed = now - intervalStart;
+        // An interval only ends once something was parsed in it, so that a single large file is measured whole.
+        if (elapsed < TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS) || bytes == bytesAtStart) {
+            return;
+        }
+
+        int current = parallelism;
+        weightedNanos += current * elapsed;
+        totalNanos += elapsed;
+        double seconds = elapsed / 1e9;
+        double throughput = (bytes - bytesAtStart) / seconds / 1e6;
+        // A wait is counted when it ends, so it can reach back into the interval before.
+        double starvedShare = Math.min(1, (starvedNanos - starvedAtStart) / (double) (elapsed * current));
+        double blockedShare = Math.min(1, (blockedNanos - blockedAtStart) / (double) (elapsed * current));
+        double gcShare = (gcMillis.getAsLong() - gcMillisAtStart) / (seconds * 1000);
+        double heapShare = this.heapShare.getAsDouble();
+
+        int next;
+        String reason;
+        if (heapShare > heapCeiling || gcShare * 100 > GC_LIMIT_PERCENT) {
+            next = Math.max(1, current / 2);
+            direction = -1;
+            reason = heapShare > heapCeiling
+                    ? String.format("the heap was %.0f%% full after collection, above the %.0f%% ceiling",
+                    heapShare * 100, heapCeiling * 100)
+                    : String.format("garbage collection took %.0f%% of the time", gcShare * 100);
+        } else if (starvedShare > 0.5) {
+            next = Math.max(1, current - 1);
+            direction = -1;
+            reason = String.format("parsers waited for files %.0f%% of the time, reading is the bottleneck",
+                    starvedShare * 100);
+        } else if (blockedShare > 0.5) {
+            next = Math.max(1, current - 1);
+            direction = -1;
+            reason = String.format("parsers waited for the model %.0f%% of the time, building it is the bottleneck",
+                    blockedShare * 100);
+        } else if (lastThroughput < 0) {
+            next = current + direction;
+            reason = String.format("first measurement, %.1f MB/s", throughput);
+        } else if (throughput * 100 < lastThroughput * (100 - NOISE_PERCENT)) {
+            direction = -direction;
+            next = current + direction;
+            reason = String.format("throughput fell from %.1f to %.1f MB/s", lastThroughput, throughput);
+        } else if (throughput * 100 > lastThroughput * (100 + NOISE_PERCENT)) {
+            next = current + direction;
+            reason = String.format("throughput rose from %.1f to %.1f MB/s", lastThroughput, throughput);
+        } else {
+            next = current;
+            reason = String.format("throughput held at %.1f MB/s", throughput);
+        }
+        if (next < 1 || next > maxParallelism) {
+            // At a bound, the next step goes the other way.
+            direction = -direction;
+            next = Math.max(1, Math.min(maxParallelism, next));
+        }
+
+        if (next != current) {
+            String change = current + " to " + next + " threads: " + reason;
+            LOGGER.fine("Parallelism from " + change);
+            changeCount++;
+            recentChanges.addLast(change);
+            if (recentChanges.size() > REPORTED_CHANGES) {
+                recentChanges.removeFirst();
+            }
+            setParallelism(next);
+        }
+        lastReason = reason;
+        lastThroughput = throughput;
+        startInterval(now, bytes, starvedNanos, blockedNanos);
+    }
+
+    public void report() {
+        double average = totalNanos > 0 ? (double) weightedNanos / totalNanos : parallelism;
+        LOGGER.info(String.format("Parallelism: ended on %d of at most %d parser threads, %.1f on average, after %d"
+                + " changes; in the last interval %s", parallelism, maxParallelism, average, changeCount, lastReason));
+        if (!recentChanges.isEmpty()) {
+            LOGGER.info("Recent parallelism changes: " + String.join("; ", recentChanges));
+        }
+    }
+
+    private void setParallelism(int next) {
+        lock.lock();
+        try {
+            parallelism = next;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startInterval(long now, long bytes, long starvedNanos, long blockedNanos) {
+        intervalStart = now;
+        bytesAtStart = bytes;
+        starvedAtStart = starvedNanos;
+        blockedAtStart = blockedNanos;
+        gcMillisAtStart = gcMillis.getAsLong();
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,635 @@
+package aam65.j2ecore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses files in three stages connected by bounded queues, and feeds the results to the model in path order.
+ * <p>
+ * Reader threads read each file, or look it up in the cache, parser threads lex and parse what was read, and the
+ * calling thread adds the declarations to the model. Disk reads, parsing and model building overlap: the readers wait
+ * on the disk while the parsers keep the processors busy, which hides the latency of network-mounted source trees.
+ * <p>
+ * The stages are back-pressured. No more than a fixed number of files are between the start of their read and the end
+ * of their build at any time, so the readers stop reading ahead as soon as the parsers or the model fall behind, and
+ * the contents and parse trees held stay bounded however many files there are. The model is still built in path
+ * order, which keeps it identical whatever the number of threads; given a list of files, the files parsed before
+ * their turn wait for it within that bound.
+ * <p>
+ * The readers prefetch: they read up to a given number of files ahead of the parsers, each reader with a read of its
+ * own outstanding, so on a slow file system many reads wait on the disk or the network at the same time and the
+ * parsers find their next file already in memory. The bytes read ahead can be bounded as well, which keeps a run of
+ * large files from filling the heap; a reader holding a file that does not fit waits until the parsers have taken
+ * enough, and a file larger than the whole bound is passed on once nothing else is held.
+ * <p>
+ * The files can also come from a {@link SourceDiscovery} while it walks the tree, so parsing starts with the first
+ * files found rather than after the last. Their path order is only known once the walk has ended, so the model is
+ * built then, from the declarations kept until that point: unlike contents and trees, the declarations of every file
+ * are held at once, which grows with the tree.
+ * <p>
+ * Each stage counts its files, bytes and time, and the files queued in front of it. They are logged every few seconds
+ * while the run goes on and by {@link #report()}. The time the parsers were starved is the time they waited on reads.
+ */
+public class ParsePipeline {
+    private static final Logger LOGGER = Logger.getLogger(ParsePipeline.class.getName());
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final JavaFileParser fileParser;
+    private final int readers;
+    private final int parsers;
+    private final int queueCapacity;
+    private final int prefetchDistance;
+    private final DeclarationCache cache;
+    private final ParallelismController controller;
+    private final Stage readStage;
+    private final Stage parseStage;
+    private final Stage buildStage;
+    private final PrefetchBuffer prefetchBuffer;
+    private ContentReader contentReader = Files::readAllBytes;
+    private long runNanos;
+
+    /**
+     * Reads the content of a file, the way the reader threads do when there is no cache.
+     */
+    interface ContentReader {
+        byte[] read(Path path) throws IOException;
+    }
+
+    public ParsePipeline(JavaFileParser fileParser, int readers, int parsers, int queueCapacity) {
+        this(fileParser, readers, parsers, queueCapacity, null);
+    }
+
+    /**
+     * @param readers       the number of threads that read files
+     * @param parsers       the number of threads that lex and parse them
+     * @param queueCapacity the number of files each queue between two stages holds at most
+     * @param cache         cache of extracted declarations to consult before parsing, or null to parse every file
+     */
+    public ParsePipeline(JavaFileParser fileParser, int readers, int parsers, int queueCapacity,
+                         DeclarationCache cache) {
+        this(fileParser, readers, parsers, queueCapacity, cache, null);
+    }
+
+    /**
+     * @param controller the controller that decides how many of the parser threads parse at once, or null for all of
+     *                   them. Its largest parallelism must be the number of parser threads.
+     */
+    public ParsePipeline(JavaFileParser fileParser, int readers, int parsers, int queueCapacity,
+                         DeclarationCache cache, ParallelismController controller) {
+        this(fileParser, readers, parsers, queueCapacity, cache, controller, queueCapacity, 0);
+    }
+
+    /**
+     * @param prefetchDistance the number of files read ahead of the parsers at most
+     * @param prefetchBytes    the number of bytes read ahead of the parsers at most, or 0 for no bound
+     */
+    public ParsePipeline(JavaFileParser fileParser, int readers, int parsers, int queueCapacity,
+                         DeclarationCache cache, ParallelismController controller, int prefetchDistance,
+                         long prefetchBytes) {
+        if (readers < 1 || parsers < 1) {
+            throw new IllegalArgumentException("Readers and parsers must be at least 1: " + readers + ", " + parsers);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+        }
+        if (prefetchDistance < 1 || prefetchBytes < 0) {
+            throw new IllegalArgumentException("Invalid prefetch limits: " + prefetchDistance + " files, "
+                    + prefetchBytes + " bytes");
+        }
+        if (controller != null && controller.getMaxParallelism() != parsers) {
+            throw new IllegalArgumentException("The controller is for " + controller.getMaxParallelism()
+                    + " parser threads, not " + parsers);
+        }
+        this.fileParser = fileParser;
+        this.readers = readers;
+        this.parsers = parsers;
+        this.queueCapacity = queueCapacity;
+        this.prefetchDistance = prefetchDistance;
+        this.cache = cache;
+        this.controller = controller;
+        this.readStage = new Stage("read", readers);
+        this.parseStage = new Stage("parse", parsers);
+        this.buildStage = new Stage("build", 1);
+        this.prefetchBuffer = new PrefetchBuffer(prefetchBytes);
+    }
+
+    /**
+     * Replaces how the readers read files that are not looked up in a cache, to stand in for a slow file system.
+     */
+    ParsePipeline readingWith(ContentReader contentReader) {
+        this.contentReader = contentReader;
+        return this;
+    }
+
+    public void parseAll(List<Path> files) {
+        Path[] ordered = files.toArray(new Path[0]);
+        Arrays.sort(ordered);
+        run(new ListSource(ordered));
+    }
+
+    /**
+     * Parses the files of a walk while it goes on, so the first files are parsed before the last ones are found. The
+     * model is built once the walk has ended, still in path order, from the declarations kept until then.
+     *
+     * @throws IOException if the walk could not start
+     */
+    public void parseAll(SourceDiscovery discovery) throws IOException {
+        DiscoverySource source = new DiscoverySource();
+        Thread walker = new Thread(() -> {
+            try {
+                discovery.discover(source::add);
+            } catch (IOException | RuntimeException | Error e) {
+                source.failure = e;
+            } finally {
+                source.finish();
+            }
+        }, "j2ecore-discovery");
+        walker.setDaemon(true);
+        walker.start();
+        try {
+            run(source);
+            walker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (source.failure instanceof IOException) {
+            throw (IOException) source.failure;
+        } else if (source.failure instanceof RuntimeException) {
+            throw (RuntimeException) source.failure;
+        } else if (source.failure instanceof Error) {
+            throw (Error) source.failure;
+        }
+    }
+
+    private void run(Source source) {
+        long start = System.nanoTime();
+        // One permit for every file that can be in the pipeline: being read, read ahead for a parser, being parsed, or
+        // queued for the model.
+        Semaphore window = new Semaphore(readers + parsers + prefetchDistance + queueCapacity);
+        BlockingQueue<Item> readQueue = new ArrayBlockingQueue<>(prefetchDistance);
+        BlockingQueue<Item> parsedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService readPool = Executors.newFixedThreadPool(readers, daemonThreads("j2ecore-reader-"));
+        ExecutorService parsePool = Executors.newFixedThreadPool(parsers, daemonThreads("j2ecore-parser-"));
+        try {
+            for (int i = 0; i < readers; i++) {
+                readPool.execute(() -> read(source, window, readQueue, parsedQueue));
+            }
+            for (int i = 0; i < parsers; i++) {
+                int worker = i;
+                parsePool.execute(() -> parse(worker, readQueue, parsedQueue));
+            }
+            if (source instanceof ListSource) {
+                build((ListSource) source, window, readQueue, parsedQueue);
+            } else {
+                buildDiscovered((DiscoverySource) source, window, readQueue, parsedQueue);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readPool.shutdownNow();
+            parsePool.shutdownNow();
+            runNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Logs what each stage has done over every call to {@link #parseAll(List)}. The stage with the highest busy
+     * share is the bottleneck; a stage blocked for long is held back by the next one, and a starved one by the
+     * previous one.
+     */
+    public void report() {
+        for (Stage stage : List.of(readStage, parseStage, buildStage)) {
+            LOGGER.info(stage.describe(runNanos));
+        }
+        LOGGER.info(prefetchBuffer.describe(prefetchDistance));
+        if (controller != null) {
+            controller.report();
+        }
+    }
+
+    /**
+     * Reads the files of the source in turn, as long as the window has room for them.
+     */
+    private void read(Source source, Semaphore window, BlockingQueue<Item> readQueue,
+                      BlockingQueue<Item> parsedQueue) {
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                window.acquire();
+                readStage.blocked(start);
+                Item item = source.next();
+                if (item == null) {
+                    window.release();
+                    return;
+                }
+
+                start = System.nanoTime();
+                try {
+                    if (cache != null) {
+                        item.lookup = cache.lookup(item.path);
+                        item.parsedFile = item.lookup.getCached();
+                        item.content = item.lookup.getContent();
+                    } else {
+                        item.content = contentReader.read(item.path);
+                    }
+                } catch (IOException e) {
+                    item.failure = new UncheckedIOException(e);
+                } catch (RuntimeException | Error e) {
+                    item.failure = e;
+                }
+                readStage.done(start, item.content != null ? item.content.length : 0);
+
+                // Files found in the cache or that could not be read have nothing left to parse.
+                start = System.nanoTime();
+                if (item.failure == null && item.parsedFile == null) {
+                    prefetchBuffer.reserve(item.content.length);
+                    readQueue.put(item);
+                } else {
+                    parsedQueue.put(item);
+                }
+                readStage.blocked(start);
+            }
+        } catch (InterruptedException e) {
+            // The run is over.
+        }
+    }
+
+    private void parse(int worker, BlockingQueue<Item> readQueue, BlockingQueue<Item> parsedQueue) {
+        try {
+            while (true) {
+                if (controller != null) {
+                    controller.awaitTurn(worker);
+                }
+                long start = System.nanoTime();
+                parseStage.queued(readQueue.size());
+                Item item = readQueue.take();
+                parseStage.starved(start);
+
+                start = System.nanoTime();
+                try {
+                    item.parsedFile = cache != null
+                            ? cache.parse(item.lookup, fileParser)
+                            : fileParser.parse(item.path, item.content);
+                } catch (RuntimeException | Error e) {
+                    item.failure = e;
+                }
+                int size = item.content.length;
+                // Drop the content, only the declarations are left to wait for the model.
+                item.content = null;
+                item.lookup = null;
+                prefetchBuffer.release(size);
+                parseStage.done(start, size);
+
+                start = System.nanoTime();
+                parsedQueue.put(item);
+                parseStage.blocked(start);
+            }
+        } catch (InterruptedException e) {
+            // The run is over.
+        }
+    }
+
+    /**
+     * Adds the declarations of every file to the model, in path order, on the calling thread.
+     */
+    private void build(ListSource source, Semaphore window, BlockingQueue<Item> readQueue,
+                       BlockingQueue<Item> parsedQueue) throws InterruptedException {
+        int count = source.files.length;
+        // Files parsed before their turn, by index.
+        Map<Integer, Item> early = new HashMap<>();
+        long nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+        for (int next = 0; next < count; next++) {
+            Item item = early.remove(next);
+            while (item == null) {
+                Item parsed = receive(source, parsedQueue, early.size());
+                if (parsed == null) {
+                    // Nothing for a while, still worth telling where the files are.
+                } else if (parsed.index == next) {
+                    item = parsed;
+                } else {
+                    early.put(parsed.index, parsed);
+                }
+                if (System.nanoTime() - nextProgress >= 0) {
+                    nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+                    logProgress(next + " of " + count + " files built", readQueue, parsedQueue,
+                            early.size() + " parsed ahead of their turn");
+                }
+            }
+            add(item);
+            window.release();
+        }
+    }
+
+    /**
+     * Keeps the declarations of every file until the walk has ended, then adds them to the model in path order.
+     */
+    private void buildDiscovered(DiscoverySource source, Semaphore window, BlockingQueue<Item> readQueue,
+                                 BlockingQueue<Item> parsedQueue) throws InterruptedException {
+        List<Item> items = new ArrayList<>();
+        long nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+        while (source.count < 0 || items.size() < source.count) {
+            Item parsed = receive(source, parsedQueue, 0);
+            if (parsed != null) {
+                items.add(parsed);
+                // Only its declarations are left, which take little room.
+                window.release();
+            }
+            if (System.nanoTime() - nextProgress >= 0) {
+                nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+                logProgress(items.size() + " of " + source.added.get() + " files found so far parsed", readQueue,
+                        parsedQueue, source.count < 0 ? "still walking" : "walk ended");
+            }
+        }
+        items.sort(Comparator.comparing((Item item) -> item.path));
+        for (Item item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Waits a while for the next parsed file, and lets the controller measure the parsers on the way.
+     *
+     * @return the file, or null if none came
+     */
+    private Item receive(Source source, BlockingQueue<Item> parsedQueue, int waiting) throws InterruptedException {
+        long start = System.nanoTime();
+        buildStage.queued(parsedQueue.size() + waiting);
+        Item parsed = parsedQueue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+        buildStage.starved(start);
+        if (controller != null && !source.exhausted()) {
+            controller.update(parseStage.bytes.sum(), parseStage.starvedNanos.sum(), parseStage.blockedNanos.sum());
+        }
+        return parsed;
+    }
+
+    private void add(Item item) {
+        long start = System.nanoTime();
+        if (item.failure instanceof Error) {
+            throw (Error) item.failure;
+        } else if (item.failure instanceof UncheckedIOException) {
+            LOGGER.log(Level.SEVERE, "Error reading file: " + item.path, item.failure.getCause());
+        } else if (item.failure != null) {
+            LOGGER.log(Level.SEVERE, "Error parsing file: " + item.path, item.failure);
+        } else {
+            fileParser.process(item.parsedFile);
+        }
+        buildStage.done(start, 0);
+    }
+
+    private void logProgress(String built, BlockingQueue<Item> readQueue, BlockingQueue<Item> parsedQueue,
+                             String waiting) {
+        LOGGER.info("Pipeline: " + built + ", " + readQueue.size() + " of " + prefetchDistance
+                + " read ahead for parsing, " + parsedQueue.size() + " of " + queueCapacity + " queued for the model, "
+                + waiting + (controller != null ? ", " + controller.getParallelism() + " parser threads" : ""));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Where the readers take their files from.
+     */
+    private interface Source {
+        /**
+         * @return the next file to read, or null once there are none left
+         */
+        Item next() throws InterruptedException;
+
+        /**
+         * @return whether every file has been handed to a reader
+         */
+        boolean exhausted();
+    }
+
+    /**
+     * The files of a list, in path order.
+     */
+    private static final class ListSource implements Source {
+        final Path[] files;
+        final AtomicInteger nextIndex = new AtomicInteger();
+
+        ListSource(Path[] files) {
+            this.files = files;
+        }
+
+        @Override
+        public Item next() {
+            int index = nextIndex.getAndIncrement();
+            return index < files.length ? new Item(index, files[index]) : null;
+        }
+
+        @Override
+        public boolean exhausted() {
+            return nextIndex.get() >= files.length;
+        }
+    }
+
+    /**
+     * The files of a walk, in the order they are found.
+     */
+    private static final class DiscoverySource implements Source {
+        // Put after the last file, and back again by every reader that takes it.
+        private static final Path END = Paths.get("");
+
+        final BlockingQueue<Path> found = new LinkedBlockingQueue<>();
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger taken = new AtomicInteger();
+        // The number of files found, once the walk has ended.
+        volatile int count = -1;
+        volatile Throwable failure;
+
+        void add(Path path) {
+            added.incrementAndGet();
+            found.add(path);
+        }
+
+        void finish() {
+            count = added.get();
+            found.add(END);
+        }
+
+        @Override
+        public Item next() throws InterruptedException {
+            Path path = found.take();
+            if (path == END) {
+                found.put(END);
+                return null;
+            }
+            return new Item(taken.getAndIncrement(), path);
+        }
+
+        @Override
+        public boolean exhausted() {
+            int total = count;
+            return total >= 0 && taken.get() >= total;
+        }
+    }
+
+    /**
+     * A file on its way through the pipeline.
+     */
+    private static final class Item {
+        final int index;
+        final Path path;
+        byte[] content;
+        DeclarationCache.Lookup lookup;
+        ParsedFile parsedFile;
+        Throwable failure;
+
+        Item(int index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The bytes read but not parsed yet, bounded so that reading ahead cannot fill the heap.
+     */
+    private static final class PrefetchBuffer {
+        final long maxBytes;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition released = lock.newCondition();
+        long heldBytes;
+        long peakBytes;
+        int waitCount;
+        long waitNanos;
+
+        PrefetchBuffer(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Waits until the bytes of a file read ahead fit in the buffer, or nothing else is held.
+         */
+        void reserve(long size) throws InterruptedException {
+            long start = System.nanoTime();
+            lock.lock();
+            try {
+                boolean waited = false;
+                while (maxBytes > 0 && heldBytes > 0 && heldBytes + size > maxBytes) {
+                    waited = true;
+                    released.await();
+                }
+                heldBytes += size;
+                peakBytes = Math.max(peakBytes, heldBytes);
+                if (waited) {
+                    waitCount++;
+                    waitNanos += System.nanoTime() - start;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long size) {
+            lock.lock();
+            try {
+                heldBytes -= size;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        String describe(int distance) {
+            lock.lock();
+            try {
+                return String.format("Pipeline prefetch: up to %d files%s ahead of the parsers, %.1f MB held at most,"
+                                + " readers waited for room %d times, %d ms in total", distance,
+                        maxBytes > 0 ? String.format(" and %.1f MB", maxBytes / 1e6) : "", peakBytes / 1e6,
+                        waitCount, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The counters of one stage, summed over its threads.
+     */
+    private static final class Stage {
+        final String name;
+        final int threads;
+        final LongAdder files = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        // Time spent waiting for a file from the previous stage.
+        final LongAdder starvedNanos = new LongAdder();
+        // Time spent waiting for room in the next stage, or in the window for the readers.
+        final LongAdder blockedNanos = new LongAdder();
+        final LongAdder queuedSum = new LongAdder();
+        final LongAdder queuedSamples = new LongAdder();
+        final LongAccumulator queuedMax = new LongAccumulator(Math::max, 0);
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void done(long start, long size) {
+            busyNanos.add(System.nanoTime() - start);
+            files.increment();
+            bytes.add(size);
+        }
+
+        void starved(long start) {
+            starvedNanos.add(System.nanoTime() - start);
+        }
+
+        void blocked(long start) {
+            blockedNanos.add(System.nanoTime() - start);
+        }
+
+        /**
+         * Samples the number of files waiting for this stage.
+         */
+        void queued(int depth) {
+            queuedSum.add(depth);
+            queuedSamples.increment();
+            queuedMax.accumulate(depth);
+        }
+
+        String describe(long runNanos) {
+            long busy = busyNanos.sum();
+            double capacity = busy > 0 ? files.sum() * 1e9 * threads / busy : 0;
+            long samples = queuedSamples.sum();
+            return String.format("Pipeline %s stage: %d files, %.1f MB, busy %d%% on %d threads, could sustain %.0f"
+                            + " files/s, starved %d ms, blocked %d ms, queued %.1f on average and %d at most",
+                    name, files.sum(), bytes.sum() / 1e6, runNanos > 0 ? 100 * busy / threads / runNanos : 0,
+                    threads, capacity, TimeUnit.NANOSECONDS.toMillis(starvedNanos.sum()),
+                    TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()),
+                    samples > 0 ? (double) queuedSum.sum() / samples : 0.0, queuedMax.get());
+        }
+    }
+}
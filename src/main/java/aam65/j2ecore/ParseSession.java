@@ -0,0 +1,193 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.List;
+
+/**
+ * One lexer, token stream and parser, reset for every file instead of being created again.
+ * <p>
+ * A session belongs to a single thread, see {@link JavaFileParser}. Its interpreters and error strategies are reused
+ * across files, and the DFA cache they predict with is shared by every session, so it stays warm from one file to the
+ * next. The tokens and tree of a file are only valid until the next call to {@link #parse(CharStream, boolean)}.
+ * <p>
+ * With a thread-local DFA, the session instead starts from a copy of the shared DFA and only ever extends its own
+ * copy, so threads never wait on each other's DFA locks. The shared DFA is then left as it was, a read-only starting
+ * point for new sessions.
+ * <p>
+ * With the fast lexer, tokens come from a {@link FastJavaLexer} that leaves only the unusual ones to the generated
+ * lexer, and only the tokens the parser matches are created, see {@link CompactTokenStream}.
+ * <p>
+ * When streaming, the parser builds no tree: the declarations are extracted while the file is parsed, see
+ * {@link StreamingExtractor}, and {@link #parse(CharStream, boolean)} returns an empty compilation unit.
+ */
+public class ParseSession {
+    private final JavaLexer lexer = new JavaLexer(null);
+    private final CompactTokenStream tokens;
+    private final JavaParser parser;
+    private final FastJavaLexer fastLexer;
+    private final StreamingExtractor streamingExtractor;
+    private final List<? extends ANTLRErrorListener> errorListeners;
+    private final BailErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+    private final DefaultErrorStrategy defaultErrorStrategy = new DefaultErrorStrategy();
+    private final DfaCacheGuard dfaCacheGuard;
+    private final boolean threadLocalDfa;
+    private final DFA[] parserDfa;
+    private Interpreter interpreter;
+    private int dfaGeneration = -1;
+    private boolean llFallback;
+
+    public ParseSession() {
+        this(null, false, false, false);
+    }
+
+    public ParseSession(DfaCacheGuard dfaCacheGuard, boolean threadLocalDfa, boolean fastLexer) {
+        this(dfaCacheGuard, threadLocalDfa, fastLexer, false);
+    }
+
+    /**
+     * @param dfaCacheGuard  the guard that may clear the prediction caches between files, or null to let them grow
+     * @param threadLocalDfa when true, the session predicts with its own copy of the DFA instead of the shared one
+     * @param fastLexer      when true, files are lexed by a {@link FastJavaLexer} instead of the generated lexer
+     * @param streaming      when true, declarations are extracted while parsing instead of from a tree
+     */
+    public ParseSession(DfaCacheGuard dfaCacheGuard, boolean threadLocalDfa, boolean fastLexer, boolean streaming) {
+        // Whitespace and comments are dropped as the file is read, as nothing needs them.
+        this.tokens = new CompactTokenStream(true, !streaming);
+        this.parser = new JavaParser(tokens);
+        this.errorListeners = List.copyOf(parser.getErrorListeners());
+        if (streaming) {
+            streamingExtractor = new StreamingExtractor(new DeclarationExtractor());
+            parser.setBuildParseTree(false);
+            parser.addParseListener(streamingExtractor);
+        } else {
+            streamingExtractor = null;
+        }
+        this.dfaCacheGuard = dfaCacheGuard;
+        this.fastLexer = fastLexer ? new FastJavaLexer(lexer) : null;
+        this.threadLocalDfa = threadLocalDfa;
+        if (threadLocalDfa) {
+            parserDfa = DfaCopier.copy(JavaParser._decisionToDFA, JavaParser._ATN);
+            DFA[] lexerDfa = DfaCopier.copy(JavaLexer._decisionToDFA, JavaLexer._ATN);
+            lexer.setInterpreter(new LexerATNSimulator(lexer, JavaLexer._ATN, lexerDfa, new PredictionContextCache()));
+            if (dfaCacheGuard != null) {
+                dfaCacheGuard.register(parserDfa);
+                dfaCacheGuard.register(lexerDfa);
+            }
+        } else {
+            parserDfa = JavaParser._decisionToDFA;
+        }
+        interpreter = new Interpreter(parser, parserDfa, JavaParser._sharedContextCache);
+        parser.setInterpreter(interpreter);
+    }
+
+    /**
+     * Parses with the fast SLL prediction first and bails out on the first syntax error. Only files that fail there,
+     * either because they are invalid or because they need full context, are parsed again with full LL prediction and
+     * the usual error reporting and recovery.
+     *
+     * @param outline when true, method bodies and field initializers are skipped, see {@link OutlineTokenFilter}
+     */
+    public JavaParser.CompilationUnitContext parse(CharStream input, boolean outline) {
+        TokenSource source = lexer;
+        if (fastLexer != null) {
+            fastLexer.setInputStream(input);
+            source = fastLexer;
+        } else {
+            lexer.setInputStream(input);
+        }
+        tokens.setTokenSource(outline ? OutlineTokenFilter.filter(source) : source);
+        parser.setTokenStream(tokens);
+        int generation = dfaCacheGuard != null ? dfaCacheGuard.getGeneration() : 0;
+        if ((dfaCacheGuard != null || threadLocalDfa) && dfaGeneration != generation) {
+            // A new interpreter, as it holds on to its prediction context cache, which is dropped on every clear.
+            dfaGeneration = generation;
+            PredictionContextCache contextCache = threadLocalDfa || dfaCacheGuard == null
+                    ? new PredictionContextCache()
+                    : dfaCacheGuard.getContextCache();
+            interpreter = new Interpreter(parser, parserDfa, contextCache);
+            parser.setInterpreter(interpreter);
+        }
+
+        llFallback = false;
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(bailErrorStrategy);
+        if (streamingExtractor != null) {
+            streamingExtractor.start(true);
+        }
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            llFallback = true;
+            tokens.seek(0);
+            parser.reset();
+            if (streamingExtractor != null) {
+                streamingExtractor.start(false);
+            }
+            errorListeners.forEach(parser::addErrorListener);
+            parser.setErrorHandler(defaultErrorStrategy);
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.compilationUnit();
+        }
+    }
+
+    /**
+     * @return the tokens of the last file parsed
+     */
+    public CompactTokenStream getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return the listener that extracted the declarations of the last file parsed, or null unless streaming
+     */
+    public StreamingExtractor getStreamingExtractor() {
+        return streamingExtractor;
+    }
+
+    /**
+     * @return whether the last file parsed needed full LL prediction
+     */
+    public boolean usedLlFallback() {
+        return llFallback;
+    }
+
+    /**
+     * Drops the tokens and input of the last file, so they can be collected while the session waits for the next one.
+     */
+    public void clear() {
+        tokens.clear();
+        interpreter.clear();
+        if (streamingExtractor != null) {
+            streamingExtractor.clear();
+        }
+        if (fastLexer != null) {
+            fastLexer.setInputStream(null);
+        } else {
+            lexer.setInputStream(null);
+        }
+    }
+
+    /**
+     * The parser's interpreter, which can let go of the last file. ANTLR keeps the rule the last prediction was made
+     * in, and through its parents the whole tree of the file, until the next prediction, so every idle session would
+     * otherwise hold on to the last tree it built.
+     */
+    private static final class Interpreter extends ParserATNSimulator {
+        Interpreter(Parser parser, DFA[] decisionToDFA, PredictionContextCache contextCache) {
+            super(parser, JavaParser._ATN, decisionToDFA, contextCache);
+        }
+
+        void clear() {
+            _input = null;
+            _outerContext = null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package aam65.j2ecore;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Everything extracted from a single parse of one file: its package, its imports and its class, interface and enum
+ * declarations in source order, nested and local ones included. It holds no parse tree or EMF object.
+ */
+public class ParsedFile {
+    private final Path path;
+    private final String packageName;
+    private final List<String> imports;
+    private final List<TypeDeclaration> typeDeclarations;
+
+    public ParsedFile(Path path, String packageName, List<String> imports, List<TypeDeclaration> typeDeclarations) {
+        this.path = path;
+        this.packageName = packageName;
+        this.imports = imports;
+        this.typeDeclarations = typeDeclarations;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public List<String> getImports() {
+        return imports;
+    }
+
+    public List<TypeDeclaration> getTypeDeclarations() {
+        return typeDeclarations;
+    }
+}
@@ -0,0 +1,473 @@
+package aam65.j2ecore;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the source files under a directory, walking its subdirectories in parallel and skipping ignored ones whole.
+ * <p>
+ * Every directory is listed by a task of its own on a work-stealing pool, so a tree with many directories is walked at
+ * the speed of the file system rather than of one thread waiting on it. Each file is handed on as soon as it is found,
+ * which lets parsing start long before the walk ends; the files come in no particular order.
+ * <p>
+ * A directory that is excluded or ignored is never listed, so nothing under {@code .git}, {@code build} or
+ * {@code node_modules} costs more than the one entry that names it. Patterns follow the syntax of {@code .gitignore}: a
+ * pattern without a slash, or with a trailing one only, matches the name of a file or directory at any depth, and any
+ * other one matches its path from the root, {@code *} and {@code ?} stop at a slash and {@code **} does not. A trailing
+ * slash only matches directories, and a leading {@code !} takes back an earlier match.
+ * <ul>
+ * <li>A file is kept when its name or path matches one of the include patterns, {@value #DEFAULT_INCLUDE} by
+ * default.</li>
+ * <li>A file or directory matching one of the exclude patterns is skipped.</li>
+ * <li>When the ignore files are turned on, the {@code .git} directories are skipped, and so is whatever the
+ * {@code .gitignore} of a directory, or of a directory above it, ignores. The rules of a {@code .gitignore} apply from
+ * its directory down, the last matching rule deciding, and a file in an ignored directory cannot be taken back, as
+ * with git. Ignore files above the root, in {@code .git/info} or configured globally are not read.</li>
+ * </ul>
+ * Symbolic links to files are followed and links to directories are not, as with {@link Files#walk}. A directory that
+ * cannot be listed is logged and skipped.
+ * <p>
+ * The same rules can be applied to a part of the tree or to a single path, for a {@link SourceWatcher} that registers
+ * new directories and filters change events: see {@link #discover(Path, Consumer, Consumer)} and
+ * {@link #accepts(Path)}.
+ */
+public class SourceDiscovery {
+    private static final Logger LOGGER = Logger.getLogger(SourceDiscovery.class.getName());
+    private static final String DEFAULT_INCLUDE = "*.java";
+    private static final String IGNORE_FILE = ".gitignore";
+
+    private final Path root;
+    private final Path absoluteRoot;
+    private final List<Rule> includes = new ArrayList<>();
+    private final List<Rule> excludes = new ArrayList<>();
+    private final boolean ignoreFiles;
+    private final int parallelism;
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder prunedDirectories = new LongAdder();
+    private final LongAdder skippedFiles = new LongAdder();
+    private final LongAdder foundFiles = new LongAdder();
+    private final LongAdder ignoreFilesRead = new LongAdder();
+    private long walkNanos;
+
+    /**
+     * Finds every {@value #DEFAULT_INCLUDE} file, without reading ignore files.
+     */
+    public SourceDiscovery(Path root, int parallelism) {
+        this(root, Collections.emptyList(), Collections.emptyList(), false, parallelism);
+    }
+
+    /**
+     * @param includes    patterns of the files to keep, or none for {@value #DEFAULT_INCLUDE}
+     * @param excludes    patterns of the files and directories to skip
+     * @param ignoreFiles whether to skip {@code .git} and what {@code .gitignore} files ignore
+     * @param parallelism the number of threads listing directories
+     */
+    public SourceDiscovery(Path root, List<String> includes, List<String> excludes, boolean ignoreFiles,
+                           int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.root = root;
+        this.absoluteRoot = root.toAbsolutePath().normalize();
+        for (String include : includes.isEmpty() ? List.of(DEFAULT_INCLUDE) : includes) {
+            this.includes.add(parseOption(include));
+        }
+        for (String exclude : excludes) {
+            this.excludes.add(parseOption(exclude));
+        }
+        this.ignoreFiles = ignoreFiles;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Walks the tree and returns every file found.
+     */
+    public List<Path> discover() throws IOException {
+        List<Path> files = Collections.synchronizedList(new ArrayList<>());
+        discover(files::add);
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Walks the tree, handing every file found to a consumer as soon as it is found. The consumer is called from the
+     * threads of the walk, several at a time.
+     *
+     * @throws IOException if the root is not a directory that can be listed
+     */
+    public void discover(Consumer<Path> found) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        walk(new DirectoryTask(root, "", Collections.emptyList(), directory -> {
+        }, found));
+    }
+
+    /**
+     * Walks the part of the tree below a directory of it, with the ignore files of the directories above it, unless
+     * the directory itself is excluded or ignored. Every directory listed and every file found is handed on as soon as
+     * it is, from the threads of the walk, with an absolute path.
+     *
+     * @param directoryFound consumer of the directories listed, the first one included
+     * @throws IllegalArgumentException if the directory is not under the root
+     */
+    public void discover(Path start, Consumer<Path> directoryFound, Consumer<Path> found) {
+        Path directory = start.toAbsolutePath().normalize();
+        if (!directory.startsWith(absoluteRoot)) {
+            throw new IllegalArgumentException("Not under " + root + ": " + start);
+        }
+        if (!Files.isDirectory(directory)) {
+            // Removed since it was reported.
+            return;
+        }
+        List<Rule> inherited = Collections.emptyList();
+        if (!directory.equals(absoluteRoot)) {
+            inherited = rulesOf(directory.getParent());
+            String name = directory.getFileName().toString();
+            if (inherited == null || ignored(pathOf(directory.getParent()) + name, name, true, inherited)) {
+                return;
+            }
+        }
+        walk(new DirectoryTask(directory, pathOf(directory), inherited, directoryFound, found));
+    }
+
+    /**
+     * @return whether a walk of the tree would find a file, judging by its path alone, so a file that was deleted can
+     * be told apart as well
+     */
+    public boolean accepts(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!absolute.startsWith(absoluteRoot) || absolute.equals(absoluteRoot)) {
+            return false;
+        }
+        List<Rule> rules = rulesOf(absolute.getParent());
+        String name = absolute.getFileName().toString();
+        String path = pathOf(absolute.getParent()) + name;
+        return rules != null && matchesAny(includes, path, name, false) && !ignored(path, name, false, rules);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private void walk(DirectoryTask task) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(task);
+        } finally {
+            pool.shutdownNow();
+            walkNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Reads the ignore files from the root down to a directory of the tree, the way a walk would.
+     *
+     * @param directory an absolute, normalized path under the root
+     * @return the ignore rules that apply to the entries of the directory, or null if it is excluded or ignored
+     */
+    private List<Rule> rulesOf(Path directory) {
+        List<Rule> rules = ignoreRules(absoluteRoot, "", Collections.emptyList());
+        if (directory.equals(absoluteRoot)) {
+            return rules;
+        }
+        Path current = absoluteRoot;
+        String path = "";
+        for (Path segment : absoluteRoot.relativize(directory)) {
+            String name = segment.toString();
+            if (ignored(path + name, name, true, rules)) {
+                return null;
+            }
+            current = current.resolve(name);
+            path += name + "/";
+            rules = ignoreRules(current, path, rules);
+        }
+        return rules;
+    }
+
+    private List<Rule> ignoreRules(Path directory, String path, List<Rule> inherited) {
+        Path ignoreFile = directory.resolve(IGNORE_FILE);
+        return ignoreFiles && Files.isRegularFile(ignoreFile) ? readIgnoreFile(ignoreFile, path, inherited) : inherited;
+    }
+
+    /**
+     * @return the path of a directory from the root, with a trailing slash unless it is the root
+     */
+    private String pathOf(Path directory) {
+        StringBuilder path = new StringBuilder();
+        if (!directory.equals(absoluteRoot)) {
+            for (Path segment : absoluteRoot.relativize(directory)) {
+                path.append(segment).append('/');
+            }
+        }
+        return path.toString();
+    }
+
+    public void report() {
+        LOGGER.info("Discovery: " + foundFiles.sum() + " files found in " + directories.sum() + " directories in "
+                + TimeUnit.NANOSECONDS.toMillis(walkNanos) + " ms, " + prunedDirectories.sum()
+                + " directories and " + skippedFiles.sum() + " files excluded or ignored, " + ignoreFilesRead.sum()
+                + " ignore files read");
+    }
+
+    /**
+     * Checks an include or exclude pattern before the discovery is created, as command line options are.
+     *
+     * @throws IllegalArgumentException if the pattern cannot be used
+     */
+    static void checkPattern(String pattern) {
+        parseOption(pattern);
+    }
+
+    private static Rule parseOption(String pattern) {
+        Rule rule = Rule.parse(pattern, "");
+        if (rule == null || rule.negated) {
+            throw new IllegalArgumentException("Invalid file pattern: " + pattern);
+        }
+        return rule;
+    }
+
+    /**
+     * @param rules the ignore rules of the directory and the ones above it, outermost first
+     */
+    private boolean ignored(String path, String name, boolean directory, List<Rule> rules) {
+        if (matchesAny(excludes, path, name, directory)) {
+            return true;
+        }
+        if (!ignoreFiles) {
+            return false;
+        }
+        if (directory && ".git".equals(name)) {
+            return true;
+        }
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.matches(path, name, directory)) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    private static boolean matchesAny(List<Rule> rules, String path, String name, boolean directory) {
+        for (Rule rule : rules) {
+            if (rule.matches(path, name, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Rule> readIgnoreFile(Path ignoreFile, String path, List<Rule> inherited) {
+        List<Rule> rules = new ArrayList<>(inherited);
+        try {
+            for (String line : Files.readAllLines(ignoreFile)) {
+                Rule rule = Rule.parse(line, path);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+            ignoreFilesRead.increment();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read ignore file: " + ignoreFile, e);
+        }
+        return rules;
+    }
+
+    /**
+     * Lists one directory, handing on its files and forking a task for each of its subdirectories.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        // The path from the root, with a trailing slash unless it is the root.
+        private final String path;
+        private final List<Rule> inherited;
+        private final Consumer<Path> directoryFound;
+        private final Consumer<Path> found;
+
+        DirectoryTask(Path directory, String path, List<Rule> inherited, Consumer<Path> directoryFound,
+                      Consumer<Path> found) {
+            this.directory = directory;
+            this.path = path;
+            this.inherited = inherited;
+            this.directoryFound = directoryFound;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            directories.increment();
+            List<Path> entries = new ArrayList<>();
+            boolean hasIgnoreFile = false;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                    hasIgnoreFile |= IGNORE_FILE.equals(entry.getFileName().toString());
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                LOGGER.log(Level.WARNING, "Cannot list directory: " + directory, e);
+                return;
+            }
+            directoryFound.accept(directory);
+            // The rules of the directory apply to its own entries, so they are read before any is matched.
+            List<Rule> rules = ignoreFiles && hasIgnoreFile
+                    ? readIgnoreFile(directory.resolve(IGNORE_FILE), path, inherited)
+                    : inherited;
+
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (ignored(path + name, name, true, rules)) {
+                            prunedDirectories.increment();
+                        } else {
+                            subdirectories.add(new DirectoryTask(entry, path + name + "/", rules, directoryFound,
+                                    found));
+                        }
+                    } else if (attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(entry)) {
+                        if (!matchesAny(includes, path + name, name, false)) {
+                            continue;
+                        }
+                        if (ignored(path + name, name, false, rules)) {
+                            skippedFiles.increment();
+                        } else {
+                            foundFiles.increment();
+                            found.accept(entry);
+                        }
+                    }
+                } catch (IOException e) {
+                    // Removed since the directory was listed.
+                    LOGGER.log(Level.FINE, "Cannot read attributes of " + entry, e);
+                }
+            }
+            ForkJoinTask.invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * One pattern, from the options or a line of an ignore file.
+     */
+    static final class Rule {
+        // The path from the root of the directory the pattern is relative to, with a trailing slash unless it is
+        // the root.
+        final String base;
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+        // Whether the pattern matches the path from the base rather than the name.
+        final boolean anchored;
+
+        private Rule(String base, Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.base = base;
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        /**
+         * @return the rule of a pattern, or null for a blank line or a comment
+         */
+        static Rule parse(String line, String base) {
+            String pattern = stripTrailingSpaces(line);
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                return null;
+            }
+            return new Rule(base, toRegex(pattern), negated, directoryOnly, anchored);
+        }
+
+        boolean matches(String path, String name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            if (!anchored) {
+                return pattern.matcher(name).matches();
+            }
+            return path.startsWith(base) && pattern.matcher(path.substring(base.length())).matches();
+        }
+
+        private static String stripTrailingSpaces(String line) {
+            int end = line.length();
+            // A space escaped with a backslash is kept.
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        private static Pattern toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (c == '*' && glob.startsWith("**", i)) {
+                    boolean atStart = i == 0 || glob.charAt(i - 1) == '/';
+                    if (atStart && glob.startsWith("**/", i)) {
+                        // Any number of directories, none included.
+                        regex.append("(?:.*/)?");
+                        i += 3;
+                    } else {
+                        regex.append(".*");
+                        i += 2;
+                    }
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                    i++;
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                    int end = glob.indexOf(']', i + 2);
+                    String range = glob.substring(i + 1, end);
+                    if (range.startsWith("!")) {
+                        range = "^" + range.substring(1);
+                    }
+                    regex.append('[').append(range.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end + 1;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                    i += 2;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    i++;
+                }
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
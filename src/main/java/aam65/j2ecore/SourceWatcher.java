@@ -0,0 +1,175 @@
+package aam65.j2ecore;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the model in step with a source tree and exports it again after every change.
+ * <p>
+ * Each changed, added or deleted file is handed to {@link EcoreModelManager#updateFile(Path, ParsedFile)}, which
+ * only replaces the classifiers of that file and links again the classes that depend on them. Events arriving within
+ * a short delay of each other are handled together, as editors often save a file in several steps.
+ * <p>
+ * Directories and files are picked with the rules of a {@link SourceDiscovery}, the same as the run that built the
+ * model: new directories that are excluded or ignored are not watched, and events on files it would not find are
+ * dropped.
+ */
+public class SourceWatcher implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(SourceWatcher.class.getName());
+    private static final long DEBOUNCE_MILLIS = 30;
+
+    private final Path root;
+    private final SourceDiscovery discovery;
+    private final JavaFileParser parser;
+    private final EcoreModelManager modelManager;
+    private final String ecoreFilePath;
+    private final EcoreExporter exporter = new EcoreExporter();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * Watches every Java file under a directory.
+     */
+    public SourceWatcher(Path root, JavaFileParser parser, EcoreModelManager modelManager, String ecoreFilePath)
+            throws IOException {
+        this(new SourceDiscovery(root, 1), parser, modelManager, ecoreFilePath);
+    }
+
+    /**
+     * Watches the files a discovery finds under its root.
+     */
+    public SourceWatcher(SourceDiscovery discovery, JavaFileParser parser, EcoreModelManager modelManager,
+                         String ecoreFilePath) throws IOException {
+        // Absolute paths throughout, so they match the files known to the model.
+        this.root = discovery.getRoot().toAbsolutePath().normalize();
+        this.discovery = discovery;
+        this.parser = parser;
+        this.modelManager = modelManager;
+        this.ecoreFilePath = ecoreFilePath;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerTree(this.root, null);
+    }
+
+    /**
+     * Watches until the thread is interrupted or the watcher is closed.
+     */
+    public void run() throws IOException {
+        LOGGER.info("Watching " + directories.size() + " directories under " + root);
+        try {
+            while (true) {
+                Set<Path> changed = new TreeSet<>();
+                boolean overflow = collect(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+                if (overflow) {
+                    // Events were lost, so compare every file on disk and in the model.
+                    changed.addAll(modelManager.getFiles());
+                    registerTree(root, changed);
+                }
+                if (!changed.isEmpty()) {
+                    update(changed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed from another thread, stop watching.
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerTree(path, changed);
+            } else if (discovery.accepts(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            // The directory is gone, and with it every file the model still has from below it.
+            directories.remove(key);
+            for (Path file : modelManager.getFiles()) {
+                if (file.startsWith(directory)) {
+                    changed.add(file);
+                }
+            }
+        }
+        return overflow;
+    }
+
+    private void update(Set<Path> changed) {
+        long start = System.nanoTime();
+        for (Path path : changed) {
+            ParsedFile parsedFile = null;
+            if (Files.isRegularFile(path)) {
+                try {
+                    parsedFile = parser.parse(path);
+                } catch (IOException | RuntimeException e) {
+                    // Keep the last good classifiers of the file until it can be read again.
+                    LOGGER.log(Level.WARNING, "Error parsing file: " + path, e);
+                    continue;
+                }
+            }
+            modelManager.updateFile(path, parsedFile);
+        }
+
+        try {
+            exporter.exportModel(modelManager.getEPackage(), ecoreFilePath);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error exporting Ecore model", e);
+            return;
+        }
+        LOGGER.info("Updated " + changed.size() + " files and exported the model in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Registers a directory and everything below it that the discovery walks, adding the files it finds to
+     * {@code found} if it is not null.
+     */
+    private void registerTree(Path start, Set<Path> found) throws IOException {
+        List<Path> walked = Collections.synchronizedList(new ArrayList<>());
+        List<Path> files = Collections.synchronizedList(new ArrayList<>());
+        discovery.discover(start, walked::add, files::add);
+        for (Path directory : walked) {
+            // Registering a directory again returns its existing key.
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            directories.put(key, directory);
+        }
+        if (found != null) {
+            found.addAll(files);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,233 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Extracts the declarations of a file while it is parsed, from the events of a parser that builds no parse tree.
+ * <p>
+ * The parser only hands the listener each rule as it is entered and left. The listener attaches a rule to its parent
+ * when it is left, and only under a package, import or type declaration, so it rebuilds just the parts of the tree
+ * that {@link DeclarationExtractor} reads. Method bodies, blocks, field initializers and the arguments and bodies of
+ * enum constants are never attached.
+ * <p>
+ * Each member is extracted as soon as it has been parsed and is then dropped, and a type declaration is completed when
+ * it is left, so no more than the header of every enclosing type and the member being parsed is kept at any time. The
+ * memory a file needs beyond its characters and tokens no longer grows with its size. The declarations are the same
+ * as the ones extracted from a whole tree, in the same order.
+ * <p>
+ * A listener belongs to a single {@link ParseSession} and is reset before every parse.
+ */
+public class StreamingExtractor implements ParseTreeListener {
+    private final DeclarationExtractor extractor;
+    // Whether each rule being parsed is kept, from the outermost one to the current one.
+    private boolean[] kept = new boolean[64];
+    private int depth;
+    private final Deque<OpenType> openTypes = new ArrayDeque<>();
+    private final List<TypeDeclaration> typeDeclarations = new ArrayList<>();
+    private final List<String> imports = new ArrayList<>();
+    private String packageName = DeclarationExtractor.DEFAULT_PACKAGE_NAME;
+    private boolean bailOnError;
+
+    public StreamingExtractor(DeclarationExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    /**
+     * Gets ready for a new parse.
+     *
+     * @param bailOnError whether the parse is abandoned on the first syntax error. The rules left while the parser
+     *                    unwinds are then ignored, as they are incomplete and the file will be parsed again.
+     */
+    public void start(boolean bailOnError) {
+        clear();
+        this.bailOnError = bailOnError;
+    }
+
+    /**
+     * Drops the declarations of the last file.
+     */
+    public void clear() {
+        depth = 0;
+        openTypes.clear();
+        typeDeclarations.clear();
+        imports.clear();
+        packageName = DeclarationExtractor.DEFAULT_PACKAGE_NAME;
+    }
+
+    /**
+     * @return the declarations of the file that has just been parsed
+     */
+    public ParsedFile toParsedFile(Path filePath) {
+        return new ParsedFile(filePath, packageName, List.copyOf(imports), List.copyOf(typeDeclarations));
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        ParserRuleContext parent = ctx.getParent();
+        if (parent != null && parent.getChildCount() > 0) {
+            // A left-recursive rule has made the rule just left the first child of this one, after it was attached to
+            // the parent they share.
+            ParseTree last = parent.getChild(parent.getChildCount() - 1);
+            if (last instanceof ParserRuleContext && ((ParserRuleContext) last).getParent() == ctx) {
+                parent.removeLastChild();
+                ctx.addChild((ParserRuleContext) last);
+            }
+        }
+
+        boolean parentKept = depth > 0 && kept[depth - 1];
+        boolean keep = isRoot(ctx) || (parentKept && !isDropped(ctx, parent));
+        if (depth == kept.length) {
+            kept = Arrays.copyOf(kept, depth * 2);
+        }
+        kept[depth++] = keep;
+
+        if (isExtractedType(ctx)) {
+            // Reserves its place, so declarations stay in source order although nested ones are completed first.
+            openTypes.push(new OpenType(ctx, typeDeclarations.size()));
+            typeDeclarations.add(null);
+        }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+        boolean keep = kept[--depth];
+        if (!keep || (bailOnError && ctx.exception != null)) {
+            return;
+        }
+        if (!extract(ctx) && depth > 0 && kept[depth - 1]) {
+            ctx.getParent().addChild(ctx);
+        }
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+    }
+
+    /**
+     * Extracts what a rule declares, if it is a package, import, type or member declaration.
+     *
+     * @return whether the rule has been dealt with and must not be attached to its parent
+     */
+    private boolean extract(ParserRuleContext ctx) {
+        if (ctx instanceof JavaParser.PackageDeclarationContext) {
+            packageName = extractor.extractPackageName((JavaParser.PackageDeclarationContext) ctx);
+            return true;
+        } else if (ctx instanceof JavaParser.ImportDeclarationContext) {
+            imports.add(extractor.extractImport((JavaParser.ImportDeclarationContext) ctx));
+            return true;
+        } else if (isExtractedType(ctx)) {
+            OpenType openType = openTypes.pop();
+            typeDeclarations.set(openType.index, openType.complete(extractor.extractType(ctx, packageName)));
+            return true;
+        } else if (ctx instanceof JavaParser.RecordDeclarationContext) {
+            // Records are not extracted, their name was only kept for the types nested in them.
+            return true;
+        } else if (ctx instanceof JavaParser.ClassBodyDeclarationContext) {
+            OpenType owner = ownerOf(ctx);
+            if (owner != null && owner.declaration instanceof JavaParser.ClassDeclarationContext) {
+                extractor.extractClassMember((JavaParser.ClassBodyDeclarationContext) ctx, owner.annotations,
+                        owner.fields, owner.operations);
+            }
+            return true;
+        } else if (ctx instanceof JavaParser.InterfaceBodyDeclarationContext) {
+            OpenType owner = ownerOf(ctx);
+            if (owner != null) {
+                TypeDeclaration.Operation operation =
+                        extractor.extractInterfaceMember((JavaParser.InterfaceBodyDeclarationContext) ctx);
+                if (operation != null) {
+                    owner.operations.add(operation);
+                }
+            }
+            return true;
+        } else if (ctx instanceof JavaParser.EnumConstantContext) {
+            OpenType owner = ownerOf(ctx);
+            if (owner != null) {
+                owner.enumConstants.add(extractor.extractEnumConstant((JavaParser.EnumConstantContext) ctx));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the innermost open type if a member belongs to it directly, through its body or list of constants, or
+     * null if the member belongs to an anonymous class, an enum body or a record
+     */
+    private OpenType ownerOf(ParserRuleContext member) {
+        OpenType innermost = openTypes.peek();
+        ParserRuleContext body = member.getParent();
+        if (innermost != null && body != null && body.getParent() == innermost.declaration) {
+            return innermost;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether a rule starts a part of the tree that is kept wherever it appears
+     */
+    private static boolean isRoot(ParserRuleContext ctx) {
+        return isExtractedType(ctx)
+                || ctx instanceof JavaParser.RecordDeclarationContext
+                || ctx instanceof JavaParser.PackageDeclarationContext
+                || ctx instanceof JavaParser.ImportDeclarationContext;
+    }
+
+    /**
+     * @return whether a rule is left out along with everything in it, as nothing in it is extracted
+     */
+    private static boolean isDropped(ParserRuleContext ctx, ParserRuleContext parent) {
+        return ctx instanceof JavaParser.BlockContext
+                || ctx instanceof JavaParser.MethodBodyContext
+                || ctx instanceof JavaParser.VariableInitializerContext
+                || ctx instanceof JavaParser.AnnotationTypeBodyContext
+                || ((ctx instanceof JavaParser.ArgumentsContext || ctx instanceof JavaParser.ClassBodyContext)
+                && parent instanceof JavaParser.EnumConstantContext);
+    }
+
+    private static boolean isExtractedType(ParserRuleContext ctx) {
+        return ctx instanceof JavaParser.ClassDeclarationContext
+                || ctx instanceof JavaParser.InterfaceDeclarationContext
+                || ctx instanceof JavaParser.EnumDeclarationContext;
+    }
+
+    /**
+     * A type declaration being parsed and the members extracted from it so far.
+     */
+    private static final class OpenType {
+        final ParserRuleContext declaration;
+        final int index;
+        final List<TypeDeclaration.Annotation> annotations = new ArrayList<>();
+        final List<TypeDeclaration.Field> fields = new ArrayList<>();
+        final List<TypeDeclaration.Operation> operations = new ArrayList<>();
+        final List<String> enumConstants = new ArrayList<>();
+
+        OpenType(ParserRuleContext declaration, int index) {
+            this.declaration = declaration;
+            this.index = index;
+        }
+
+        /**
+         * @param header the declaration extracted from the type alone, whose members were never attached to it
+         */
+        TypeDeclaration complete(TypeDeclaration header) {
+            return new TypeDeclaration(header.kind(), header.name(), header.qualifiedName(), header.superTypes(),
+                    List.copyOf(annotations), List.copyOf(fields), List.copyOf(operations),
+                    List.copyOf(enumConstants));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package aam65.j2ecore;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, EMF-independent description of a class, interface or enum declaration.
+ * <p>
+ * Declarations are produced by {@link DeclarationExtractor} on the parsing threads and turned into Ecore classifiers
+ * by {@link EcoreModelManager#addDeclarations(ParsedFile)}. Type names are kept exactly as they are handed to the
+ * model manager, and all names are interned, as the same few type names repeat across most files.
+ *
+ * @param superTypes     the superclass followed by the implemented interfaces, or the extended interfaces
+ * @param annotations    the annotations on the members of a class, which the model attaches to the class itself
+ * @param enumConstants  the constants of an enum in declaration order, empty for classes and interfaces
+ */
+public record TypeDeclaration(Kind kind, String name, String qualifiedName, List<String> superTypes,
+                              List<Annotation> annotations, List<Field> fields, List<Operation> operations,
+                              List<String> enumConstants) {
+
+    public enum Kind {
+        CLASS, INTERFACE, ENUM
+    }
+
+    public record Field(String name, String typeName) {
+    }
+
+    /**
+     * @param returnTypeName the return type, or null for void methods
+     */
+    public record Operation(String name, List<Parameter> parameters, String returnTypeName) {
+    }
+
+    public record Parameter(String name, String typeName) {
+    }
+
+    public record Annotation(String name, Map<String, String> elements) {
+    }
+}
@@ -0,0 +1,216 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeclarationCacheTest {
+    private static final String SOURCE = "package p;\n"
+            + "import java.util.List;\n"
+            + "@Deprecated(since = \"1\")\n"
+            + "public class A extends Base implements Runnable {\n"
+            + "    List<String> names;\n"
+            + "    public void run() { }\n"
+            + "    int size(String name, int... more) { return 0; }\n"
+            + "    enum Color { RED, GREEN }\n"
+            + "}\n";
+
+    @TempDir
+    Path cacheDir;
+    @TempDir
+    Path sourceDir;
+
+    private final JavaFileParser parser = JavaFileParser.builder(null).build();
+
+    @Test
+    void readsBackWhatItWrote() throws IOException {
+        Path file = write("A.java", SOURCE);
+        ParsedFile parsed = parser.parse(file, Files.readAllBytes(file));
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            OutlineScannerTest.assertSameDeclarations(parsed, cache.parse(file, parser));
+            assertEquals(1, cache.getMissCount());
+        }
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            DeclarationCache.Lookup lookup = cache.lookup(file);
+            assertNull(lookup.getContent());
+            OutlineScannerTest.assertSameDeclarations(parsed, lookup.getCached());
+            assertEquals(1, cache.getFastHitCount());
+            assertEquals(0, cache.getMissCount());
+        }
+    }
+
+    @Test
+    void findsEntryByContentWhenFileWasTouched() throws IOException {
+        Path file = write("A.java", SOURCE);
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            cache.parse(file, parser);
+        }
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plus(1, ChronoUnit.HOURS)));
+        Path copy = write("Copy.java", SOURCE);
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            assertNotNull(cache.lookup(file).getCached());
+            ParsedFile copied = cache.parse(copy, parser);
+            assertEquals(copy, copied.getPath());
+            assertEquals(2, cache.getHashHitCount());
+            assertEquals(0, cache.getFastHitCount());
+        }
+    }
+
+    @Test
+    void parsesAgainWhenContentChanged() throws IOException {
+        Path file = write("A.java", SOURCE);
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            cache.parse(file, parser);
+        }
+        write("A.java", SOURCE.replace("class A", "class B"));
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            DeclarationCache.Lookup lookup = cache.lookup(file);
+            assertNull(lookup.getCached());
+            assertEquals("B", cache.parse(lookup, parser).getTypeDeclarations().get(0).name());
+            assertEquals(1, cache.getMissCount());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"empty", "truncated", "flipped", "count", "trailing"})
+    void parsesAgainWhenEntryIsDamaged(String damage) throws IOException {
+        Path file = write("A.java", SOURCE);
+        ParsedFile parsed = parser.parse(file, Files.readAllBytes(file));
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            cache.parse(file, parser);
+        }
+        Path entry = entryOf(file);
+        Files.write(entry, damage(Files.readAllBytes(entry), damage));
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            OutlineScannerTest.assertSameDeclarations(parsed, cache.parse(file, parser));
+            assertEquals(1, cache.getMissCount());
+        }
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            OutlineScannerTest.assertSameDeclarations(parsed, cache.parse(file, parser));
+            assertEquals(1, cache.getFastHitCount());
+        }
+    }
+
+    @Test
+    void ignoresDamagedIndex() throws IOException {
+        Path file = write("A.java", SOURCE);
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            cache.parse(file, parser);
+        }
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            for (Path index : files.filter(path -> path.toString().endsWith(".idx")).collect(Collectors.toList())) {
+                Files.write(index, damage(Files.readAllBytes(index), "count"));
+            }
+        }
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            assertNotNull(cache.lookup(file).getCached());
+            assertEquals(1, cache.getHashHitCount());
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() throws IOException {
+        Path first = write("First.java", SOURCE.replace("class A", "class First"));
+        Path second = write("Second.java", SOURCE.replace("class A", "class Second"));
+        Path third = write("Third.java", SOURCE.replace("class A", "class Third"));
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            for (Path file : List.of(first, second, third)) {
+                cache.parse(file, parser);
+            }
+        }
+        // Oldest first: first, second, third
+        Instant now = Instant.now();
+        Files.setLastModifiedTime(entryOf(first), FileTime.from(now.minus(3, ChronoUnit.HOURS)));
+        Files.setLastModifiedTime(entryOf(second), FileTime.from(now.minus(2, ChronoUnit.HOURS)));
+        Files.setLastModifiedTime(entryOf(third), FileTime.from(now.minus(1, ChronoUnit.HOURS)));
+        long limit = Files.size(entryOf(first)) + Files.size(entryOf(third));
+
+        // Using the first entry makes the second one the least recently used
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, limit)) {
+            assertNotNull(cache.lookup(first).getCached());
+        }
+
+        assertTrue(Files.exists(entryOf(first)));
+        assertFalse(Files.exists(entryOf(second)));
+        assertTrue(Files.exists(entryOf(third)));
+    }
+
+    @Test
+    void keepsEntriesWithinLimit() throws IOException {
+        Path file = write("A.java", SOURCE);
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Long.MAX_VALUE)) {
+            cache.parse(file, parser);
+        }
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Files.size(entryOf(file)))) {
+            cache.lookup(file);
+        }
+        assertTrue(Files.exists(entryOf(file)));
+
+        try (DeclarationCache cache = new DeclarationCache(cacheDir, Files.size(entryOf(file)) - 1)) {
+            cache.lookup(file);
+        }
+        assertFalse(Files.exists(entryOf(file)));
+    }
+
+    /**
+     * Damages a cache file. The last two keep a valid checksum, so the content checks are what reject them.
+     */
+    private static byte[] damage(byte[] bytes, String damage) {
+        return switch (damage) {
+            case "empty" -> new byte[0];
+            case "truncated" -> Arrays.copyOf(bytes, bytes.length / 2);
+            case "flipped" -> {
+                bytes[bytes.length / 2] ^= 0x10;
+                yield bytes;
+            }
+            case "count" -> {
+                // The length of the first string, right after the magic number
+                byte[] content = Arrays.copyOf(bytes, bytes.length - 4);
+                ByteBuffer.wrap(content).putInt(4, Integer.MAX_VALUE);
+                yield withChecksum(content);
+            }
+            case "trailing" -> withChecksum(Arrays.copyOf(bytes, bytes.length - 3));
+            default -> throw new IllegalArgumentException(damage);
+        };
+    }
+
+    private static byte[] withChecksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return ByteBuffer.allocate(content.length + 4).put(content).putInt((int) crc.getValue()).array();
+    }
+
+    private Path entryOf(Path file) throws IOException {
+        return new DeclarationCache(cacheDir, Long.MAX_VALUE).entryPath(DeclarationCache.hash(Files.readAllBytes(file)));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(sourceDir.resolve(name), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.dfa.DFA;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DfaSnapshotTest {
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    @TempDir
+    static Path directory;
+    private static byte[] snapshot;
+
+    @BeforeAll
+    static void train() throws IOException {
+        JavaFileParser parser = JavaFileParser.builder(null).build();
+        parser.parse(SOURCES.resolve("DfaSnapshot.java"));
+        parser.parse(SOURCES.resolve("EcoreModelManager.java"));
+        Path file = directory.resolve("trained.dfa");
+        DfaSnapshot.save(file);
+        snapshot = Files.readAllBytes(file);
+    }
+
+    @Test
+    void loadsSavedSnapshot() throws IOException {
+        int states = DfaSnapshot.stateCount();
+        assertTrue(DfaSnapshot.load(write("valid.dfa", snapshot)));
+        assertEquals(states, DfaSnapshot.stateCount());
+    }
+
+    @Test
+    void bundledSnapshotMatchesGrammar() throws IOException {
+        // Generated by the build, so it is always trained on the grammar it ships with.
+        assertTrue(DfaSnapshot.loadBundled());
+        // Back to the DFAs the other tests expect
+        assertTrue(DfaSnapshot.load(write("restore.dfa", snapshot)));
+    }
+
+    @Test
+    void ignoresTruncatedSnapshot() throws IOException {
+        for (int length : new int[]{0, 3, 8, 40, snapshot.length / 2, snapshot.length - 1}) {
+            assertIgnored(Arrays.copyOf(snapshot, length));
+        }
+    }
+
+    @Test
+    void ignoresDamagedSnapshot() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] damaged = snapshot.clone();
+            damaged[random.nextInt(damaged.length)] ^= (byte) (1 << random.nextInt(8));
+            assertIgnored(damaged);
+        }
+    }
+
+    @Test
+    void survivesDamageBehindValidChecksum() throws IOException {
+        // Indexes and counts are checked on their own, for damage the checksum cannot see.
+        Random random = new Random(7);
+        Path valid = write("valid.dfa", snapshot);
+        for (int i = 0; i < 500; i++) {
+            byte[] damaged = snapshot.clone();
+            int position = 40 + random.nextInt(damaged.length - 44);
+            damaged[position] ^= (byte) (1 << random.nextInt(8));
+            CRC32 crc = new CRC32();
+            crc.update(damaged, 0, damaged.length - 4);
+            ByteBuffer.wrap(damaged, damaged.length - 4, 4).putInt((int) crc.getValue());
+            DfaSnapshot.load(write("damaged.dfa", damaged));
+        }
+        assertTrue(DfaSnapshot.load(valid));
+    }
+
+    @Test
+    void ignoresTrailingData() throws IOException {
+        assertIgnored(Arrays.copyOf(snapshot, snapshot.length + 16));
+    }
+
+    private static void assertIgnored(byte[] bytes) throws IOException {
+        DFA[] lexerDfa = JavaLexer._decisionToDFA.clone();
+        DFA[] parserDfa = JavaParser._decisionToDFA.clone();
+        assertFalse(DfaSnapshot.load(write("damaged.dfa", bytes)));
+        assertArrayEquals(lexerDfa, JavaLexer._decisionToDFA);
+        assertArrayEquals(parserDfa, JavaParser._decisionToDFA);
+    }
+
+    private static Path write(String name, byte[] bytes) throws IOException {
+        return Files.write(directory.resolve(name), bytes);
+    }
+}
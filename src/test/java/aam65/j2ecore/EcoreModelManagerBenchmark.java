@@ -0,0 +1,89 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Builds models of a growing number of classifiers from synthetic declarations, with and without bulk-build mode,
+ * and prints the time each build took, so how it grows with the size of the package can be compared. Run with
+ * {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class EcoreModelManagerBenchmark {
+    private static final int[] CLASSIFIER_COUNTS = {1000, 2000, 4000, 8000, 16000, 32000};
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+    private static final int ROOTS = 100;
+
+    @Test
+    void modelBuildingTime() {
+        // Warm up on the largest model, so the smaller ones are not measured while the JIT compiles
+        List<ParsedFile> largest = declarations(CLASSIFIER_COUNTS[CLASSIFIER_COUNTS.length - 1]);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            build(largest, false);
+            build(largest, true);
+        }
+
+        System.out.println("Building a model, best of " + MEASURED_ROUNDS + " rounds:");
+        System.out.printf("  %11s %12s %12s %8s%n", "classifiers", "normal ms", "bulk ms", "speedup");
+        for (int count : CLASSIFIER_COUNTS) {
+            List<ParsedFile> files = declarations(count);
+            long normal = Long.MAX_VALUE;
+            long bulk = Long.MAX_VALUE;
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                normal = Math.min(normal, build(files, false));
+                bulk = Math.min(bulk, build(files, true));
+            }
+            System.out.printf("  %11d %12.1f %12.1f %7.1fx%n", count, normal / 1e6, bulk / 1e6,
+                    normal / (double) bulk);
+        }
+    }
+
+    /**
+     * @return the nanoseconds taken to add the declarations, link them and get the package
+     */
+    private static long build(List<ParsedFile> files, boolean bulkBuild) {
+        long start = System.nanoTime();
+        EcoreModelManager modelManager = new EcoreModelManager(bulkBuild);
+        for (ParsedFile file : files) {
+            modelManager.addDeclarations(file);
+        }
+        modelManager.link();
+        int classifiers = modelManager.getEPackage().getEClassifiers().size();
+        long nanos = System.nanoTime() - start;
+        assertEquals(files.size(), classifiers);
+        return nanos;
+    }
+
+    /**
+     * One file per class. Each class past the first hundred extends one of them, and each has a few attributes, a reference to another class
+     * and a couple of operations.
+     */
+    private static List<ParsedFile> declarations(int count) {
+        List<ParsedFile> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "Type" + i;
+            List<String> superTypes = i < ROOTS ? List.of() : List.of("Type" + i % ROOTS);
+            List<TypeDeclaration.Field> fields = List.of(
+                    new TypeDeclaration.Field("id", "long"),
+                    new TypeDeclaration.Field("label", "String"),
+                    new TypeDeclaration.Field("next", "Type" + (i * 7 + 1) % count));
+            List<TypeDeclaration.Operation> operations = List.of(
+                    new TypeDeclaration.Operation("getLabel", List.of(), "String"),
+                    new TypeDeclaration.Operation("link", List.of(
+                            new TypeDeclaration.Parameter("other", "Type" + (i * 3 + 2) % count),
+                            new TypeDeclaration.Parameter("weight", "int")), null));
+            TypeDeclaration type = new TypeDeclaration(TypeDeclaration.Kind.CLASS, name, "bench." + name, superTypes,
+                    List.of(new TypeDeclaration.Annotation("Generated", Map.of())), fields, operations, List.of());
+            files.add(new ParsedFile(Paths.get("bench", name + ".java"), "bench", List.of(), List.of(type)));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,130 @@
+package aam65.j2ecore;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EcoreModelManagerTest {
+    private static final Path A_NODE = Paths.get("src/a/Node.java");
+    private static final Path B_NODE = Paths.get("src/b/Node.java");
+    private static final Path FIRST_ROOT = Paths.get("first/x/Foo.java");
+    private static final Path SECOND_ROOT = Paths.get("second/x/Foo.java");
+    private static final Path USER = Paths.get("src/c/User.java");
+
+    @Test
+    void keepsClassifiersSharingASimpleName() {
+        for (List<Path> order : List.of(List.of(A_NODE, B_NODE), List.of(B_NODE, A_NODE))) {
+            EcoreModelManager modelManager = new EcoreModelManager();
+            for (Path path : order) {
+                modelManager.addDeclarations(nodeFile(path));
+            }
+            modelManager.link();
+
+            assertEquals(List.of("Node", "b_Node"), classifierNames(modelManager));
+            assertEquals("Node", modelManager.getClassifier("a.Node").getName());
+            assertEquals("b_Node", modelManager.getClassifier("b.Node").getName());
+            assertSame(modelManager.getClassifier("a.Node"), modelManager.getClassifier("Node"));
+            assertTrue(modelManager.getDuplicateNames().isEmpty());
+        }
+    }
+
+    @Test
+    void promotesNextClassifierWhenSimpleNameIsFreed() {
+        EcoreModelManager modelManager = new EcoreModelManager();
+        modelManager.addDeclarations(nodeFile(A_NODE));
+        modelManager.addDeclarations(nodeFile(B_NODE));
+        modelManager.addDeclarations(userFile());
+        modelManager.link();
+        EClass user = modelManager.getEClassByName("c.User");
+        assertSame(modelManager.getClassifier("a.Node"), user.getESuperTypes().get(0));
+
+        modelManager.updateFile(A_NODE, null);
+
+        assertEquals(List.of("Node", "User"), classifierNames(modelManager));
+        assertSame(modelManager.getClassifier("b.Node"), user.getESuperTypes().get(0));
+    }
+
+    @Test
+    void keepsDuplicateQualifiedNameAsideWithoutBuildingIt() {
+        EcoreModelManager modelManager = new EcoreModelManager();
+        modelManager.addDeclarations(fooFile(FIRST_ROOT, "first"));
+        modelManager.addDeclarations(fooFile(SECOND_ROOT, "second"));
+        modelManager.link();
+
+        assertEquals(List.of("Foo"), classifierNames(modelManager));
+        assertEquals("first", operationName(modelManager.getEClassByName("x.Foo")));
+        assertEquals(List.of("x.Foo"), modelManager.getDuplicateNames());
+    }
+
+    @Test
+    void promotesDuplicateWhenWinningFileIsDeleted() {
+        EcoreModelManager modelManager = new EcoreModelManager();
+        modelManager.addDeclarations(fooFile(FIRST_ROOT, "first"));
+        modelManager.addDeclarations(fooFile(SECOND_ROOT, "second"));
+        modelManager.link();
+
+        modelManager.updateFile(FIRST_ROOT, null);
+
+        assertEquals(List.of("Foo"), classifierNames(modelManager));
+        assertEquals("second", operationName(modelManager.getEClassByName("x.Foo")));
+        assertTrue(modelManager.getDuplicateNames().isEmpty());
+        assertEquals(1, modelManager.getFiles().size());
+    }
+
+    @Test
+    void keepsWinnerWhenItsFileChanges() {
+        EcoreModelManager modelManager = new EcoreModelManager();
+        modelManager.addDeclarations(fooFile(FIRST_ROOT, "first"));
+        modelManager.addDeclarations(fooFile(SECOND_ROOT, "second"));
+        modelManager.link();
+
+        modelManager.updateFile(FIRST_ROOT, fooFile(FIRST_ROOT, "changed"));
+
+        assertEquals(List.of("Foo"), classifierNames(modelManager));
+        assertEquals("changed", operationName(modelManager.getEClassByName("x.Foo")));
+        assertEquals(List.of("x.Foo"), modelManager.getDuplicateNames());
+
+        modelManager.updateFile(SECOND_ROOT, null);
+        assertTrue(modelManager.getDuplicateNames().isEmpty());
+    }
+
+    private static ParsedFile nodeFile(Path path) {
+        String packageName = path.getParent().getFileName().toString();
+        return new ParsedFile(path, packageName, List.of(), List.of(classDeclaration("Node", packageName + ".Node",
+                List.of(), "visit")));
+    }
+
+    private static ParsedFile userFile() {
+        return new ParsedFile(USER, "c", List.of(), List.of(classDeclaration("User", "c.User", List.of("Node"), "use")));
+    }
+
+    private static ParsedFile fooFile(Path path, String operation) {
+        return new ParsedFile(path, "x", List.of(), List.of(classDeclaration("Foo", "x.Foo", List.of(), operation)));
+    }
+
+    private static TypeDeclaration classDeclaration(String name, String qualifiedName, List<String> superTypes,
+                                                    String operation) {
+        return new TypeDeclaration(TypeDeclaration.Kind.CLASS, name, qualifiedName, superTypes, List.of(), List.of(),
+                List.of(new TypeDeclaration.Operation(operation, List.of(), null)), List.of());
+    }
+
+    private static List<String> classifierNames(EcoreModelManager modelManager) {
+        return modelManager.getEPackage().getEClassifiers().stream()
+                .map(EClassifier::getName)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static String operationName(EClass eClass) {
+        return eClass.getEOperations().get(0).getName();
+    }
+}
@@ -0,0 +1,117 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Lexes the project's own sources over and over with the generated lexer and with {@link FastJavaLexer}, and prints
+ * the throughput of each: into a {@link CompactTokenStream}, the way a {@link ParseSession} reads them, and token by
+ * token through {@code nextToken()}. Run with {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class FastJavaLexerBenchmark {
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    @Test
+    void lexerThroughput() throws IOException {
+        List<CharStream> inputs = new ArrayList<>();
+        long chars = 0;
+        for (Path file : FastJavaLexerTest.projectSources()) {
+            CharStream input = CharStreams.fromString(Files.readString(file), file.toString());
+            inputs.add(input);
+            chars += input.size();
+        }
+
+        JavaLexer generated = new JavaLexer(null);
+        FastJavaLexer fastLexer = new FastJavaLexer(new JavaLexer(null));
+        CompactTokenStream tokens = new CompactTokenStream(false);
+        List<Run> runs = List.of(
+                new Run("JavaLexer into a token stream", () -> fill(generated, tokens, inputs)),
+                new Run("FastJavaLexer into a token stream", () -> fill(fastLexer, tokens, inputs)),
+                new Run("JavaLexer.nextToken()", () -> next(generated, inputs)),
+                new Run("FastJavaLexer.nextToken()", () -> next(fastLexer, inputs)));
+        long tokenCount = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (Run run : runs) {
+                long count = run.lexer.lexAll();
+                if (tokenCount == 0) {
+                    tokenCount = count;
+                }
+                assertEquals(tokenCount, count, run.name);
+            }
+        }
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (Run run : runs) {
+                long start = System.nanoTime();
+                run.lexer.lexAll();
+                run.nanos += System.nanoTime() - start;
+            }
+        }
+
+        double megachars = chars * (double) MEASURED_ROUNDS / 1e6;
+        System.out.printf("Lexing %d files, %.1f M chars, %d tokens, %d rounds:%n", inputs.size(), chars / 1e6,
+                tokenCount, MEASURED_ROUNDS);
+        for (Run run : runs) {
+            System.out.printf("  %-34s %7.1f M chars/s%n", run.name, megachars / (run.nanos / 1e9));
+        }
+    }
+
+    private static long fill(TokenSource lexer, CompactTokenStream tokens, List<CharStream> inputs) {
+        long count = 0;
+        for (CharStream input : inputs) {
+            setInput(lexer, input);
+            tokens.setTokenSource(lexer);
+            count += tokens.size() - 1;
+            tokens.clear();
+        }
+        return count;
+    }
+
+    private static long next(TokenSource lexer, List<CharStream> inputs) {
+        long count = 0;
+        for (CharStream input : inputs) {
+            setInput(lexer, input);
+            while (lexer.nextToken().getType() != Token.EOF) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void setInput(TokenSource lexer, CharStream input) {
+        input.seek(0);
+        if (lexer instanceof FastJavaLexer) {
+            ((FastJavaLexer) lexer).setInputStream(input);
+        } else {
+            ((JavaLexer) lexer).setInputStream(input);
+        }
+    }
+
+    private interface Lexing {
+        long lexAll();
+    }
+
+    private static final class Run {
+        final String name;
+        final Lexing lexer;
+        long nanos;
+
+        Run(String name, Lexing lexer) {
+            this.name = name;
+            this.lexer = lexer;
+        }
+    }
+}
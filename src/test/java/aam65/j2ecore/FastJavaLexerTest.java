@@ -0,0 +1,121 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the tokens of {@link FastJavaLexer} with those of the generated {@link JavaLexer}, token by token: type,
+ * channel, start, stop, line and column, both as token objects and as filled into a {@link CompactTokenStream}.
+ */
+class FastJavaLexerTest {
+    private static final Path SOURCES = Paths.get("src/main/java");
+
+    @ParameterizedTest
+    @MethodSource("projectSources")
+    void lexesProjectSourcesLikeTheGeneratedLexer(Path file) throws IOException {
+        assertSameTokens(Files.readString(file), file.toString());
+    }
+
+    @Test
+    void coversTheGeneratedParser() throws IOException {
+        assertTrue(projectSources().contains(SOURCES.resolve("aam65/j2ecore/JavaParser.java")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            // Numeric literals, valid and not.
+            "0 00 017 0_7 08 09.5 1_000 1__2 1_ 0x1F 0X1fL 0x_1 0xG 0b1010 0B1_0L 0b2 0b",
+            "1e10 1E+10 1.5e-3 1e .5 5. 5.f 1d 1D 1f 1L 1l 0x1.8p1 0x.8P-2d 0x1p 1.e2 1..2 1.2.3",
+            "x=1;y=.5f;z=a.b1;w=1.foo();v=0x1.P1;",
+            // Contextual keywords and operators the longest match has to split right.
+            "non-sealed class A {} non - sealed non-sealedX non-seal non-",
+            "a >>>= b >>= c >>> d >> e > f >= g >>>> h ->  :: ... .. @interface @ interface",
+            "List<List<List<String>>> x; a<<=b; a!=b; a&&=b; a||b; a^=b; a%=b; a++--;",
+            // Unicode escapes and non-ASCII text.
+            "int \\u0061bc = '\\u0041'; String s = \"\\u2603\"; \\uuuu0041 x;",
+            "int gr\u00f6\u00dfe = 1; String s = \"\u2603 \uD83D\uDE00\"; char c = '\u00e9';",
+            "String \\u0022 = 1;",
+            // Literals, comments and blank text.
+            "\"a\\\"b\\\\\" 'a' '\\'' '\\\\' '\\n' '\\123' \"\\7\" \"\\s\" 'ab'",
+            "String t = \"\"\"\n    text \"\" block\n    \"\"\"; int x;",
+            "/** doc */ /* block\n comment */ // line\r\nx\ry\tz\fw",
+            // Unterminated literals and comments.
+            "String s = \"abc\nint x;",
+            "char c = 'a\nint x;",
+            "char c = ''; int x;",
+            "/* never closed\n int x;",
+            "String t = \"\"\"\n never closed",
+            "String s = \"abc",
+            "# ` \\ \u0000 \u00a0 x",
+            "",
+    })
+    void lexesEdgeCasesLikeTheGeneratedLexer(String code) {
+        assertSameTokens(code, "edge case");
+    }
+
+    static List<Path> projectSources() throws IOException {
+        try (Stream<Path> paths = Files.walk(SOURCES)) {
+            return paths.filter(path -> path.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void assertSameTokens(String code, String name) {
+        JavaLexer reference = new JavaLexer(CharStreams.fromString(code, name));
+        reference.removeErrorListeners();
+        List<Token> expected = new ArrayList<>();
+        Token token;
+        do {
+            token = reference.nextToken();
+            expected.add(token);
+        } while (token.getType() != Token.EOF);
+
+        JavaLexer fallback = new JavaLexer(null);
+        fallback.removeErrorListeners();
+        FastJavaLexer fastLexer = new FastJavaLexer(fallback);
+        fastLexer.setInputStream(CharStreams.fromString(code, name));
+        List<Token> actual = new ArrayList<>();
+        do {
+            token = fastLexer.nextToken();
+            actual.add(token);
+        } while (token.getType() != Token.EOF);
+        assertTokens(expected, actual);
+
+        fastLexer.setInputStream(CharStreams.fromString(code, name));
+        CompactTokenStream tokens = new CompactTokenStream(false);
+        tokens.setTokenSource(fastLexer);
+        List<Token> filled = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            filled.add(tokens.get(i));
+        }
+        assertTokens(expected, filled);
+    }
+
+    private static void assertTokens(List<Token> expected, List<Token> actual) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            assertEquals(describe(expected.get(i)), describe(actual.get(i)), "token " + i);
+        }
+        assertEquals(expected.size(), actual.size());
+    }
+
+    private static String describe(Token token) {
+        return JavaLexer.VOCABULARY.getSymbolicName(token.getType()) + " channel " + token.getChannel() + " at "
+                + token.getStartIndex() + ".." + token.getStopIndex() + ", line " + token.getLine() + ":"
+                + token.getCharPositionInLine() + " '" + token.getText() + "'";
+    }
+}
@@ -0,0 +1,86 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the declarations read by {@link OutlineScanner} with those {@link DeclarationExtractor} takes from a parse
+ * tree. The files under {@code scanned} must be read by the scanner, and those under {@code fallback} must make it
+ * give up.
+ */
+class OutlineScannerTest {
+    private static final Path CORPUS = Paths.get("src/test/resources/aam65/j2ecore/outline");
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    private final JavaFileParser parser = JavaFileParser.builder(null).build();
+
+    @ParameterizedTest
+    @MethodSource("scannedFiles")
+    void scansLikeTheParser(Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        ParsedFile scanned = OutlineScanner.scan(file, content);
+        assertNotNull(scanned, "the scanner gave up");
+        assertSameDeclarations(parser.parse(file, content), scanned);
+    }
+
+    @ParameterizedTest
+    @MethodSource("fallbackFiles")
+    void fallsBackToTheParser(Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        assertNull(OutlineScanner.scan(file, content));
+
+        JavaFileParser scanning = JavaFileParser.builder(null).outlineScanner(true).build();
+        assertSameDeclarations(parser.parse(file, content), scanning.parse(file, content));
+        assertEquals(0, scanning.getScannedFileCount());
+        assertEquals(1, scanning.getParsedFileCount());
+    }
+
+    @Test
+    void scansProjectSourcesLikeTheParser() throws IOException {
+        int scannedCount = 0;
+        for (Path file : javaFiles(SOURCES)) {
+            byte[] content = Files.readAllBytes(file);
+            ParsedFile scanned = OutlineScanner.scan(file, content);
+            if (scanned != null) {
+                assertSameDeclarations(parser.parse(file, content), scanned);
+                scannedCount++;
+            }
+        }
+        assertTrue(scannedCount > 0);
+    }
+
+    static List<Path> scannedFiles() throws IOException {
+        return javaFiles(CORPUS.resolve("scanned"));
+    }
+
+    static List<Path> fallbackFiles() throws IOException {
+        return javaFiles(CORPUS.resolve("fallback"));
+    }
+
+    static List<Path> javaFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static void assertSameDeclarations(ParsedFile expected, ParsedFile actual) {
+        assertEquals(expected.getPath(), actual.getPath());
+        assertEquals(expected.getPackageName(), actual.getPackageName());
+        assertEquals(expected.getImports(), actual.getImports());
+        assertEquals(expected.getTypeDeclarations(), actual.getTypeDeclarations());
+    }
+}
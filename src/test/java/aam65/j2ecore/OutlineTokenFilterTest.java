@@ -0,0 +1,92 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that parsing the outline {@link OutlineTokenFilter} leaves extracts the same declarations as parsing every
+ * token.
+ */
+class OutlineTokenFilterTest {
+    private static final Path CORPUS = Paths.get("src/test/resources/aam65/j2ecore/outline");
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    private final JavaFileParser fullParser = JavaFileParser.builder(null).build();
+    private final JavaFileParser outlineParser = JavaFileParser.builder(null).outline(true).build();
+
+    @ParameterizedTest
+    @MethodSource("files")
+    void extractsSameDeclarationsAsFullParse(Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        OutlineScannerTest.assertSameDeclarations(fullParser.parse(file, content), outlineParser.parse(file, content));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "interface I { int A = 1, B = 2; String S = \"x\" + 1; int[] T = {1}; }",
+            "class C { int a = 1, b; Runnable r = () -> { }; int[] v = {1, 2}; java.util.List<String> l = f(); }",
+            "class C { Object o = new Object() { int hidden; }; void m() { class Local { int x; } } }",
+            "class C { static { new Thread() { public void run() { } }; } { int i = 0; } C() { super(); } }",
+            "enum E { A { void f() { } }, B(1); int v = 3; E() { } E(int v) { this.v = v; } }",
+            "@interface A { int v() default 1; String[] names() default {\"a\"}; }",
+            "class C<T> { <U> U pick(U u) { return u; } int m(int... xs) { return xs.length; } }",
+            "class C { void m() { switch (1) { case 1 -> { } default -> { } } } int after; }",
+    })
+    void extractsSameDeclarationsOnEdgeCases(String code) {
+        Path file = Paths.get("Edge.java");
+        byte[] content = code.getBytes(StandardCharsets.UTF_8);
+        OutlineScannerTest.assertSameDeclarations(fullParser.parse(file, content), outlineParser.parse(file, content));
+    }
+
+    @Test
+    void replacesBodiesAndInitializers() {
+        assertEquals("class C { int f ; void m ( ) { } C ( ) { } { } }",
+                outline("class C { int f = g(1); void m() { x(); if (y) { z(); } } C() { super(); } { init(); } }"));
+        assertEquals("interface I { int A = 0 ; }", outline("interface I { int A = 1 + 2, B = 3; }"));
+    }
+
+    @Test
+    void keepsBodiesDeclaringTypes() {
+        String code = "class C { void m ( ) { class L { } } Object o = new Object ( ) { class X { } } ; }";
+        assertEquals(code, outline(code));
+        assertEquals("class C { Object o ; }", outline("class C { Object o = new Object() { int x; }; }"));
+    }
+
+    @Test
+    void keepsTokensWhenBracesDoNotBalance() {
+        assertEquals("class C { void m ( ) { x ( ) ; }", outline("class C { void m() { x(); }"));
+        assertEquals("class C { } }", outline("class C { } }"));
+        assertEquals("class C { int f = ( 1 ; }", outline("class C { int f = (1; }"));
+    }
+
+    private static String outline(String code) {
+        TokenSource filtered = OutlineTokenFilter.filter(new JavaLexer(CharStreams.fromString(code)));
+        List<String> texts = new ArrayList<>();
+        for (Token token = filtered.nextToken(); token.getType() != Token.EOF; token = filtered.nextToken()) {
+            texts.add(token.getText());
+        }
+        return String.join(" ", texts);
+    }
+
+    static List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>(OutlineScannerTest.javaFiles(SOURCES));
+        files.addAll(OutlineScannerTest.javaFiles(CORPUS.resolve("scanned")));
+        files.addAll(OutlineScannerTest.javaFiles(CORPUS.resolve("fallback")));
+        return files;
+    }
+}
@@ -0,0 +1,115 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelParseEngineTest {
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    @Test
+    void processesInPathOrderWithBoundedFilesInFlight(@TempDir Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Path file = root.resolve(String.format("p%d/File%03d.java", i % 13, i));
+            Files.createDirectories(file.getParent());
+            files.add(Files.writeString(file, "class X {}"));
+        }
+        Collections.sort(files);
+
+        for (int threads : new int[]{1, 4, 16}) {
+            RecordingParser parser = new RecordingParser();
+            new ParallelParseEngine(parser, threads).parseAll(new SourceDiscovery(root, 4));
+
+            assertEquals(files, parser.processed);
+            // The window, plus the largest files started first.
+            assertTrue(parser.maxInFlight.get() <= threads * 4 + threads,
+                    threads + " threads kept " + parser.maxInFlight.get() + " files in flight");
+        }
+    }
+
+    @Test
+    void exportsSameModelForAnyNumberOfThreads(@TempDir Path directory) throws IOException {
+        String expected = null;
+        for (int threads : new int[]{1, 2, 3, 8}) {
+            EcoreModelManager modelManager = new EcoreModelManager();
+            new ParallelParseEngine(new JavaFileParser(modelManager), threads)
+                    .parseAll(new SourceDiscovery(SOURCES, List.of(), List.of(), false, 4));
+            modelManager.link();
+            Path file = directory.resolve("model" + threads + ".ecore");
+            new EcoreExporter().exportModel(modelManager.getEPackage(), file.toString());
+            String exported = Files.readString(file);
+            if (expected == null) {
+                expected = exported;
+            }
+            assertEquals(expected, exported, threads + " threads");
+        }
+    }
+
+    @Test
+    void startsAWalkWithTheLargestFilesAndBoundsFilesInFlight(@TempDir Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path largest = null;
+        for (int i = 0; i < 200; i++) {
+            Path file = root.resolve(String.format("p%d/File%03d.java", i % 7, i));
+            Files.createDirectories(file.getParent());
+            files.add(Files.writeString(file, "class X {}" + " ".repeat(i == 123 ? 5000 : 100 + i)));
+            if (i == 123) {
+                largest = file;
+            }
+        }
+        Files.writeString(root.resolve("p1/notes.txt"), " ".repeat(10000));
+        Collections.sort(files);
+
+        // Only a single thread is sure to start the first file submitted first
+        RecordingParser oneThread = new RecordingParser();
+        new ParallelParseEngine(oneThread, 1).parseAll(new SourceDiscovery(root, 4));
+        assertEquals(largest, oneThread.started.get(0));
+        assertEquals(files, oneThread.processed);
+        assertTrue(oneThread.maxInFlight.get() <= 4 + 1);
+
+        for (int threads : new int[]{4, 16}) {
+            RecordingParser parser = new RecordingParser();
+            new ParallelParseEngine(parser, threads).parseAll(new SourceDiscovery(root, 4));
+
+            assertEquals(files, parser.processed);
+            assertTrue(parser.maxInFlight.get() <= threads * 4 + threads,
+                    threads + " threads kept " + parser.maxInFlight.get() + " files in flight");
+        }
+    }
+
+    private static class RecordingParser extends JavaFileParser {
+        final List<Path> processed = new ArrayList<>();
+        final List<Path> started = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        RecordingParser() {
+            super(JavaFileParser.builder(null));
+        }
+
+        @Override
+        public ParsedFile parse(Path filePath) {
+            started.add(filePath);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return new ParsedFile(filePath, "p", List.of(), List.of());
+        }
+
+        @Override
+        public void process(ParsedFile parsedFile) {
+            inFlight.decrementAndGet();
+            processed.add(parsedFile.getPath());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelismControllerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MB = 1_000_000;
+
+    private long now;
+    private long gcMillis;
+    private double heapShare;
+    private long bytes;
+    private long starvedNanos;
+    private long blockedNanos;
+    private ParallelismController controller;
+
+    @BeforeEach
+    void start() {
+        now = SECOND;
+        heapShare = 0.1;
+        controller = new ParallelismController(8, 0.85, () -> now, () -> gcMillis, () -> heapShare);
+        controller.update(0, 0, 0);
+    }
+
+    @Test
+    void startsAtHalfTheThreads() {
+        assertEquals(4, controller.getParallelism());
+        assertEquals(1, new ParallelismController(1, 0.85).getParallelism());
+    }
+
+    @Test
+    void waitsForAFullIntervalWithProgress() {
+        now += 2 * SECOND;
+        controller.update(0, 0, 0);
+        assertEquals(4, controller.getParallelism());
+
+        interval(100);
+        assertEquals(5, controller.getParallelism());
+        now += SECOND / 2;
+        controller.update(bytes + 100 * MB, 0, 0);
+        assertEquals(5, controller.getParallelism());
+    }
+
+    @Test
+    void climbsWhileThroughputRisesAndTurnsBackWhenItFalls() {
+        interval(100);
+        assertEquals(5, controller.getParallelism());
+        interval(120);
+        assertEquals(6, controller.getParallelism());
+        interval(122);
+        assertEquals(6, controller.getParallelism());
+        interval(100);
+        assertEquals(5, controller.getParallelism());
+        interval(110);
+        assertEquals(4, controller.getParallelism());
+    }
+
+    @Test
+    void turnsAtTheLargestNumberOfThreads() {
+        for (int i = 0; i < 4; i++) {
+            interval(100 + 20 * i);
+        }
+        assertEquals(8, controller.getParallelism());
+        interval(200);
+        assertEquals(8, controller.getParallelism());
+        interval(250);
+        assertEquals(7, controller.getParallelism());
+    }
+
+    @Test
+    void halvesWhenHeapIsAboveCeiling() {
+        heapShare = 0.9;
+        interval(100);
+        assertEquals(2, controller.getParallelism());
+        interval(100);
+        assertEquals(1, controller.getParallelism());
+        interval(100);
+        assertEquals(1, controller.getParallelism());
+    }
+
+    @Test
+    void halvesWhenCollectionTakesTooLong() {
+        gcMillis += 300;
+        interval(100);
+        assertEquals(2, controller.getParallelism());
+    }
+
+    @Test
+    void dropsOneWhenStarvedOrBlocked() {
+        starvedNanos += 3 * SECOND;
+        interval(100);
+        assertEquals(3, controller.getParallelism());
+
+        blockedNanos += 2 * SECOND;
+        interval(100);
+        assertEquals(2, controller.getParallelism());
+
+        // Waits below half the time leave it to throughput, which held.
+        starvedNanos += SECOND / 2;
+        interval(100);
+        assertEquals(2, controller.getParallelism());
+    }
+
+    /**
+     * Lets one second pass in which the parsers read the given number of megabytes.
+     */
+    private void interval(long megabytes) {
+        now += SECOND;
+        bytes += megabytes * MB;
+        controller.update(bytes, starvedNanos, blockedNanos);
+    }
+}
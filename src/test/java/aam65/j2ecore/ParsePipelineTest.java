@@ -0,0 +1,113 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParsePipelineTest {
+    private static final long READ_DELAY_MILLIS = 50;
+    private static final int FILES = 40;
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void prefetchOverlapsSlowReads() {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(Paths.get("slow/p/Type" + i + ".java"));
+        }
+
+        SlowFileSystem oneReader = new SlowFileSystem();
+        long sequentialNanos = run(files, 1, 1, oneReader);
+        SlowFileSystem prefetching = new SlowFileSystem();
+        long prefetchNanos = run(files, 16, 16, prefetching);
+
+        assertEquals(1, oneReader.maxConcurrentReads.get());
+        assertTrue(prefetching.maxConcurrentReads.get() > 1, "reads did not overlap");
+        assertTrue(prefetching.maxConcurrentReads.get() <= 16);
+        assertTrue(sequentialNanos >= FILES * READ_DELAY_MILLIS * 1_000_000);
+        assertTrue(prefetchNanos * 3 < sequentialNanos,
+                "prefetching took " + prefetchNanos / 1_000_000 + " ms, one reader " + sequentialNanos / 1_000_000
+                        + " ms");
+    }
+
+    @Test
+    void buildsSameModelAsSequentialRunForAnyNumberOfThreads() throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(SOURCES)) {
+            files = paths.filter(path -> path.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+        EcoreModelManager sequential = new EcoreModelManager();
+        JavaFileParser sequentialParser = new JavaFileParser(sequential);
+        for (Path file : files) {
+            sequentialParser.parseFile(file);
+        }
+        String expected = export(sequential);
+
+        for (int threads : new int[]{1, 2, 3, 8}) {
+            EcoreModelManager modelManager = new EcoreModelManager();
+            new ParsePipeline(new JavaFileParser(modelManager), threads, threads, 2).parseAll(files);
+            assertEquals(expected, export(modelManager), threads + " threads");
+        }
+
+        EcoreModelManager discovered = new EcoreModelManager();
+        new ParsePipeline(new JavaFileParser(discovered), 4, 4, 2)
+                .parseAll(new SourceDiscovery(SOURCES, List.of(), List.of(), false, 4));
+        assertEquals(expected, export(discovered), "files from a walk");
+    }
+
+    private String export(EcoreModelManager modelManager) throws IOException {
+        modelManager.link();
+        Path file = directory.resolve("model.ecore");
+        new EcoreExporter().exportModel(modelManager.getEPackage(), file.toString());
+        return Files.readString(file);
+    }
+
+    private static long run(List<Path> files, int readers, int prefetchDistance, SlowFileSystem fileSystem) {
+        EcoreModelManager modelManager = new EcoreModelManager();
+        JavaFileParser parser = new JavaFileParser(modelManager);
+        ParsePipeline pipeline = new ParsePipeline(parser, readers, 2, 4, null, null, prefetchDistance, 0)
+                .readingWith(fileSystem::read);
+        long start = System.nanoTime();
+        pipeline.parseAll(files);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(FILES, modelManager.getEPackage().getEClassifiers().size());
+        return elapsed;
+    }
+
+    /**
+     * Serves a small class for every path, each read taking a while, like a network-mounted tree.
+     */
+    private static final class SlowFileSystem {
+        final AtomicInteger concurrentReads = new AtomicInteger();
+        final AtomicInteger maxConcurrentReads = new AtomicInteger();
+
+        byte[] read(Path path) {
+            maxConcurrentReads.accumulateAndGet(concurrentReads.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(READ_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentReads.decrementAndGet();
+            }
+            String name = path.getFileName().toString().replace(".java", "");
+            return ("package p; public class " + name + " { int value; }").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
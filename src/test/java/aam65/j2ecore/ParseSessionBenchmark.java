@@ -0,0 +1,127 @@
+package aam65.j2ecore;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parses the project's own sources over and over, with a new lexer, token stream and parser for every file, with a
+ * new {@link ParseSession} for every file, and with a single session reused for all of them, and prints the bytes
+ * allocated and the time taken per file by each, for the hand-written sources and for the much larger generated lexer
+ * and parser. Fails if a reused session allocates more than new objects. Run with {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class ParseSessionBenchmark {
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 10;
+
+    @Test
+    void allocationPerFile() throws IOException {
+        List<CharStream> handWritten = new ArrayList<>();
+        List<CharStream> generated = new ArrayList<>();
+        for (Path file : FastJavaLexerTest.projectSources()) {
+            String name = file.getFileName().toString();
+            boolean isGenerated = name.equals("JavaLexer.java") || name.equals("JavaParser.java");
+            (isGenerated ? generated : handWritten).add(CharStreams.fromString(Files.readString(file), file.toString()));
+        }
+        measure("hand-written", handWritten);
+        measure("generated", generated);
+    }
+
+    private static void measure(String kind, List<CharStream> inputs) {
+        ParseSession session = new ParseSession();
+        Run newObjects = new Run("New lexer, token stream and parser", ParseSessionBenchmark::parseWithNewObjects);
+        Run reused = new Run("Reused session", input -> parse(session, input));
+        List<Run> runs = List.of(newObjects, new Run("New session", input -> parse(new ParseSession(), input)), reused);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (Run run : runs) {
+                run.parseAll(inputs);
+            }
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (Run run : runs) {
+                long allocated = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                run.parseAll(inputs);
+                run.nanos += System.nanoTime() - start;
+                run.bytes += threads.getCurrentThreadAllocatedBytes() - allocated;
+            }
+        }
+
+        long files = (long) inputs.size() * MEASURED_ROUNDS;
+        System.out.printf("Parsing %d %s files, %d rounds, per file:%n", inputs.size(), kind, MEASURED_ROUNDS);
+        for (Run run : runs) {
+            System.out.printf("  %-36s %8.1f KB %8.1f us%n", run.name, run.bytes / 1024.0 / files,
+                    run.nanos / 1e3 / files);
+        }
+        assertTrue(reused.bytes <= newObjects.bytes, "a reused session allocates more than new objects");
+    }
+
+    private static Object parse(ParseSession session, CharStream input) {
+        try {
+            return session.parse(input, false);
+        } finally {
+            session.clear();
+        }
+    }
+
+    /**
+     * How files were parsed before sessions: SLL first, then LL on failure, with everything created for the file.
+     */
+    private static Object parseWithNewObjects(CharStream input) {
+        JavaLexer lexer = new JavaLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        JavaParser parser = new JavaParser(tokens);
+        List<ANTLRErrorListener> errorListeners = new ArrayList<>(parser.getErrorListeners());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            tokens.seek(0);
+            parser.reset();
+            errorListeners.forEach(parser::addErrorListener);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.compilationUnit();
+        }
+    }
+
+    private static final class Run {
+        final String name;
+        final Function<CharStream, Object> parser;
+        long nanos;
+        long bytes;
+
+        Run(String name, Function<CharStream, Object> parser) {
+            this.name = name;
+            this.parser = parser;
+        }
+
+        void parseAll(List<CharStream> inputs) {
+            for (CharStream input : inputs) {
+                input.seek(0);
+                parser.apply(input);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceDiscoveryTest {
+    @TempDir
+    Path root;
+
+    @BeforeEach
+    void createTree() throws IOException {
+        for (String name : List.of("src/A.java", "src/gen/G.java", "src/keep/K.java", "build/B.java", "notes.txt",
+                ".git/H.java")) {
+            Path file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "class X {}");
+        }
+        Files.writeString(root.resolve(".gitignore"), "build/\n");
+        Files.writeString(root.resolve("src/.gitignore"), "gen/\n");
+    }
+
+    @Test
+    void acceptsWhatAWalkFinds() throws IOException {
+        SourceDiscovery discovery = new SourceDiscovery(root, List.of(), List.of("keep/"), true, 2);
+        List<Path> found = sorted(discovery.discover());
+
+        assertEquals(List.of(root.resolve("src/A.java")), found);
+        assertTrue(discovery.accepts(root.resolve("src/A.java")));
+        // Deleted files are judged by their path.
+        assertTrue(discovery.accepts(root.resolve("src/Gone.java")));
+        assertFalse(discovery.accepts(root.resolve("src/gen/G.java")));
+        assertFalse(discovery.accepts(root.resolve("src/keep/K.java")));
+        assertFalse(discovery.accepts(root.resolve("build/B.java")));
+        assertFalse(discovery.accepts(root.resolve(".git/H.java")));
+        assertFalse(discovery.accepts(root.resolve("notes.txt")));
+        assertFalse(discovery.accepts(root.getParent().resolve("Outside.java")));
+    }
+
+    @Test
+    void acceptsEveryJavaFileWithoutIgnoreFiles() {
+        SourceDiscovery discovery = new SourceDiscovery(root, 1);
+
+        assertTrue(discovery.accepts(root.resolve("src/gen/G.java")));
+        assertTrue(discovery.accepts(root.resolve("build/B.java")));
+        assertFalse(discovery.accepts(root.resolve("notes.txt")));
+    }
+
+    @Test
+    void walksPartOfTheTreeWithTheRulesAboveIt() throws IOException {
+        Files.createDirectories(root.resolve("src/more/gen"));
+        Files.writeString(root.resolve("src/more/M.java"), "class M {}");
+        Files.writeString(root.resolve("src/more/gen/N.java"), "class N {}");
+        SourceDiscovery discovery = new SourceDiscovery(root, List.of(), List.of(), true, 2);
+
+        List<Path> directories = Collections.synchronizedList(new ArrayList<>());
+        List<Path> files = Collections.synchronizedList(new ArrayList<>());
+        discovery.discover(root.resolve("src/more"), directories::add, files::add);
+        assertEquals(List.of(root.resolve("src/more")), directories);
+        assertEquals(List.of(root.resolve("src/more/M.java")), files);
+
+        directories.clear();
+        files.clear();
+        discovery.discover(root.resolve("build"), directories::add, files::add);
+        assertTrue(directories.isEmpty());
+        assertTrue(files.isEmpty());
+    }
+
+    @Test
+    void unanchoredPatternMatchesNameAtAnyDepth() {
+        SourceDiscovery.Rule rule = SourceDiscovery.Rule.parse("*.log", "");
+        assertTrue(rule.matches("debug.log", "debug.log", false));
+        assertTrue(rule.matches("a/b/debug.log", "debug.log", false));
+        assertTrue(rule.matches("logs.log", "logs.log", true));
+        assertFalse(rule.matches("a/debug.log.txt", "debug.log.txt", false));
+    }
+
+    @Test
+    void slashAnchorsPatternToItsDirectory() {
+        SourceDiscovery.Rule leading = SourceDiscovery.Rule.parse("/build", "");
+        assertTrue(leading.matches("build", "build", true));
+        assertFalse(leading.matches("src/build", "build", true));
+
+        SourceDiscovery.Rule middle = SourceDiscovery.Rule.parse("doc/*.txt", "");
+        assertTrue(middle.matches("doc/notes.txt", "notes.txt", false));
+        assertFalse(middle.matches("doc/api/notes.txt", "notes.txt", false));
+        assertFalse(middle.matches("src/doc/notes.txt", "notes.txt", false));
+
+        // Relative to the directory of the ignore file.
+        SourceDiscovery.Rule nested = SourceDiscovery.Rule.parse("/gen", "src/");
+        assertTrue(nested.matches("src/gen", "gen", true));
+        assertFalse(nested.matches("gen", "gen", true));
+        assertFalse(nested.matches("src/main/gen", "gen", true));
+        SourceDiscovery.Rule nestedName = SourceDiscovery.Rule.parse("gen", "src/");
+        assertTrue(nestedName.matches("src/main/gen", "gen", true));
+    }
+
+    @Test
+    void doubleStarMatchesAnyNumberOfDirectories() {
+        SourceDiscovery.Rule leading = SourceDiscovery.Rule.parse("**/generated", "");
+        assertTrue(leading.matches("generated", "generated", true));
+        assertTrue(leading.matches("a/b/generated", "generated", true));
+
+        SourceDiscovery.Rule middle = SourceDiscovery.Rule.parse("a/**/b", "");
+        assertTrue(middle.matches("a/b", "b", true));
+        assertTrue(middle.matches("a/x/y/b", "b", true));
+        assertFalse(middle.matches("c/a/b", "b", true));
+
+        SourceDiscovery.Rule trailing = SourceDiscovery.Rule.parse("a/**", "");
+        assertTrue(trailing.matches("a/x/y.java", "y.java", false));
+        assertFalse(trailing.matches("a", "a", true));
+    }
+
+    @Test
+    void singleStarAndQuestionMarkStopAtSlash() {
+        assertFalse(SourceDiscovery.Rule.parse("a/*.java", "").matches("a/b/C.java", "C.java", false));
+        assertTrue(SourceDiscovery.Rule.parse("a/?.java", "").matches("a/C.java", "C.java", false));
+        assertFalse(SourceDiscovery.Rule.parse("a?b", "").matches("a/b", "b", false));
+        assertTrue(SourceDiscovery.Rule.parse("[AB]*.java", "").matches("Bean.java", "Bean.java", false));
+        assertFalse(SourceDiscovery.Rule.parse("[!AB]*.java", "").matches("Bean.java", "Bean.java", false));
+    }
+
+    @Test
+    void trailingSlashOnlyMatchesDirectories() {
+        SourceDiscovery.Rule rule = SourceDiscovery.Rule.parse("build/", "");
+        assertTrue(rule.matches("build", "build", true));
+        assertTrue(rule.matches("sub/build", "build", true));
+        assertFalse(rule.matches("build", "build", false));
+    }
+
+    @Test
+    void exclamationMarkNegates() {
+        SourceDiscovery.Rule rule = SourceDiscovery.Rule.parse("!Keep.java", "");
+        assertTrue(rule.negated);
+        assertTrue(rule.matches("a/Keep.java", "Keep.java", false));
+        assertFalse(SourceDiscovery.Rule.parse("\\!Keep.java", "").negated);
+        assertTrue(SourceDiscovery.Rule.parse("\\!Keep.java", "").matches("!Keep.java", "!Keep.java", false));
+    }
+
+    @Test
+    void trailingSpacesAreStrippedUnlessEscaped() {
+        assertTrue(SourceDiscovery.Rule.parse("foo   ", "").matches("foo", "foo", false));
+        SourceDiscovery.Rule escaped = SourceDiscovery.Rule.parse("foo\\ ", "");
+        assertTrue(escaped.matches("foo ", "foo ", false));
+        assertFalse(escaped.matches("foo", "foo", false));
+    }
+
+    @Test
+    void skipsBlankLinesAndComments() {
+        assertNull(SourceDiscovery.Rule.parse("", ""));
+        assertNull(SourceDiscovery.Rule.parse("   ", ""));
+        assertNull(SourceDiscovery.Rule.parse("# comment", ""));
+        assertTrue(SourceDiscovery.Rule.parse("\\#file", "").matches("#file", "#file", false));
+    }
+
+    private static List<Path> sorted(List<Path> paths) {
+        List<Path> sorted = new ArrayList<>(paths);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,60 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that {@link StreamingExtractor} extracts the same declarations as {@link DeclarationExtractor} does from a
+ * whole parse tree.
+ */
+class StreamingExtractorTest {
+    private static final Path CORPUS = Paths.get("src/test/resources/aam65/j2ecore/outline");
+    private static final Path SOURCES = Paths.get("src/main/java/aam65/j2ecore");
+
+    private final JavaFileParser treeParser = JavaFileParser.builder(null).build();
+    private final JavaFileParser streamingParser = JavaFileParser.builder(null).streaming(true).build();
+    private final JavaFileParser outlineStreamingParser =
+            JavaFileParser.builder(null).outline(true).streaming(true).build();
+
+    @ParameterizedTest
+    @MethodSource("files")
+    void extractsSameDeclarationsAsTree(Path file) throws IOException {
+        assertSameDeclarations(file, Files.readAllBytes(file));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "package p; import java.util.*; import static java.lang.Math.max; class A { } interface B { }",
+            "class C { class D { int x; class E { } } int y; void m() { class Local { int z; } } }",
+            "enum E implements Runnable { A { public void run() { } }, B; public void run() { } int v; }",
+            "record R<T>(T value, int... rest) implements Comparable<R<T>> { R { } static int s; }",
+            "@interface A { int v() default 1; class Inner { } }",
+            "class C { void m() { x( ; } int after; class Nested { } }",
+            "class C { int a, b[] = {1}; Object o = new Object() { class Hidden { } }; }",
+    })
+    void extractsSameDeclarationsOnEdgeCases(String code) {
+        assertSameDeclarations(Paths.get("Edge.java"), code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assertSameDeclarations(Path file, byte[] content) {
+        ParsedFile expected = treeParser.parse(file, content);
+        OutlineScannerTest.assertSameDeclarations(expected, streamingParser.parse(file, content));
+        OutlineScannerTest.assertSameDeclarations(expected, outlineStreamingParser.parse(file, content));
+    }
+
+    static List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>(OutlineScannerTest.javaFiles(SOURCES));
+        files.addAll(OutlineScannerTest.javaFiles(CORPUS.resolve("scanned")));
+        files.addAll(OutlineScannerTest.javaFiles(CORPUS.resolve("fallback")));
+        return files;
+    }
+}
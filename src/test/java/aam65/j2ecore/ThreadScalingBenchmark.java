@@ -0,0 +1,92 @@
+package aam65.j2ecore;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the same amount of the project's hand-written sources on 1, 4, 16 and 64 threads, predicting with the DFA
+ * shared by every parser and with a copy per thread, and prints the throughput of each. Only the parse is measured, not
+ * reading the files or building the model. The numbers only mean something on a machine with about as many cores as
+ * the largest thread count. Run with {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class ThreadScalingBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    // Files parsed for each thread count, enough for 64 threads to parse several each.
+    private static final int FILES_PER_RUN = 64 * 20;
+
+    @Test
+    void parseThroughput() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        long bytes = 0;
+        for (Path file : FastJavaLexerTest.projectSources()) {
+            String name = file.getFileName().toString();
+            // The generated lexer and parser would make up most of the work on their own.
+            if (!name.equals("JavaLexer.java") && !name.equals("JavaParser.java")) {
+                paths.add(file);
+                contents.add(Files.readAllBytes(file));
+            }
+        }
+        for (int i = 0; i < FILES_PER_RUN; i++) {
+            bytes += contents.get(i % contents.size()).length;
+        }
+
+        JavaFileParser shared = JavaFileParser.builder(null).build();
+        JavaFileParser perThread = JavaFileParser.builder(null).threadLocalDfa(true).build();
+        // Warms the shared DFA, which the per-thread copies then start from, and the JIT.
+        parseAll(shared, 1, paths, contents);
+        parseAll(shared, 4, paths, contents);
+        parseAll(perThread, 4, paths, contents);
+
+        System.out.printf("Parsing %d files, %.1f MB, on %d processors:%n", FILES_PER_RUN, bytes / 1e6,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("  %7s %16s %16s%n", "threads", "shared MB/s", "per-thread MB/s");
+        for (int threads : THREAD_COUNTS) {
+            long sharedNanos = parseAll(shared, threads, paths, contents);
+            long perThreadNanos = parseAll(perThread, threads, paths, contents);
+            System.out.printf("  %7d %16.2f %16.2f%n", threads, bytes / 1e6 / (sharedNanos / 1e9),
+                    bytes / 1e6 / (perThreadNanos / 1e9));
+        }
+    }
+
+    /**
+     * Parses {@link #FILES_PER_RUN} files on new threads, so per-thread DFAs are copied again as they would be in a
+     * new run.
+     *
+     * @return the nanoseconds taken
+     */
+    private static long parseAll(JavaFileParser parser, int threads, List<Path> paths, List<byte[]> contents)
+            throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < FILES_PER_RUN; i = next.getAndIncrement()) {
+                        int file = i % paths.size();
+                        parser.parse(paths.get(file), contents.get(file));
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package corpus.anonymous;
+
+public class AnonymousWithType {
+    Object make() {
+        return new Object() {
+            class Hidden {
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package corpus.local;
+
+public class LocalClass {
+    void run() {
+        class Helper {
+            int value;
+        }
+        new Helper();
+    }
+}
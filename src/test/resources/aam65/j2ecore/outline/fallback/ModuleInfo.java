@@ -0,0 +1,3 @@
+module corpus.module {
+    requires java.base;
+}
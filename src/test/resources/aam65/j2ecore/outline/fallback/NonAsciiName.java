@@ -0,0 +1,5 @@
+package corpus.unicode;
+
+public class NonAsciiName {
+    int größe;
+}
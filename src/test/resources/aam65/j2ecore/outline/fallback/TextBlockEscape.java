@@ -0,0 +1,7 @@
+package corpus.text;
+
+public class TextBlockEscape {
+    String joined = """
+            one \
+            line\n""";
+}
@@ -0,0 +1,6 @@
+package corpus.unicode;
+
+public class UnicodeEscape {
+    int \u0061bc;
+    String escaped = "\u2603";
+}
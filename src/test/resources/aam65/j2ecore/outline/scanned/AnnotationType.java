@@ -0,0 +1,5 @@
+package corpus.annotations;
+
+public @interface AnnotationType {
+    String value() default "";
+}
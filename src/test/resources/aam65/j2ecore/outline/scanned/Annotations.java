@@ -0,0 +1,27 @@
+package corpus.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Deprecated
+public class Annotations {
+    @SuppressWarnings("unchecked")
+    private java.util.List<String> single;
+
+    @SuppressWarnings(value = {"rawtypes", "unchecked"})
+    private java.util.List raw;
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Deprecated(since = "9", forRemoval = true)
+    void old() {
+    }
+
+    @javax.annotation.Nullable
+    String maybe() {
+        return null;
+    }
+
+    @SafeVarargs
+    final void many(String... values) {
+    }
+}
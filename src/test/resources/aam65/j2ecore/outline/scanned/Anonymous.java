@@ -0,0 +1,18 @@
+package corpus.anonymous;
+
+public class Anonymous {
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            System.out.println("{ not a bracket }");
+        }
+    };
+
+    Comparable<String> compare() {
+        return new Comparable<String>() {
+            public int compareTo(String other) {
+                return 0;
+            }
+        };
+    }
+}
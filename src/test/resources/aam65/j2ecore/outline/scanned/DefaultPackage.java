@@ -0,0 +1,6 @@
+import java.util.*;
+import static java.lang.Math.max;
+
+class DefaultPackage {
+    List<String> items;
+}
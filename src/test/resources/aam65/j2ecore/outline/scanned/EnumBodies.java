@@ -0,0 +1,35 @@
+package corpus.enums;
+
+import java.util.function.IntBinaryOperator;
+
+public enum EnumBodies implements IntBinaryOperator {
+    PLUS("+") {
+        @Override
+        public int applyAsInt(int left, int right) {
+            return left + right;
+        }
+    },
+    MINUS("-") {
+        @Override
+        public int applyAsInt(int left, int right) {
+            return left - right;
+        }
+    },
+    @Deprecated
+    TIMES("*") {
+        @Override
+        public int applyAsInt(int left, int right) {
+            return left * right;
+        }
+    };
+
+    private final String symbol;
+
+    EnumBodies(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String symbol() {
+        return symbol;
+    }
+}
@@ -0,0 +1,29 @@
+package corpus.generics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class Generics<K, V extends Number> {
+    Map<? extends K, ? super V> bounded;
+    List<?> wildcard;
+    Map<String, Map<String, List<int[]>>> nested;
+
+    <T> T pick(List<? extends T> items) {
+        return items.get(0);
+    }
+
+    void addAll(Collection<? super V> target, V... values) {
+    }
+
+    void receiver(Generics<K, V> this, int value) {
+    }
+
+    int[] values(int[][] grid, String[] names) {
+        return grid[0];
+    }
+
+    Map.Entry<K, V> entry() {
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package corpus.interfaces;
+
+public interface Interfaces extends Comparable<Interfaces>, Runnable {
+    int LIMIT = 10;
+
+    void run();
+
+    default String name() {
+        return "x";
+    }
+
+    static Interfaces none() {
+        return null;
+    }
+
+    private void helper() {
+    }
+}
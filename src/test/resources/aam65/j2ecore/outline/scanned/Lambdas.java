@@ -0,0 +1,17 @@
+package corpus.lambdas;
+
+import java.util.function.Function;
+
+public class Lambdas {
+    Function<String, Integer> length = s -> { return s.length(); };
+    static { System.out.println(/* } */ "static"); }
+    { int[] a = {1, 2, 3}; }
+
+    void sort(java.util.List<String> names) {
+        names.sort((a, b) -> { return a.compareTo(b); }); // }
+        switch (names.size()) {
+            case 0 -> System.out.println("none");
+            default -> { }
+        }
+    }
+}
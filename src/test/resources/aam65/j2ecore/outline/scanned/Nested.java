@@ -0,0 +1,37 @@
+package corpus.nested;
+
+import java.util.List;
+import java.util.Map;
+
+public class Nested<T extends Comparable<? super T>> extends Base implements Runnable, java.io.Serializable {
+    private int count;
+    protected List<String> names;
+    Map<String, List<Integer>> index;
+    static final long SERIAL = 1L;
+
+    public void run() {
+    }
+
+    static class Inner {
+        String label;
+
+        int size() {
+            return label.length();
+        }
+    }
+
+    interface Listener {
+        void changed(Nested<?> source, int oldValue);
+    }
+
+    enum Mode { ON, OFF }
+
+    class Deeper {
+        class Deepest {
+            boolean flag;
+        }
+    }
+}
+
+class Base {
+}
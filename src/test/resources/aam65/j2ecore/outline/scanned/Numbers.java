@@ -0,0 +1,10 @@
+package corpus.numbers;
+
+public class Numbers {
+    long hex = 0xFF_FFL;
+    double exp = 1.5e-3;
+    float f = .5f;
+    int bin = 0b1010;
+    double hexFloat = 0x1.8p1;
+    int shifted = 1 >>> 2;
+}
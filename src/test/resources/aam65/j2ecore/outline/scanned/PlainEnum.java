@@ -0,0 +1,5 @@
+package corpus.enums;
+
+enum PlainEnum {
+    RED, GREEN, BLUE,
+}
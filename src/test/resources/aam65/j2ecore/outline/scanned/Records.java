@@ -0,0 +1,4 @@
+package corpus.records;
+
+public record Records(int x, int y) {
+}
@@ -0,0 +1,6 @@
+package corpus.sealed;
+
+public sealed interface SealedTypes permits SealedTypes.A {
+    final class A implements SealedTypes {
+    }
+}
@@ -0,0 +1,21 @@
+package corpus.text;
+
+public class TextBlocks {
+    String html = """
+            <html>
+                <body class="{">}</body>
+            </html>
+            """;
+    String quotes = """
+            She said "hi" and "" to "{"
+            """;
+    char brace = '{';
+    char quote = '\'';
+    String slash = "\\";
+
+    String describe() {
+        return """
+                { "key": "value" }
+                """;
+    }
+}
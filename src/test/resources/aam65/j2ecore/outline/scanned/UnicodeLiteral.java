@@ -0,0 +1,7 @@
+package corpus.unicode;
+
+public class UnicodeLiteral {
+    String escaped = "\u2603 and \u00e9";
+    char tab = '\u0009';
+    String snowman = "☃";
+}